@@ -0,0 +1,320 @@
+package io.glimmer.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// User-defined alerts from glimmer_alertRules, a JSON array of rules like
+//
+//   {"name": "Died", "action": 50, "self": 0, "field": "hp", "op": "<=",
+//    "value": 0, "hysteresis": 1, "cooldownSec": 60, "body": "HP {value}"}
+//
+// action is the packet id the rule listens to. self, when given, is the
+// payload slot that must hold the player's entity id. field is a payload
+// slot or one of "hp", "maxHp", "hpPercent", read after the packet was
+// applied to PlayerState; a rule without a field fires on every packet it
+// matches. Once fired, a rule stays quiet until its value is back past
+// value ± hysteresis, and for at least cooldownSec.
+//
+// The rules are compiled once per change into a table indexed by action id,
+// so a packet only looks at the rules for its own id. PacketPipeline owns
+// the rule state.
+public final class AlertRules {
+
+    // Packet ids above this are not real actions.
+    static final int MAX_ACTION = 1023;
+
+    static final int FIELD_NONE = -1;
+    static final int FIELD_HP = -2;
+    static final int FIELD_MAX_HP = -3;
+    static final int FIELD_HP_PERCENT = -4;
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    static final int OP_ANY = 0;
+    static final int OP_LT = 1;
+    static final int OP_LE = 2;
+    static final int OP_GT = 3;
+    static final int OP_GE = 4;
+    static final int OP_EQ = 5;
+    static final int OP_NE = 6;
+
+    public static final AlertRules NONE = new AlertRules(new Rule[0][], 0, Collections.emptyList(),
+            () -> System.nanoTime() / 1_000_000);
+
+    static final class Rule {
+        final String name;
+        final int action;
+        final int self;
+        final int field;
+        final int op;
+        final double value;
+        final double hysteresis;
+        final long cooldownMs;
+        final String title;
+        final String body;
+
+        // Only touched on the packet thread.
+        boolean fired = false;
+        long firedAt = NEVER;
+
+        Rule(String name, int action, int self, int field, int op, double value, double hysteresis,
+             long cooldownMs, String title, String body) {
+            this.name = name;
+            this.action = action;
+            this.self = self;
+            this.field = field;
+            this.op = op;
+            this.value = value;
+            this.hysteresis = hysteresis;
+            this.cooldownMs = cooldownMs;
+            this.title = title;
+            this.body = body;
+        }
+
+        boolean test(double v) {
+            switch (op) {
+                case OP_LT: return v < value;
+                case OP_LE: return v <= value;
+                case OP_GT: return v > value;
+                case OP_GE: return v >= value;
+                case OP_EQ: return v == value;
+                case OP_NE: return v != value;
+                default: return true;
+            }
+        }
+
+        // Whether v has moved far enough back to let the rule fire again.
+        boolean clears(double v) {
+            switch (op) {
+                case OP_LT:
+                case OP_LE: return !test(v - hysteresis);
+                case OP_GT:
+                case OP_GE: return !test(v + hysteresis);
+                case OP_ANY: return true;
+                default: return !test(v);
+            }
+        }
+    }
+
+    private final Rule[][] table;
+    private final int size;
+    private final List<String> errors;
+    private final LongSupplier clock;
+
+    private AlertRules(Rule[][] table, int size, List<String> errors, LongSupplier clock) {
+        this.table = table;
+        this.size = size;
+        this.errors = errors;
+        this.clock = clock;
+    }
+
+    public static AlertRules compile(String json) {
+        return compile(json, NONE.clock);
+    }
+
+    // Rules that do not make sense are left out and reported in getErrors();
+    // the rest still work.
+    static AlertRules compile(String json, LongSupplier clock) {
+        if (json == null || json.trim().isEmpty()) return NONE;
+        List<String> errors = new ArrayList<>();
+        List<Rule> rules = new ArrayList<>();
+        FrameReader reader = new FrameReader();
+        reader.reset(json, 0, json.length());
+        try {
+            reader.beginArray();
+            int index = 0;
+            while (reader.hasNext()) {
+                if (reader.peek() != FrameReader.BEGIN_OBJECT) {
+                    errors.add("Rule " + (index + 1) + ": not an object");
+                    reader.skipValue();
+                } else {
+                    Rule rule = readRule(reader, index, errors);
+                    if (rule != null) rules.add(rule);
+                }
+                index++;
+            }
+            reader.endArray();
+        } catch (RuntimeException e) {
+            errors.add("Not a JSON array of rules: " + e.getMessage());
+            return new AlertRules(new Rule[0][], 0, errors, clock);
+        }
+
+        int maxAction = -1;
+        for (Rule rule : rules) maxAction = Math.max(maxAction, rule.action);
+        int[] counts = new int[maxAction + 1];
+        for (Rule rule : rules) counts[rule.action]++;
+        Rule[][] table = new Rule[maxAction + 1][];
+        for (Rule rule : rules) {
+            Rule[] slot = table[rule.action];
+            if (slot == null) slot = table[rule.action] = new Rule[counts[rule.action]];
+            slot[slot.length - counts[rule.action]--] = rule;
+        }
+        return new AlertRules(table, rules.size(), errors, clock);
+    }
+
+    private static Rule readRule(FrameReader reader, int index, List<String> errors) {
+        String name = "Rule " + (index + 1);
+        int action = -1;
+        int self = -1;
+        int field = FIELD_NONE;
+        String op = null;
+        double value = Double.NaN;
+        double hysteresis = 0;
+        double cooldownSec = 0;
+        String title = null;
+        String body = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            int type = reader.peek();
+            switch (key) {
+                case "name":
+                    if (type == FrameReader.STRING) name = reader.nextString(); else reader.skipValue();
+                    break;
+                case "action":
+                    action = type == FrameReader.NUMBER ? reader.nextInt() : skip(reader, -1);
+                    break;
+                case "self":
+                    self = type == FrameReader.NUMBER ? reader.nextInt() : skip(reader, -1);
+                    break;
+                case "field":
+                    field = type == FrameReader.STRING ? namedField(reader.nextString())
+                            : type == FrameReader.NUMBER ? slot(reader.nextInt()) : skip(reader, Integer.MIN_VALUE);
+                    break;
+                case "op":
+                    if (type == FrameReader.STRING) op = reader.nextString(); else reader.skipValue();
+                    break;
+                case "value":
+                    value = type == FrameReader.NUMBER ? reader.nextDouble() : skip(reader, Double.NaN);
+                    break;
+                case "hysteresis":
+                    hysteresis = type == FrameReader.NUMBER ? reader.nextDouble() : skip(reader, 0.0);
+                    break;
+                case "cooldownSec":
+                    cooldownSec = type == FrameReader.NUMBER ? reader.nextDouble() : skip(reader, 0.0);
+                    break;
+                case "title":
+                    if (type == FrameReader.STRING) title = reader.nextString(); else reader.skipValue();
+                    break;
+                case "body":
+                    if (type == FrameReader.STRING) body = reader.nextString(); else reader.skipValue();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        String problem = null;
+        int opCode = parseOp(op == null ? (field == FIELD_NONE ? "any" : null) : op);
+        if (action < 0 || action > MAX_ACTION) {
+            problem = "action must be a packet id from 0 to " + MAX_ACTION;
+        } else if (field == Integer.MIN_VALUE || field >= PacketPipeline.Payload.MAX_SLOTS) {
+            problem = "field must be a payload slot below " + PacketPipeline.Payload.MAX_SLOTS
+                    + " or one of hp, maxHp, hpPercent";
+        } else if (self >= PacketPipeline.Payload.MAX_SLOTS) {
+            problem = "self must be a payload slot below " + PacketPipeline.Payload.MAX_SLOTS;
+        } else if (opCode < 0) {
+            problem = "op must be one of <, <=, >, >=, ==, !=, any";
+        } else if (opCode != OP_ANY && (field == FIELD_NONE || Double.isNaN(value))) {
+            problem = "a comparison needs both a field and a value";
+        } else if (hysteresis < 0 || cooldownSec < 0) {
+            problem = "hysteresis and cooldownSec cannot be negative";
+        }
+        if (problem != null) {
+            errors.add(name + ": " + problem);
+            return null;
+        }
+        return new Rule(name, action, self, field, opCode, value, hysteresis, Math.round(cooldownSec * 1000),
+                title != null ? title : name, body != null ? body : (field == FIELD_NONE ? name : name + " ({value})"));
+    }
+
+    private static <T> T skip(FrameReader reader, T fallback) {
+        reader.skipValue();
+        return fallback;
+    }
+
+    private static int slot(int index) {
+        return index >= 0 ? index : Integer.MIN_VALUE;
+    }
+
+    private static int namedField(String name) {
+        switch (name) {
+            case "hp": return FIELD_HP;
+            case "maxHp": return FIELD_MAX_HP;
+            case "hpPercent": return FIELD_HP_PERCENT;
+            default: return Integer.MIN_VALUE;
+        }
+    }
+
+    private static int parseOp(String op) {
+        if (op == null) return -1;
+        switch (op) {
+            case "any": return OP_ANY;
+            case "<": return OP_LT;
+            case "<=": return OP_LE;
+            case ">": return OP_GT;
+            case ">=": return OP_GE;
+            case "==": return OP_EQ;
+            case "!=": return OP_NE;
+            default: return -1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    // The rules listening to actionId, or null; the only lookup on the hot path.
+    Rule[] forAction(int actionId) {
+        return actionId >= 0 && actionId < table.length ? table[actionId] : null;
+    }
+
+    void evaluate(Rule[] rules, PacketPipeline.Payload payload, PlayerState state, PacketPipeline.Listener listener) {
+        for (Rule rule : rules) {
+            if (rule.self >= 0 && !payload.isEntity(rule.self, state.entityId)) continue;
+            double value = read(rule.field, payload, state);
+            if (Double.isNaN(value)) continue;
+
+            if (rule.fired && rule.clears(value)) rule.fired = false;
+            if (!rule.test(value)) continue;
+            // A comparison fires once per crossing; "any" only has the cooldown.
+            long now = clock.getAsLong();
+            boolean cooling = rule.firedAt != NEVER && now - rule.firedAt < rule.cooldownMs;
+            if ((rule.fired && rule.op != OP_ANY) || cooling) continue;
+            rule.fired = true;
+            rule.firedAt = now;
+            listener.onRuleMatched(rule.name, format(rule.title, value, state), format(rule.body, value, state));
+        }
+    }
+
+    private static double read(int field, PacketPipeline.Payload payload, PlayerState state) {
+        switch (field) {
+            case FIELD_NONE:
+                return 0;
+            case FIELD_HP:
+                return state.currentHealth != PlayerState.UNKNOWN ? state.currentHealth : Double.NaN;
+            case FIELD_MAX_HP:
+                return state.maxHealth != PlayerState.UNKNOWN ? state.maxHealth : Double.NaN;
+            case FIELD_HP_PERCENT:
+                return state.hasHealth() ? 100.0 * state.currentHealth / state.maxHealth : Double.NaN;
+            default:
+                return payload.has(field) ? payload.values[field] : Double.NaN;
+        }
+    }
+
+    private static String format(String template, double value, PlayerState state) {
+        if (template.indexOf('{') < 0) return template;
+        String shown = value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+        return template.replace("{value}", shown)
+                .replace("{hp}", String.valueOf(state.currentHealth))
+                .replace("{maxHp}", String.valueOf(state.maxHealth));
+    }
+}
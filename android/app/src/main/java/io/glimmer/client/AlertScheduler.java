@@ -0,0 +1,273 @@
+package io.glimmer.client;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// Turns bursts of game alerts into a sane set of notifications: one slot per
+// category, silent updates while a burst lasts, a group summary, and a cap on
+// how many times a category may actually ring per minute.
+//
+// In multi-session mode each session gets its own slot per category, with
+// the session's label in front of the title.
+public class AlertScheduler {
+
+    public static final String TAG = "GlimmerAlerts";
+    private static final String GROUP_KEY = "io.glimmer.client.ALERTS";
+
+    public static final String CATEGORY_GENERAL = "general";
+    public static final String CATEGORY_HEALTH = "health";
+    public static final String CATEGORY_IDLE = "idle";
+    public static final String CATEGORY_PM = "pm";
+    public static final String CATEGORY_CONNECTION = "connection";
+    public static final String CATEGORY_PROXIMITY = "proximity";
+    public static final String CATEGORY_CHAT = "chat";
+    // Prefix of the per-rule categories of AlertRules.
+    public static final String CATEGORY_RULE = "rule";
+
+    private static final long DEFAULT_WINDOW_MS = 10 * 1000L;
+    private static final int DEFAULT_RATE_PER_MINUTE = 4;
+    private static final long RATE_PERIOD_MS = 60 * 1000L;
+    private static final int MAX_LINES = 5;
+    // Stays clear of the foreground service notification id.
+    private static final int SUMMARY_ID = 100;
+    private static final int FIRST_CATEGORY_ID = 101;
+
+    private static AlertScheduler instance;
+
+    private final Context context;
+    private final SettingsStore settings;
+    private final NotificationManager notificationManager;
+    private final PendingIntent contentIntent;
+    private final Map<String, CategoryState> categories = new HashMap<>();
+    private final Map<String, String> sessionLabels = new HashMap<>();
+    private int nextCategoryId = FIRST_CATEGORY_ID;
+    // The summary's lines as last posted; see postSummary().
+    private String lastSummary;
+
+    private long posted = 0;
+    private long merged = 0;
+    private long throttled = 0;
+
+    private static class CategoryState {
+        final int notificationId;
+        final ArrayDeque<String> lines = new ArrayDeque<>();
+        final ArrayDeque<Long> recentAlerts = new ArrayDeque<>();
+        long lastAlertAt = Long.MIN_VALUE / 2;
+        int burstCount = 0;
+        String lastTitle;
+
+        CategoryState(int notificationId) {
+            this.notificationId = notificationId;
+        }
+    }
+
+    public static synchronized AlertScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new AlertScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private AlertScheduler(Context context) {
+        this.context = context;
+        settings = SettingsStore.getInstance(context);
+        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        // Every alert opens the same activity, so one PendingIntent serves all.
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            contentIntent = PendingIntent.getActivity(context, 2000, intent,
+                    PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        } else {
+            contentIntent = PendingIntent.getActivity(context, 2000, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+    }
+
+    private boolean hasPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return ContextCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS) == PackageManager.PERMISSION_GRANTED;
+        }
+        return true;
+    }
+
+    private long getWindowMs() {
+        return settings.get().getLong("glimmer_alertWindowMs", DEFAULT_WINDOW_MS);
+    }
+
+    private int getRatePerMinute() {
+        return settings.get().getInt("glimmer_alertRatePerMin", DEFAULT_RATE_PER_MINUTE);
+    }
+
+    // A null label leaves the session's alerts untitled.
+    public synchronized void setSessionLabel(String sessionTag, String label) {
+        if (label == null) {
+            sessionLabels.remove(sessionTag);
+        } else {
+            sessionLabels.put(sessionTag, label);
+        }
+    }
+
+    public void post(String category, String title, String body) {
+        post(null, category, title, body);
+    }
+
+    // sessionTag is null for the primary game session.
+    public synchronized void post(String sessionTag, String category, String title, String body) {
+        if (!hasPermission()) {
+            Log.d(TAG, "Notification permission not granted, suppressing notification.");
+            return;
+        }
+        if (category == null) category = CATEGORY_GENERAL;
+        Metrics.get().count(Metrics.ALERTS);
+
+        String key = sessionTag == null ? category : category + "@" + sessionTag;
+        CategoryState state = categories.get(key);
+        if (state == null) {
+            state = new CategoryState(nextCategoryId++);
+            categories.put(key, state);
+        }
+        String label = sessionLabels.get(sessionTag);
+        if (label != null) title = "[" + label + "] " + title;
+
+        long now = SystemClock.elapsedRealtime();
+        while (!state.recentAlerts.isEmpty() && now - state.recentAlerts.peekFirst() > RATE_PERIOD_MS) {
+            state.recentAlerts.removeFirst();
+        }
+
+        boolean inWindow = now - state.lastAlertAt < getWindowMs();
+        boolean overRate = state.recentAlerts.size() >= getRatePerMinute();
+        boolean silent = inWindow || overRate;
+
+        if (!inWindow) {
+            state.lines.clear();
+            state.burstCount = 0;
+        }
+        state.lines.addLast(title + ": " + body);
+        while (state.lines.size() > MAX_LINES) state.lines.removeFirst();
+        state.burstCount++;
+        state.lastTitle = title;
+
+        if (inWindow) {
+            merged++;
+        } else if (overRate) {
+            throttled++;
+        } else {
+            posted++;
+        }
+        if (!silent) {
+            state.lastAlertAt = now;
+            state.recentAlerts.addLast(now);
+        }
+
+        notificationManager.notify(state.notificationId, buildCategoryNotification(state, title, body, silent));
+        postSummary();
+    }
+
+    // The summary only changes when a category gets a new last title, so it
+    // is posted again only then, or after the user dismissed it.
+    private void postSummary() {
+        StringBuilder content = new StringBuilder();
+        for (CategoryState state : categories.values()) {
+            if (state.lastTitle != null) content.append(state.lastTitle).append('\n');
+        }
+        String summary = content.toString();
+        if (summary.equals(lastSummary) && isShowing(SUMMARY_ID)) return;
+        lastSummary = summary;
+        notificationManager.notify(SUMMARY_ID, buildSummary());
+    }
+
+    private boolean isShowing(int id) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return false;
+        for (StatusBarNotification active : notificationManager.getActiveNotifications()) {
+            if (active.getId() == id) return true;
+        }
+        return false;
+    }
+
+    private Notification buildCategoryNotification(CategoryState state, String title, String body, boolean silent) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MainActivity.CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_stat_glimmer)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true)
+                .setGroup(GROUP_KEY)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setCategory(NotificationCompat.CATEGORY_ALARM);  // Important game alerts
+
+        if (silent) {
+            // On O+ the high-importance channel decides about sound, and
+            // setOnlyAlertOnce stops holding once the user dismisses the
+            // notification; only setSilent keeps merged and throttled
+            // alerts quiet either way.
+            builder.setSilent(true);
+        } else {
+            builder.setDefaults(NotificationCompat.DEFAULT_ALL);  // Enable sound, vibration, lights
+        }
+
+        if (state.burstCount > 1) {
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+            for (String line : state.lines) style.addLine(line);
+            style.setSummaryText(state.burstCount + " alerts");
+            builder.setContentTitle(title)
+                    .setContentText(body + " (+" + (state.burstCount - 1) + " more)")
+                    .setNumber(state.burstCount)
+                    .setStyle(style);
+        } else {
+            builder.setContentTitle(title).setContentText(body);
+        }
+        return builder.build();
+    }
+
+    private Notification buildSummary() {
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        for (Map.Entry<String, CategoryState> entry : categories.entrySet()) {
+            CategoryState state = entry.getValue();
+            if (state.lastTitle != null) style.addLine(state.lastTitle);
+        }
+        return new NotificationCompat.Builder(context, MainActivity.CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_stat_glimmer)
+                .setContentTitle("Glimmer")
+                .setContentText("Game alerts")
+                .setStyle(style)
+                .setContentIntent(contentIntent)
+                .setGroup(GROUP_KEY)
+                .setGroupSummary(true)
+                .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                .setAutoCancel(true)
+                .build();
+    }
+
+    public synchronized String getStatsJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("posted", posted);
+            json.put("merged", merged);
+            json.put("throttled", throttled);
+            json.put("windowMs", getWindowMs());
+            json.put("ratePerMinute", getRatePerMinute());
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to build alert stats", e);
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU disk cache for the game's static subresources. Entries are
+// plain files named after the URL hash so they can be streamed straight
+// into a WebResourceResponse without touching the heap. Each file starts
+// with one header line: when the entry expires (see AssetCachePolicy) and
+// the Access-Control-Allow-Origin the server sent with it, if any.
+public class AssetCache {
+
+    public static final String TAG = "GlimmerAssetCache";
+    private static final String DIR_NAME = "game_assets";
+    private static final long DEFAULT_MAX_BYTES = 96L * 1024 * 1024;
+    private static final String HEADER_MAGIC = "GA1";
+    private static final int MAX_HEADER_BYTES = 512;
+
+    private final File dir;
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    // A cache hit: the body, positioned after the header line.
+    public static final class Hit {
+        public final InputStream body;
+        public final long length;
+        public final String allowOrigin;
+
+        Hit(InputStream body, long length, String allowOrigin) {
+            this.body = body;
+            this.length = length;
+            this.allowOrigin = allowOrigin;
+        }
+    }
+
+    AssetCache(Context context) {
+        this(new File(context.getCacheDir(), DIR_NAME), DEFAULT_MAX_BYTES);
+    }
+
+    AssetCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create asset cache directory: " + dir);
+        }
+        rebuildIndex();
+    }
+
+    private synchronized void rebuildIndex() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            index.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    // Null on a miss, and for an entry that has expired or was written in
+    // an older format, which is dropped.
+    public Hit get(String url) throws IOException {
+        String key = keyFor(url);
+        File file;
+        synchronized (this) {
+            if (index.get(key) == null) {
+                misses++;
+                return null;
+            }
+            file = new File(dir, key);
+            if (!file.exists()) {
+                totalBytes -= index.remove(key);
+                misses++;
+                return null;
+            }
+        }
+        // The stream is opened on the file, so an eviction that unlinks it
+        // while the WebView is still reading does not cut the response short.
+        InputStream in = new FileInputStream(file);
+        Hit hit = readHeader(in, file.length(), System.currentTimeMillis());
+        synchronized (this) {
+            if (hit == null) {
+                in.close();
+                remove(key);
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return hit;
+    }
+
+    private static Hit readHeader(InputStream in, long fileLength, long now) throws IOException {
+        byte[] line = new byte[MAX_HEADER_BYTES];
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (length == line.length) return null;
+            line[length++] = (byte) b;
+        }
+        if (b == -1) return null;
+        String[] fields = new String(line, 0, length, StandardCharsets.UTF_8).split(" ", 3);
+        if (fields.length != 3 || !HEADER_MAGIC.equals(fields[0])) return null;
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(fields[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (now >= expiresAt) return null;
+        return new Hit(in, fileLength - length - 1, "-".equals(fields[2]) ? null : fields[2]);
+    }
+
+    private void remove(String key) {
+        Long bytes = index.remove(key);
+        if (bytes != null) totalBytes -= bytes;
+        new File(dir, key).delete();
+    }
+
+    // Streams the body into a temp file behind its header line and moves it
+    // into the cache, then opens it for the caller to serve.
+    public Hit store(String url, InputStream body, long expiresAt, String allowOrigin) throws IOException {
+        String key = keyFor(url);
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        try (InputStream in = body; OutputStream out = new FileOutputStream(tmp)) {
+            String header = HEADER_MAGIC + " " + expiresAt + " " + (allowOrigin != null ? allowOrigin : "-") + "\n";
+            out.write(header.getBytes(StandardCharsets.UTF_8));
+            byte[] buffer = new byte[32 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        File target = new File(dir, key);
+        synchronized (this) {
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Could not move " + tmp + " into place");
+            }
+            Long previous = index.put(key, target.length());
+            if (previous != null) totalBytes -= previous;
+            totalBytes += target.length();
+            trimToSize();
+        }
+        InputStream in = new FileInputStream(target);
+        Hit hit = readHeader(in, target.length(), Long.MIN_VALUE);
+        if (hit == null) {
+            in.close();
+            throw new IOException("Could not read back " + target);
+        }
+        return hit;
+    }
+
+    public synchronized void clear() {
+        for (String key : index.keySet()) {
+            new File(dir, key).delete();
+        }
+        index.clear();
+        totalBytes = 0;
+        Log.d(TAG, "Asset cache cleared.");
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(dir, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized JSObject getStats() {
+        JSObject stats = new JSObject();
+        stats.put("entries", index.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    public synchronized String describeStats() {
+        return "entries=" + index.size() + " bytes=" + totalBytes + " hits=" + hits
+                + " misses=" + misses + " evictions=" + evictions;
+    }
+
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.glimmer.client;
+
+import java.util.Locale;
+
+// Decides whether a game asset response may go into the AssetCache, and for
+// how long. Only assets that cannot change under the same URL are kept: a
+// content hash or version in the URL, or an explicit immutable / long
+// max-age from the server. Anything the server asks to revalidate or keep
+// private goes to the network as usual.
+public final class AssetCachePolicy {
+
+    public static final long NOT_CACHEABLE = -1;
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+    // Shorter max-ages are left to the WebView's own HTTP cache.
+    static final long MIN_MAX_AGE_SECONDS = 24 * 60 * 60;
+    // What RFC 9111 lets a cache assume for an absurd max-age.
+    private static final long MAX_MAX_AGE_SECONDS = 1L << 31;
+
+    private AssetCachePolicy() {
+    }
+
+    // When the response stops being servable from the cache, in the same
+    // clock as now; NOT_CACHEABLE if it must not be stored at all.
+    public static long expiresAt(String url, String cacheControl, String vary, long now) {
+        if (vary != null && !varyIsEncodingOnly(vary)) return NOT_CACHEABLE;
+
+        long maxAge = -1;
+        boolean immutable = false;
+        if (cacheControl != null) {
+            for (String part : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                String directive = part.trim();
+                if (directive.equals("no-store") || directive.equals("no-cache")
+                        || directive.startsWith("no-cache=") || directive.equals("private")
+                        || directive.startsWith("private=")) {
+                    return NOT_CACHEABLE;
+                }
+                if (directive.equals("immutable")) {
+                    immutable = true;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring("max-age=".length()));
+                }
+            }
+        }
+        if (maxAge == 0) return NOT_CACHEABLE;
+        if (immutable || isVersioned(url)) return NEVER_EXPIRES;
+        if (maxAge >= MIN_MAX_AGE_SECONDS) return now + maxAge * 1000;
+        return NOT_CACHEABLE;
+    }
+
+    // The cache is keyed by URL alone, so it can only stand in for responses
+    // that vary on nothing but the transfer encoding.
+    private static boolean varyIsEncodingOnly(String vary) {
+        for (String part : vary.split(",")) {
+            String name = part.trim();
+            if (!name.isEmpty() && !name.equalsIgnoreCase("Accept-Encoding")) return false;
+        }
+        return true;
+    }
+
+    private static long parseSeconds(String value) {
+        int end = 0;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) end++;
+        if (end == 0) return -1;
+        if (end > 10) return MAX_MAX_AGE_SECONDS;
+        return Math.min(Long.parseLong(value.substring(0, end)), MAX_MAX_AGE_SECONDS);
+    }
+
+    // A version or content hash in the query (?v=3, ?hash=...), a hashed
+    // file name (app.3f9a2c1d.js, chunk-Bq3xk2a9.js) or a version directory
+    // (/v12/, /1.4.2/, /20240611/).
+    static boolean isVersioned(String url) {
+        int fragment = url.indexOf('#');
+        if (fragment != -1) url = url.substring(0, fragment);
+        int query = url.indexOf('?');
+        if (query != -1) {
+            for (String pair : url.substring(query + 1).split("&")) {
+                int equals = pair.indexOf('=');
+                String name = (equals == -1 ? pair : pair.substring(0, equals)).toLowerCase(Locale.ROOT);
+                String value = equals == -1 ? "" : pair.substring(equals + 1);
+                if (value.isEmpty()) continue;
+                if (name.equals("v") || name.equals("ver") || name.equals("version") || name.equals("hash")
+                        || name.equals("rev") || name.equals("build") || isHash(value)) {
+                    return true;
+                }
+            }
+            url = url.substring(0, query);
+        }
+
+        int scheme = url.indexOf("://");
+        int pathStart = url.indexOf('/', scheme == -1 ? 0 : scheme + 3);
+        if (pathStart == -1) return false;
+        String[] segments = url.substring(pathStart + 1).split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (isVersionSegment(segments[i])) return true;
+        }
+
+        // The first piece is the name itself, so "background2" is not a hash;
+        // a file named only by its hash has to be hex.
+        String file = segments[segments.length - 1];
+        int dot = file.lastIndexOf('.');
+        String base = dot == -1 ? file : file.substring(0, dot);
+        String[] pieces = base.split("[.\\-_~]");
+        if (pieces.length == 1) return isHex(base);
+        for (int i = 1; i < pieces.length; i++) {
+            if (isHash(pieces[i])) return true;
+        }
+        return false;
+    }
+
+    // v12, 1.4.2, v1.4, or a build number of six digits or more.
+    private static boolean isVersionSegment(String segment) {
+        if (segment.matches("[vV]\\d+(\\.\\d+)*")) return true;
+        if (segment.matches("\\d+\\.\\d+(\\.\\d+)*")) return true;
+        if (segment.matches("\\d{6,}")) return true;
+        return isHex(segment);
+    }
+
+    // Eight or more letters and digits with at least one of each, as
+    // bundlers name their output, or a hex digest.
+    private static boolean isHash(String text) {
+        return isHex(text) || text.length() >= 8 && text.matches("[A-Za-z0-9]*")
+                && text.matches(".*\\d.*") && text.matches(".*[A-Za-z].*");
+    }
+
+    // Eight or more hex digits, at least one of them a number.
+    private static boolean isHex(String text) {
+        return text.length() >= 8 && text.matches("[0-9a-fA-F]*\\d[0-9a-fA-F]*");
+    }
+}
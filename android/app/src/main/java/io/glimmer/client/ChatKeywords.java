@@ -0,0 +1,166 @@
+package io.glimmer.client;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Public chat keywords from glimmer_chatKeywords, one per line or comma
+// separated, matched regardless of case. With wholeWord a match must not
+// have a letter or digit right before or after it.
+//
+// The keywords are compiled into an Aho-Corasick automaton once per
+// settings change: a dense transition table over the characters that occur
+// in them, with the failure links folded in. A chat line is then read once,
+// one table lookup per character, however many keywords there are.
+public final class ChatKeywords {
+
+    public static final ChatKeywords NONE = new ChatKeywords(new String[0], false);
+
+    private static final int NO_OUTPUT = -1;
+
+    private final String[] keywords;
+    private final boolean wholeWord;
+    // Character classes: ASCII through asciiClass, anything else by binary
+    // search in otherChars. Class 0 is every character in no keyword.
+    private final int[] asciiClass = new int[128];
+    private final char[] otherChars;
+    private final int width;
+    // next[state * width + class]; state 0 is the root.
+    private final int[] next;
+    // The keyword ending at a state, and the next state down its failure
+    // chain that ends one too (shorter keywords that are suffixes).
+    private final int[] output;
+    private final int[] outputLink;
+
+    // Empty text compiles to NONE.
+    public static ChatKeywords compile(String text, boolean wholeWord) {
+        if (text == null) return NONE;
+        Set<String> unique = new LinkedHashSet<>();
+        for (String part : text.split("[,\n]")) {
+            String keyword = fold(part.trim());
+            if (!keyword.isEmpty()) unique.add(keyword);
+        }
+        return unique.isEmpty() ? NONE : new ChatKeywords(unique.toArray(new String[0]), wholeWord);
+    }
+
+    private ChatKeywords(String[] keywords, boolean wholeWord) {
+        this.keywords = keywords;
+        this.wholeWord = wholeWord;
+
+        // Number the distinct characters; ASCII first, in table order.
+        int maxStates = 1;
+        StringBuilder others = new StringBuilder();
+        int classes = 1;
+        for (String keyword : keywords) {
+            maxStates += keyword.length();
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                if (c < 128) {
+                    if (asciiClass[c] == 0) asciiClass[c] = classes++;
+                } else if (others.indexOf(String.valueOf(c)) < 0) {
+                    others.append(c);
+                }
+            }
+        }
+        otherChars = others.toString().toCharArray();
+        Arrays.sort(otherChars);
+        width = classes + otherChars.length;
+
+        // The trie. 0 doubles as "no edge", as nothing leads back to the root.
+        int[] table = new int[maxStates * width];
+        int[] out = new int[maxStates];
+        Arrays.fill(out, NO_OUTPUT);
+        int states = 1;
+        for (int k = 0; k < keywords.length; k++) {
+            int state = 0;
+            for (int i = 0; i < keywords[k].length(); i++) {
+                int slot = state * width + classOf(keywords[k].charAt(i));
+                if (table[slot] == 0) table[slot] = states++;
+                state = table[slot];
+            }
+            out[state] = k;
+        }
+
+        // Breadth first, so a state's failure target is complete before the
+        // state itself: missing edges take the failure target's edge.
+        int[] fail = new int[states];
+        int[] link = new int[states];
+        int[] queue = new int[states];
+        link[0] = NO_OUTPUT;
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < width; c++) {
+            int child = table[c];
+            if (child != 0) {
+                link[child] = NO_OUTPUT;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = 0; c < width; c++) {
+                int slot = state * width + c;
+                int fallback = table[fail[state] * width + c];
+                int child = table[slot];
+                if (child == 0) {
+                    table[slot] = fallback;
+                    continue;
+                }
+                fail[child] = fallback;
+                link[child] = out[fallback] != NO_OUTPUT ? fallback : link[fallback];
+                queue[tail++] = child;
+            }
+        }
+
+        next = Arrays.copyOf(table, states * width);
+        output = Arrays.copyOf(out, states);
+        outputLink = link;
+    }
+
+    // Per character, so a folded line has the same length as the original.
+    private static char fold(char c) {
+        if (c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(c);
+    }
+
+    private static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = fold(chars[i]);
+        return new String(chars);
+    }
+
+    private int classOf(char c) {
+        if (c < 128) return asciiClass[c];
+        int index = Arrays.binarySearch(otherChars, c);
+        return index >= 0 ? width - otherChars.length + index : 0;
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    public boolean isEmpty() {
+        return keywords.length == 0;
+    }
+
+    // The first keyword in line, by where it ends; the longest one when
+    // several end at the same character. Null if there is none.
+    public String match(String line) {
+        if (keywords.length == 0 || line == null) return null;
+        int state = 0;
+        for (int i = 0, length = line.length(); i < length; i++) {
+            state = next[state * width + classOf(fold(line.charAt(i)))];
+            int found = output[state] != NO_OUTPUT ? state : outputLink[state];
+            for (; found != NO_OUTPUT; found = outputLink[found]) {
+                String keyword = keywords[output[found]];
+                if (!wholeWord || isWholeWord(line, i - keyword.length() + 1, i)) return keyword;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWholeWord(String line, int first, int last) {
+        return (first == 0 || !Character.isLetterOrDigit(line.charAt(first - 1)))
+                && (last + 1 == line.length() || !Character.isLetterOrDigit(line.charAt(last + 1)));
+    }
+}
@@ -0,0 +1,362 @@
+package io.glimmer.client;
+
+import java.util.Arrays;
+
+// Every entity the game has told us about, kept in parallel primitive
+// arrays and bucketed into a uniform grid per map level. Entering, moving
+// and leaving are a hash lookup plus a couple of link updates; a radius
+// query only walks the cells the circle overlaps. Nothing allocates once
+// the arrays have grown to the crowd size.
+//
+// Not thread safe: the packet pipeline owns it on its own thread.
+public class EntityIndex {
+
+    // Tiles per cell side. Alert radii are a handful of tiles, so a query
+    // touches at most a few cells.
+    static final int CELL_SIZE = 16;
+
+    private static final int NONE = -1;
+    private static final byte FLAG_NEAR = 1;
+
+    public interface Visitor {
+        void visit(long entityId, int x, int y, int health, int maxHealth);
+    }
+
+    // Slot arrays; a slot is live while ids[slot] != NO_ENTITY.
+    private long[] ids;
+    private int[] levels;
+    private int[] xs;
+    private int[] ys;
+    private int[] healths;
+    private int[] maxHealths;
+    private long[] cells;
+    private byte[] flags;
+    // Doubly linked cell lists; next also threads the free list.
+    private int[] next;
+    private int[] prev;
+    private int freeHead = NONE;
+    private int used = 0;
+    private int size = 0;
+
+    private final LongIntMap slotById = new LongIntMap();
+    private final LongIntMap headByCell = new LongIntMap();
+
+    public EntityIndex() {
+        this(64);
+    }
+
+    EntityIndex(int capacity) {
+        allocate(Math.max(4, capacity));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long entityId) {
+        return slotById.get(entityId) != NONE;
+    }
+
+    // Adds or moves an entity. UNKNOWN fields keep their previous value; an
+    // entity seen for the first time without a position is not indexed.
+    // Returns true when the entity was not in the index before.
+    public boolean put(long entityId, int mapLevel, int x, int y, int health, int maxHealth) {
+        int slot = slotById.get(entityId);
+        if (slot == NONE) {
+            if (mapLevel == PlayerState.UNKNOWN || x == PlayerState.UNKNOWN || y == PlayerState.UNKNOWN) {
+                return false;
+            }
+            slot = takeSlot();
+            ids[slot] = entityId;
+            levels[slot] = mapLevel;
+            xs[slot] = x;
+            ys[slot] = y;
+            healths[slot] = health;
+            maxHealths[slot] = maxHealth;
+            flags[slot] = 0;
+            slotById.put(entityId, slot);
+            link(slot, cellKey(mapLevel, x, y));
+            size++;
+            return true;
+        }
+
+        if (mapLevel != PlayerState.UNKNOWN) levels[slot] = mapLevel;
+        if (x != PlayerState.UNKNOWN) xs[slot] = x;
+        if (y != PlayerState.UNKNOWN) ys[slot] = y;
+        if (health != PlayerState.UNKNOWN) healths[slot] = health;
+        if (maxHealth != PlayerState.UNKNOWN) maxHealths[slot] = maxHealth;
+        long cell = cellKey(levels[slot], xs[slot], ys[slot]);
+        if (cell != cells[slot]) {
+            unlink(slot);
+            link(slot, cell);
+        }
+        return false;
+    }
+
+    public boolean setHealth(long entityId, int health) {
+        int slot = slotById.get(entityId);
+        if (slot == NONE) return false;
+        healths[slot] = health;
+        return true;
+    }
+
+    public boolean addHealth(long entityId, int delta) {
+        int slot = slotById.get(entityId);
+        if (slot == NONE || healths[slot] == PlayerState.UNKNOWN) return false;
+        healths[slot] += delta;
+        return true;
+    }
+
+    // Whole tiles, rounded down; UNKNOWN if the entity is not indexed.
+    public int distanceTo(long entityId, int x, int y) {
+        int slot = slotById.get(entityId);
+        if (slot == NONE) return PlayerState.UNKNOWN;
+        return (int) Math.sqrt(distanceSquared(slot, x, y));
+    }
+
+    public boolean remove(long entityId) {
+        int slot = slotById.remove(entityId);
+        if (slot == NONE) return false;
+        release(slot);
+        return true;
+    }
+
+    public void clear() {
+        slotById.clear();
+        headByCell.clear();
+        Arrays.fill(ids, 0, used, PlayerState.NO_ENTITY);
+        freeHead = NONE;
+        used = 0;
+        size = 0;
+    }
+
+    // Calls the visitor for every entity on mapLevel within radius tiles of
+    // (x, y), Euclidean. Returns how many were visited.
+    public int query(int mapLevel, int x, int y, int radius, Visitor visitor) {
+        long radiusSquared = (long) radius * radius;
+        int minCellX = Math.floorDiv(x - radius, CELL_SIZE);
+        int maxCellX = Math.floorDiv(x + radius, CELL_SIZE);
+        int minCellY = Math.floorDiv(y - radius, CELL_SIZE);
+        int maxCellY = Math.floorDiv(y + radius, CELL_SIZE);
+        int found = 0;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                for (int slot = headByCell.get(pack(mapLevel, cellX, cellY)); slot != NONE; slot = next[slot]) {
+                    if (distanceSquared(slot, x, y) > radiusSquared) continue;
+                    found++;
+                    if (visitor != null) visitor.visit(ids[slot], xs[slot], ys[slot], healths[slot], maxHealths[slot]);
+                }
+            }
+        }
+        return found;
+    }
+
+    // Whether the entity is within radius of (x, y) on mapLevel now, and
+    // whether it already was the last time this was asked. Returns true only
+    // on the way in, so a caller alerting on it alerts once per approach.
+    public boolean enteredRadius(long entityId, int mapLevel, int x, int y, int radius) {
+        int slot = slotById.get(entityId);
+        if (slot == NONE) return false;
+        boolean near = levels[slot] == mapLevel && distanceSquared(slot, x, y) <= (long) radius * radius;
+        boolean wasNear = (flags[slot] & FLAG_NEAR) != 0;
+        flags[slot] = (byte) (near ? flags[slot] | FLAG_NEAR : flags[slot] & ~FLAG_NEAR);
+        return near && !wasNear;
+    }
+
+    // The game only sends entities around the player, and nothing we decode
+    // says when one goes out of view; after the player moves, everything
+    // further than viewRadius or on another level is dropped. Entities left
+    // within nearRadius count as already near, so walking up to them does
+    // not raise an approach. One pass over the live slots.
+    public int retainAround(int mapLevel, int x, int y, int viewRadius, int nearRadius) {
+        long viewSquared = (long) viewRadius * viewRadius;
+        long nearSquared = (long) nearRadius * nearRadius;
+        int removed = 0;
+        for (int slot = 0; slot < used; slot++) {
+            if (ids[slot] == PlayerState.NO_ENTITY) continue;
+            long distance = distanceSquared(slot, x, y);
+            if (levels[slot] != mapLevel || distance > viewSquared) {
+                slotById.remove(ids[slot]);
+                release(slot);
+                removed++;
+            } else {
+                flags[slot] = (byte) (distance <= nearSquared ? flags[slot] | FLAG_NEAR : flags[slot] & ~FLAG_NEAR);
+            }
+        }
+        return removed;
+    }
+
+    private long distanceSquared(int slot, int x, int y) {
+        long dx = xs[slot] - x;
+        long dy = ys[slot] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private int takeSlot() {
+        if (freeHead != NONE) {
+            int slot = freeHead;
+            freeHead = next[slot];
+            return slot;
+        }
+        if (used == ids.length) grow();
+        return used++;
+    }
+
+    private void release(int slot) {
+        unlink(slot);
+        ids[slot] = PlayerState.NO_ENTITY;
+        next[slot] = freeHead;
+        freeHead = slot;
+        size--;
+    }
+
+    private void link(int slot, long cell) {
+        int head = headByCell.get(cell);
+        cells[slot] = cell;
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) prev[head] = slot;
+        headByCell.put(cell, slot);
+    }
+
+    private void unlink(int slot) {
+        int before = prev[slot];
+        int after = next[slot];
+        if (after != NONE) prev[after] = before;
+        if (before != NONE) {
+            next[before] = after;
+        } else if (after != NONE) {
+            headByCell.put(cells[slot], after);
+        } else {
+            headByCell.remove(cells[slot]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        Arrays.fill(ids, PlayerState.NO_ENTITY);
+        levels = new int[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+        healths = new int[capacity];
+        maxHealths = new int[capacity];
+        cells = new long[capacity];
+        flags = new byte[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        Arrays.fill(ids, used, capacity, PlayerState.NO_ENTITY);
+        levels = Arrays.copyOf(levels, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        healths = Arrays.copyOf(healths, capacity);
+        maxHealths = Arrays.copyOf(maxHealths, capacity);
+        cells = Arrays.copyOf(cells, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    static long cellKey(int mapLevel, int x, int y) {
+        return pack(mapLevel, Math.floorDiv(x, CELL_SIZE), Math.floorDiv(y, CELL_SIZE));
+    }
+
+    // 22 bits per cell coordinate is far more than any map needs.
+    private static long pack(int mapLevel, int cellX, int cellY) {
+        return ((long) mapLevel << 44) | ((cellX & 0x3FFFFFL) << 22) | (cellY & 0x3FFFFFL);
+    }
+
+    // Open addressing long -> int map with linear probing, so lookups do not
+    // box. Values are slots, never negative; NONE means absent.
+    static final class LongIntMap {
+        private long[] keys = new long[16];
+        private int[] values = newValues(16);
+        private int count = 0;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] == NONE) return NONE;
+                if (keys[i] == key) return values[i];
+            }
+        }
+
+        void put(long key, int value) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != NONE) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++count * 2 > keys.length) rehash(keys.length * 2);
+        }
+
+        // Backward shift deletion keeps probe chains intact without
+        // tombstones piling up as entities come and go.
+        int remove(long key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != NONE) {
+                if (keys[i] == key) break;
+                i = (i + 1) & mask;
+            }
+            int removed = values[i];
+            if (removed == NONE) return NONE;
+            int gap = i;
+            for (int j = (gap + 1) & mask; values[j] != NONE; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                // Move j into the gap unless its home lies cyclically in (gap, j].
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            values[gap] = NONE;
+            count--;
+            return removed;
+        }
+
+        void clear() {
+            Arrays.fill(values, NONE);
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[capacity];
+            values = newValues(capacity);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != NONE) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, NONE);
+            return values;
+        }
+
+        private static int hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+    }
+}
@@ -8,7 +8,9 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -19,12 +21,41 @@ public class ForegroundService extends Service {
     private static final int NOTIFICATION_ID = 1;
     private static final String CHANNEL_ID = "GlimmerBackgroundService";
 
+    // The status line is rebuilt at most this often.
+    private static final long METRICS_INTERVAL_MS = 5 * 1000L;
+
+    private WakeLockManager wakeLockManager;
+    private NotificationCompat.Builder notificationBuilder;
+    private NotificationManager notificationManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Metrics.Snapshot lastMetrics;
+
+    private final Runnable updateMetrics = new Runnable() {
+        @Override
+        public void run() {
+            Metrics.Snapshot snapshot = MetricsSampler.sample();
+            if (lastMetrics != null && notificationBuilder != null && notificationManager != null) {
+                notificationBuilder.setContentText(snapshot.summary(lastMetrics));
+                notificationManager.notify(NOTIFICATION_ID, notificationBuilder.build());
+            }
+            lastMetrics = snapshot;
+            handler.postDelayed(this, METRICS_INTERVAL_MS);
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "ForegroundService onCreate() called");
         createNotificationChannel();
         startForegroundImmediately();
+        // The CPU is only kept awake while the game socket is open.
+        wakeLockManager = WakeLockManager.getInstance(this);
+        wakeLockManager.attach();
+        // Idle deadlines switch to AlarmManager while we are in the background.
+        IdleMonitor.setServiceAttached(true);
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        handler.postDelayed(updateMetrics, METRICS_INTERVAL_MS);
     }
 
     @Override
@@ -69,16 +100,18 @@ public class ForegroundService extends Service {
                     PendingIntent.FLAG_UPDATE_CURRENT);
             }
 
-            Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+            notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
                     .setContentTitle("Glimmer")
                     .setContentText("Keeping your game connected")
                     .setSmallIcon(R.drawable.ic_stat_glimmer)
                     .setContentIntent(pendingIntent)
                     .setOngoing(true)
+                    .setOnlyAlertOnce(true)
+                    .setShowWhen(false)
                     .setPriority(NotificationCompat.PRIORITY_LOW)
                     .setCategory(NotificationCompat.CATEGORY_SERVICE)
-                    .setAutoCancel(false)
-                    .build();
+                    .setAutoCancel(false);
+            Notification notification = notificationBuilder.build();
 
             Log.d(TAG, "About to call startForeground()");
             startForeground(NOTIFICATION_ID, notification);
@@ -94,6 +127,11 @@ public class ForegroundService extends Service {
     @Override
     public void onDestroy() {
         Log.d(TAG, "ForegroundService onDestroy() called");
+        handler.removeCallbacks(updateMetrics);
+        if (wakeLockManager != null) {
+            wakeLockManager.detach();
+        }
+        IdleMonitor.setServiceAttached(false);
         super.onDestroy();
     }
 
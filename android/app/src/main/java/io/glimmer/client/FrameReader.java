@@ -0,0 +1,253 @@
+package io.glimmer.client;
+
+// Minimal pull parser for socket.io JSON frames. It walks a slice of the
+// batch string in place, so values nobody asks for are skipped without
+// building objects, and nothing here depends on Android.
+final class FrameReader {
+
+    static final int END = 0;
+    static final int BEGIN_ARRAY = 1;
+    static final int END_ARRAY = 2;
+    static final int BEGIN_OBJECT = 3;
+    static final int END_OBJECT = 4;
+    static final int STRING = 5;
+    static final int NUMBER = 6;
+    static final int BOOLEAN = 7;
+    static final int NULL = 8;
+
+    private String source;
+    private int pos;
+    private int end;
+
+    void reset(String source, int start, int end) {
+        this.source = source;
+        this.pos = start;
+        this.end = end;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    int peek() {
+        skipWhitespace();
+        if (pos >= end) return END;
+        char c = source.charAt(pos);
+        switch (c) {
+            case '[': return BEGIN_ARRAY;
+            case ']': return END_ARRAY;
+            case '{': return BEGIN_OBJECT;
+            case '}': return END_OBJECT;
+            case '"': return STRING;
+            case 't':
+            case 'f': return BOOLEAN;
+            case 'n': return NULL;
+            default: return NUMBER;
+        }
+    }
+
+    boolean hasNext() {
+        int next = peek();
+        return next != END_ARRAY && next != END_OBJECT && next != END;
+    }
+
+    void beginArray() {
+        expect('[');
+    }
+
+    void endArray() {
+        expect(']');
+        consumeSeparator();
+    }
+
+    void beginObject() {
+        expect('{');
+    }
+
+    void endObject() {
+        expect('}');
+        consumeSeparator();
+    }
+
+    String nextName() {
+        String name = readString();
+        skipWhitespace();
+        if (pos >= end || source.charAt(pos) != ':') {
+            throw new IllegalStateException("Expected ':' at " + pos);
+        }
+        pos++;
+        return name;
+    }
+
+    String nextString() {
+        String value = readString();
+        consumeSeparator();
+        return value;
+    }
+
+    // Numbers are returned as doubles like JSON.parse would; quoted numbers
+    // are accepted because socket.io event names are numeric strings.
+    double nextDouble() {
+        skipWhitespace();
+        if (pos < end && source.charAt(pos) == '"') {
+            String text = readString();
+            consumeSeparator();
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        int start = pos;
+        boolean negative = false;
+        boolean simple = true;
+        long integer = 0;
+        if (pos < end && source.charAt(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+        while (pos < end) {
+            char c = source.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                integer = integer * 10 + (c - '0');
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                simple = false;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw new IllegalStateException("Expected a number at " + pos);
+        }
+        double value = simple ? (negative ? -integer : integer)
+                : Double.parseDouble(source.substring(start, pos));
+        consumeSeparator();
+        return value;
+    }
+
+    int nextInt() {
+        return (int) nextDouble();
+    }
+
+    boolean nextBoolean() {
+        skipWhitespace();
+        boolean value;
+        if (source.startsWith("true", pos)) {
+            value = true;
+            pos += 4;
+        } else if (source.startsWith("false", pos)) {
+            value = false;
+            pos += 5;
+        } else {
+            throw new IllegalStateException("Expected a boolean at " + pos);
+        }
+        consumeSeparator();
+        return value;
+    }
+
+    void skipValue() {
+        skipWhitespace();
+        int depth = 0;
+        while (pos < end) {
+            char c = source.charAt(pos);
+            if (c == '"') {
+                skipString();
+                if (depth == 0) break;
+                continue;
+            }
+            if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                if (depth == 0) return;
+                depth--;
+                if (depth == 0) {
+                    pos++;
+                    break;
+                }
+            } else if (depth == 0 && (c == ',' || c <= ' ')) {
+                break;
+            }
+            pos++;
+        }
+        consumeSeparator();
+    }
+
+    private void expect(char c) {
+        skipWhitespace();
+        if (pos >= end || source.charAt(pos) != c) {
+            throw new IllegalStateException("Expected '" + c + "' at " + pos);
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && source.charAt(pos) <= ' ') pos++;
+    }
+
+    private void consumeSeparator() {
+        skipWhitespace();
+        if (pos < end && source.charAt(pos) == ',') pos++;
+    }
+
+    private void skipString() {
+        pos++;
+        while (pos < end) {
+            char c = source.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    private String readString() {
+        skipWhitespace();
+        if (pos >= end || source.charAt(pos) != '"') {
+            throw new IllegalStateException("Expected a string at " + pos);
+        }
+        int start = ++pos;
+        while (pos < end) {
+            char c = source.charAt(pos);
+            if (c == '"') {
+                return source.substring(start, pos++);
+            }
+            if (c == '\\') {
+                pos = start;
+                return readEscapedString();
+            }
+            pos++;
+        }
+        throw new IllegalStateException("Unterminated string at " + start);
+    }
+
+    private String readEscapedString() {
+        StringBuilder out = new StringBuilder();
+        while (pos < end) {
+            char c = source.charAt(pos++);
+            if (c == '"') return out.toString();
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (pos >= end) break;
+            char escaped = source.charAt(pos++);
+            switch (escaped) {
+                case 'n': out.append('\n'); break;
+                case 't': out.append('\t'); break;
+                case 'r': out.append('\r'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > end) throw new IllegalStateException("Bad unicode escape at " + pos);
+                    out.append((char) Integer.parseInt(source.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: out.append(escaped);
+            }
+        }
+        throw new IllegalStateException("Unterminated string");
+    }
+}
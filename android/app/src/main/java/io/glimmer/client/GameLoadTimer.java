@@ -0,0 +1,94 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+// Time to first frame of the game page, measured from the Play tap to the
+// WebView's first visible commit of the page we handed it, along with the
+// most Java heap in use along the way. The last result is kept in prefs so
+// the launcher can show it next time, and once more per injection path so
+// the two can be compared.
+public class GameLoadTimer {
+
+    public static final String TAG = "GlimmerLoadTimer";
+    private static final String PREFS_NAME = "CapacitorStorage";
+    static final String PREF_KEY = "glimmer_lastTiming_firstFrame";
+
+    public static final String SOURCE_PREPARED = "prepared";
+    public static final String SOURCE_CACHED = "cached";
+    public static final String SOURCE_NETWORK = "network";
+    public static final String SOURCE_RECONNECT = "reconnect";
+    // Rebuilt in a new WebView after the renderer was lost.
+    public static final String SOURCE_RECOVERY = "recovery";
+
+    public static final String INJECTION_DOCUMENT_START = "documentStart";
+    public static final String INJECTION_INLINE = "inline";
+
+    private final SharedPreferences prefs;
+
+    private long startedAt = 0;
+    private long handedOverAt = 0;
+    private String source;
+    private String injection;
+    private long peakHeap = 0;
+
+    GameLoadTimer(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public synchronized void start() {
+        startedAt = SystemClock.elapsedRealtime();
+        handedOverAt = 0;
+        source = null;
+        injection = null;
+        peakHeap = 0;
+        sampleHeap();
+    }
+
+    // Called at the points where the page is held in memory: prepared,
+    // handed over, fully streamed and drawn.
+    public synchronized void sampleHeap() {
+        if (startedAt == 0) return;
+        Runtime runtime = Runtime.getRuntime();
+        peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    // Only the first hand-over counts; a stale cached page being swapped for
+    // the fresh one later is not what the user waited for.
+    public synchronized void pageHandedOver(String source, String injection) {
+        if (startedAt == 0 || handedOverAt != 0) return;
+        handedOverAt = SystemClock.elapsedRealtime();
+        this.source = source;
+        this.injection = injection;
+        sampleHeap();
+    }
+
+    // WebViewClient.onPageCommitVisible, API 23+.
+    public synchronized void onFirstFrame() {
+        if (startedAt == 0 || handedOverAt == 0) return;
+        sampleHeap();
+        long now = SystemClock.elapsedRealtime();
+        long handOverMs = handedOverAt - startedAt;
+        long firstFrameMs = now - startedAt;
+        startedAt = 0;
+
+        Log.i(TAG, "First game frame after " + firstFrameMs + "ms (page handed over at "
+                + handOverMs + "ms, " + source + ", " + injection + " script, peak heap "
+                + (peakHeap / 1024) + "KB)");
+        JSObject json = new JSObject();
+        json.put("source", source);
+        json.put("injection", injection);
+        json.put("handOverMs", handOverMs);
+        json.put("firstFrameMs", firstFrameMs);
+        json.put("peakHeapBytes", peakHeap);
+        json.put("at", System.currentTimeMillis());
+        prefs.edit()
+                .putString(PREF_KEY, json.toString())
+                .putString(PREF_KEY + "_" + injection, json.toString())
+                .apply();
+    }
+}
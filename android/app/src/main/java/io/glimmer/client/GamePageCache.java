@@ -0,0 +1,154 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Persistent per-server copy of the game HTML, so "Enter Realm" can render
+// straight from disk while the network copy is revalidated in the background.
+public class GamePageCache {
+
+    public static final String TAG = "GlimmerPageCache";
+    private static final String DIR_NAME = "game_pages";
+
+    private final File dir;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    public static class Entry {
+        public final String html;
+        public final String etag;
+        public final String lastModified;
+        public final long fetchedAt;
+
+        Entry(String html, String etag, String lastModified, long fetchedAt) {
+            this.html = html;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    GamePageCache(Context context) {
+        dir = new File(context.getFilesDir(), DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create page cache directory: " + dir);
+        }
+    }
+
+    private static String keyFor(String serverId, String serverUrl) {
+        String safeId = serverId.replaceAll("[^A-Za-z0-9_-]", "_");
+        return "server-" + safeId + "-" + Integer.toHexString(serverUrl.hashCode());
+    }
+
+    public synchronized Entry get(String serverId, String serverUrl) {
+        String key = keyFor(serverId, serverUrl);
+        File htmlFile = new File(dir, key + ".html");
+        File metaFile = new File(dir, key + ".json");
+        if (!htmlFile.exists() || !metaFile.exists()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            JSONObject meta = new JSONObject(readFile(metaFile));
+            Entry entry = new Entry(
+                    readFile(htmlFile),
+                    meta.optString("etag", null),
+                    meta.optString("lastModified", null),
+                    meta.optLong("fetchedAt", 0L));
+            hits.incrementAndGet();
+            return entry;
+        } catch (Exception e) {
+            Log.w(TAG, "Discarding unreadable cache entry " + key, e);
+            htmlFile.delete();
+            metaFile.delete();
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public synchronized void put(String serverId, String serverUrl, String html, String etag, String lastModified) {
+        String key = keyFor(serverId, serverUrl);
+        try {
+            JSONObject meta = new JSONObject();
+            meta.put("serverId", serverId);
+            meta.put("serverUrl", serverUrl);
+            if (etag != null) meta.put("etag", etag);
+            if (lastModified != null) meta.put("lastModified", lastModified);
+            meta.put("fetchedAt", System.currentTimeMillis());
+
+            writeFileAtomic(new File(dir, key + ".html"), html);
+            writeFileAtomic(new File(dir, key + ".json"), meta.toString());
+            Log.d(TAG, "Cached game page for server " + serverId + " (" + html.length() + " chars)");
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to cache game page for server " + serverId, e);
+        }
+    }
+
+    // The server confirmed our copy is current (304, or an identical body).
+    public void recordRevalidated(Entry entry) {
+        revalidated.incrementAndGet();
+        bytesSaved.addAndGet(entry.html.length());
+    }
+
+    // We rendered a cached copy that turned out to be out of date.
+    public void recordStale() {
+        stale.incrementAndGet();
+    }
+
+    public JSObject getStats() {
+        JSObject stats = new JSObject();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("revalidated", revalidated.get());
+        stats.put("stale", stale.get());
+        stats.put("bytesSaved", bytesSaved.get());
+        return stats;
+    }
+
+    public String describeStats() {
+        return "hits=" + hits.get() + " misses=" + misses.get() + " revalidated=" + revalidated.get()
+                + " stale=" + stale.get() + " bytesSaved=" + bytesSaved.get();
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[16 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    private static void writeFileAtomic(File target, String content) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not move " + tmp + " into place");
+        }
+    }
+}
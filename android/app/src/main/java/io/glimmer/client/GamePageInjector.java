@@ -0,0 +1,276 @@
+package io.glimmer.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Splices Glimmer's scripts into the game page on its way to the WebView,
+// for WebViews without document-start scripts.
+public final class GamePageInjector {
+
+    private static final String HEAD = "<head>";
+    private static final String BODY_END = "</body>";
+
+    private GamePageInjector() {
+    }
+
+    public static String readScript(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            result.write(buffer, 0, length);
+        }
+        return result.toString(StandardCharsets.UTF_8.name());
+    }
+
+    public static String joinScripts(String... scripts) {
+        int size = 0;
+        for (String script : scripts) size += script.length() + 1;
+        StringBuilder joined = new StringBuilder(size);
+        for (int i = 0; i < scripts.length; i++) {
+            if (i > 0) joined.append('\n');
+            joined.append(scripts[i]);
+        }
+        return joined.toString();
+    }
+
+    public static String scriptTag(String... scripts) {
+        int size = 40;
+        for (String script : scripts) size += script.length() + 1;
+        StringBuilder tag = new StringBuilder(size).append("<script type=\"text/javascript\">");
+        for (int i = 0; i < scripts.length; i++) {
+            if (i > 0) tag.append('\n');
+            tag.append(scripts[i]);
+        }
+        return tag.append("</script>").toString();
+    }
+
+    // Inserts the injection right after <head> so the WebSocket hooks are in
+    // place before any game script runs. Pages without a <head> get it before
+    // their last </body>, where interception may come too late.
+    public static String inject(String html, String injection) {
+        int at = spliceAt(html);
+        if (at == -1) return html;
+        return new StringBuilder(html.length() + injection.length())
+                .append(html, 0, at)
+                .append(injection)
+                .append(html, at, html.length())
+                .toString();
+    }
+
+    // The same splice as inject(), encoded to UTF-8 as the WebView reads it.
+    // The page is never copied: the stream walks views of the original
+    // string and only holds one small byte buffer.
+    public static InputStream stream(String html, String injection) {
+        int at = injection != null ? spliceAt(html) : -1;
+        if (at == -1) return new SpliceStream(CharBuffer.wrap(html));
+        return new SpliceStream(
+                CharBuffer.wrap(html, 0, at),
+                CharBuffer.wrap(injection),
+                CharBuffer.wrap(html, at, html.length()));
+    }
+
+    // Where every path puts the injection: right after the first <head>, or
+    // else before the last </body>, either in any case. -1 if neither.
+    private static int spliceAt(String html) {
+        int headIndex = indexOfIgnoreCase(html, HEAD);
+        if (headIndex != -1) return headIndex + HEAD.length();
+        return lastIndexOfIgnoreCase(html, BODY_END);
+    }
+
+    // The same splice over a page still arriving from the server. Bytes pass
+    // through as the WebView reads them; only what comes before <head> is
+    // held back while looking for it. A page without one is held whole, so
+    // the injection can still go before </body>. The tags are ASCII, which
+    // never occurs inside a multi-byte character in UTF-8 or Latin-1.
+    public static InputStream stream(InputStream page, Charset charset, String injection) {
+        if (injection == null) return page;
+        return new ArrivingSpliceStream(page, injection.getBytes(charset));
+    }
+
+    public static boolean hasHead(String html) {
+        return indexOfIgnoreCase(html, HEAD) != -1;
+    }
+
+    // Case-insensitive search without lower-casing a copy of the whole page.
+    static int indexOfIgnoreCase(String haystack, String needle) {
+        int last = haystack.length() - needle.length();
+        char first = needle.charAt(0);
+        for (int i = 0; i <= last; i++) {
+            if (haystack.charAt(i) == first && haystack.regionMatches(true, i, needle, 0, needle.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int lastIndexOfIgnoreCase(String haystack, String needle) {
+        for (int i = haystack.length() - needle.length(); i >= 0; i--) {
+            if (haystack.regionMatches(true, i, needle, 0, needle.length())) return i;
+        }
+        return -1;
+    }
+
+    private static final class ArrivingSpliceStream extends InputStream {
+        private final InputStream source;
+        private final byte[] injection;
+        // Read but not yet returned: the bytes searched so far, then after
+        // the splice whatever is left of them.
+        private byte[] held = new byte[8 * 1024];
+        private int heldStart = 0;
+        private int heldEnd = 0;
+        private boolean spliced = false;
+
+        ArrivingSpliceStream(InputStream source, byte[] injection) {
+            this.source = source;
+            this.injection = injection;
+        }
+
+        // Reads until <head> turns up or the page ends, then lines up the
+        // held bytes with the injection in place, where spliceAt() would.
+        private void splice() throws IOException {
+            int searchedTo = 0;
+            while (true) {
+                int at = indexOfIgnoreCase(held, Math.max(0, searchedTo - HEAD.length() + 1), heldEnd, HEAD);
+                if (at != -1) {
+                    insert(at + HEAD.length());
+                    return;
+                }
+                searchedTo = heldEnd;
+                if (heldEnd == held.length) held = Arrays.copyOf(held, held.length * 2);
+                int count = source.read(held, heldEnd, held.length - heldEnd);
+                if (count == -1) break;
+                heldEnd += count;
+            }
+            int bodyEnd = lastIndexOf(held, heldEnd, BODY_END);
+            if (bodyEnd != -1) {
+                insert(bodyEnd);
+            } else {
+                spliced = true;
+            }
+        }
+
+        private void insert(int at) {
+            byte[] joined = new byte[heldEnd + injection.length];
+            System.arraycopy(held, 0, joined, 0, at);
+            System.arraycopy(injection, 0, joined, at, injection.length);
+            System.arraycopy(held, at, joined, at + injection.length, heldEnd - at);
+            held = joined;
+            heldEnd = joined.length;
+            spliced = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!spliced) splice();
+            if (heldStart < heldEnd) {
+                int count = Math.min(length, heldEnd - heldStart);
+                System.arraycopy(held, heldStart, target, offset, count);
+                heldStart += count;
+                if (heldStart == heldEnd) held = null;
+                return count;
+            }
+            return source.read(target, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (spliced && heldStart < heldEnd) return heldEnd - heldStart;
+            return spliced ? source.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    // Case-insensitive search for an ASCII tag in bytes[from, to).
+    static int indexOfIgnoreCase(byte[] bytes, int from, int to, String needle) {
+        int last = to - needle.length();
+        for (int i = from; i <= last; i++) {
+            if (regionMatches(bytes, i, needle)) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, int to, String needle) {
+        for (int i = to - needle.length(); i >= 0; i--) {
+            if (regionMatches(bytes, i, needle)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int at, String needle) {
+        for (int j = 0; j < needle.length(); j++) {
+            int c = bytes[at + j];
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != needle.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    private static final class SpliceStream extends InputStream {
+        private final CharBuffer[] parts;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(16 * 1024);
+        private int part = 0;
+
+        SpliceStream(CharBuffer... parts) {
+            this.parts = parts;
+            bytes.flip();
+        }
+
+        // Parts are cut at ASCII tags, so each one encodes on its own.
+        private boolean fill() {
+            bytes.clear();
+            while (part < parts.length) {
+                CoderResult result = encoder.encode(parts[part], bytes, true);
+                if (result.isOverflow()) break;
+                encoder.flush(bytes);
+                encoder.reset();
+                part++;
+            }
+            bytes.flip();
+            return bytes.hasRemaining();
+        }
+
+        @Override
+        public int read() {
+            if (!bytes.hasRemaining() && !fill()) return -1;
+            return bytes.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (length == 0) return 0;
+            if (!bytes.hasRemaining() && !fill()) return -1;
+            int count = Math.min(length, bytes.remaining());
+            bytes.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return bytes.remaining();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.glimmer.client;
+
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Answers the WebView's navigation to the game page. A page already in
+// memory (prepared or cached) is streamed to the renderer as it asks for
+// it, so parsing starts with the first chunk rather than after a whole
+// second copy of the document has been built. A page fetched on Play with
+// nothing cached is passed through straight from the connection, so the
+// renderer gets the first bytes as the server sends them; a copy is kept
+// as it goes by, for reloads and the page cache. When the bundle is not
+// installed as a document-start script, it is spliced in on the way.
+public class GamePageServer {
+
+    private static final String TAG = "GlimmerGamePage";
+    public static final String DOCUMENT_URL = "https://highspell.com/game";
+
+    // Gets the page as the server sent it, once the WebView has read all of
+    // it. On the WebView's resource thread.
+    public interface ArrivalListener {
+        void onPageArrived(String html);
+    }
+
+    private final GameLoadTimer loadTimer;
+
+    // Written on the main thread, read on the WebView's resource thread.
+    private volatile String html;
+    private volatile String injection;
+    // A response body still on the wire; served to one navigation only.
+    private NetworkClient.Streamed arriving;
+    private ArrivalListener arrivalListener;
+
+    GamePageServer(GameLoadTimer loadTimer) {
+        this.loadTimer = loadTimer;
+    }
+
+    // injection is null when a document-start script already covers it.
+    public void publish(String html, String injection) {
+        this.injection = injection;
+        this.html = html;
+        NetworkClient.Streamed dropped = takeArriving();
+        if (dropped != null) closeQuietly(dropped.body);
+    }
+
+    // Until the page has arrived there is nothing to serve a reload with, so
+    // one goes to the server as a plain GET.
+    public void publish(NetworkClient.Streamed response, String injection, ArrivalListener listener) {
+        this.injection = injection;
+        this.html = null;
+        NetworkClient.Streamed dropped;
+        synchronized (this) {
+            dropped = arriving;
+            arriving = response;
+            arrivalListener = listener;
+        }
+        if (dropped != null) closeQuietly(dropped.body);
+    }
+
+    private synchronized NetworkClient.Streamed takeArriving() {
+        NetworkClient.Streamed response = arriving;
+        arriving = null;
+        return response;
+    }
+
+    public boolean handles(WebResourceRequest request) {
+        return request.isForMainFrame()
+                && "GET".equalsIgnoreCase(request.getMethod())
+                && DOCUMENT_URL.equals(request.getUrl().toString());
+    }
+
+    // Also serves page reloads, which would otherwise GET /game from the
+    // server and land on the world list.
+    public WebResourceResponse serve() {
+        ArrivalListener listener;
+        NetworkClient.Streamed response;
+        synchronized (this) {
+            listener = arrivalListener;
+            response = takeArriving();
+        }
+        if (response != null) return serveArriving(response, listener);
+
+        String page = html;
+        if (page == null) return null;
+        InputStream body = new FilterInputStream(GamePageInjector.stream(page, injection)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                loadTimer.sampleHeap();
+            }
+        };
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        Log.d(TAG, "Streaming game page (" + page.length() + " chars, "
+                + (injection == null ? "document-start script" : "inline script") + ")");
+        return new WebResourceResponse("text/html", "UTF-8", 200, "OK", headers, body);
+    }
+
+    private WebResourceResponse serveArriving(NetworkClient.Streamed response, ArrivalListener listener) {
+        Charset charset = charsetOf(response.header("Content-Type"));
+        InputStream captured = new CaptureStream(response.body, charset, listener);
+        InputStream body = GamePageInjector.stream(captured, charset, injection);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        Log.d(TAG, "Passing the game page through from the server ("
+                + (injection == null ? "document-start script" : "inline script") + ")");
+        return new WebResourceResponse("text/html", charset.name(), 200, "OK", headers, body);
+    }
+
+    private static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            int at = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+            if (at != -1) {
+                String name = contentType.substring(at + "charset=".length()).split(";")[0].trim().replace("\"", "");
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Unknown page charset " + name + ", reading it as UTF-8");
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Keeps a copy of the raw page as the WebView reads it. A page the
+    // WebView stops reading half way is dropped, not kept.
+    private final class CaptureStream extends FilterInputStream {
+        private final Charset charset;
+        private final ArrivalListener listener;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream(64 * 1024);
+        private boolean ended = false;
+
+        CaptureStream(InputStream in, Charset charset, ArrivalListener listener) {
+            super(in);
+            this.charset = charset;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            int count = super.read(target, offset, length);
+            if (count > 0) {
+                copy.write(target, offset, count);
+            } else if (count == -1 && !ended) {
+                ended = true;
+                if (listener != null) listener.onPageArrived(new String(copy.toByteArray(), charset));
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!ended) Log.w(TAG, "Game page stream closed after " + copy.size() + " bytes, before it ended");
+            loadTimer.sampleHeap();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.glimmer.client;
+
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Answers a game WebView's requests for the game page (GamePageServer), the
+// game's static assets (AssetCache) and the world map tiles (MapTiles).
+// Anything it returns null for goes to the network as usual. Shared by the
+// Capacitor WebView's client and the extra sessions' plain WebViewClient.
+class GameResourceInterceptor {
+
+    private static final String TAG = "GlimmerWebViewClient";
+    private static final String GAME_HOST = "highspell.com";
+
+    private static final Map<String, String> CACHEABLE_TYPES = new HashMap<>();
+    static {
+        CACHEABLE_TYPES.put("js", "application/javascript");
+        CACHEABLE_TYPES.put("css", "text/css");
+        CACHEABLE_TYPES.put("png", "image/png");
+        CACHEABLE_TYPES.put("jpg", "image/jpeg");
+        CACHEABLE_TYPES.put("jpeg", "image/jpeg");
+        CACHEABLE_TYPES.put("gif", "image/gif");
+        CACHEABLE_TYPES.put("webp", "image/webp");
+        CACHEABLE_TYPES.put("svg", "image/svg+xml");
+        CACHEABLE_TYPES.put("mp3", "audio/mpeg");
+        CACHEABLE_TYPES.put("ogg", "audio/ogg");
+        CACHEABLE_TYPES.put("wav", "audio/wav");
+        CACHEABLE_TYPES.put("m4a", "audio/mp4");
+        CACHEABLE_TYPES.put("woff", "font/woff");
+        CACHEABLE_TYPES.put("woff2", "font/woff2");
+        CACHEABLE_TYPES.put("ttf", "font/ttf");
+        CACHEABLE_TYPES.put("json", "application/json");
+        CACHEABLE_TYPES.put("wasm", "application/wasm");
+        CACHEABLE_TYPES.put("glb", "model/gltf-binary");
+        CACHEABLE_TYPES.put("bin", "application/octet-stream");
+    }
+
+    // The only request headers passed on when fetching an asset to cache.
+    // Conditional and credential headers would make the stored copy depend
+    // on this one request.
+    private static final String[] FORWARDED_HEADERS = {"User-Agent", "Accept", "Accept-Language", "Referer", "Origin"};
+
+    private final AssetCache assetCache;
+    private final NetworkClient network;
+    private final MapTiles mapTiles;
+    private final GamePageServer gamePageServer;
+
+    GameResourceInterceptor(AssetCache assetCache, NetworkClient network, MapTiles mapTiles,
+                            GamePageServer gamePageServer) {
+        this.assetCache = assetCache;
+        this.network = network;
+        this.mapTiles = mapTiles;
+        this.gamePageServer = gamePageServer;
+    }
+
+    WebResourceResponse intercept(WebResourceRequest request) {
+        if (gamePageServer.handles(request)) {
+            WebResourceResponse page = gamePageServer.serve();
+            if (page != null) return page;
+        }
+
+        String path = request.getUrl().getPath();
+        if (MapTiles.handles(path) && "GET".equalsIgnoreCase(request.getMethod())) {
+            return mapTiles.serve(path);
+        }
+
+        String mimeType = cacheableMimeType(request);
+        if (mimeType == null) return null;
+
+        String url = request.getUrl().toString();
+        try {
+            AssetCache.Hit hit = assetCache.get(url);
+            if (hit == null) {
+                hit = download(url, request.getRequestHeaders());
+                if (hit == null) return null;
+            }
+            return respond(mimeType, hit);
+        } catch (IOException e) {
+            Log.w(TAG, "Asset cache failed for " + url + ", falling back to network.", e);
+            return null;
+        }
+    }
+
+    private static String cacheableMimeType(WebResourceRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) return null;
+
+        Map<String, String> headers = request.getRequestHeaders();
+        if (headers != null && (headers.containsKey("Range") || headers.containsKey("range"))) return null;
+
+        Uri uri = request.getUrl();
+        String host = uri.getHost();
+        String path = uri.getPath();
+        if (!"https".equals(uri.getScheme()) || host == null || path == null) return null;
+        if (!host.equals(GAME_HOST) && !host.endsWith("." + GAME_HOST)) return null;
+        if (path.contains("socket.io")) return null;
+
+        int dot = path.lastIndexOf('.');
+        if (dot == -1 || dot < path.lastIndexOf('/')) return null;
+        return CACHEABLE_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Fetches and stores an asset, or returns null to let the WebView load
+    // it itself when AssetCachePolicy says it must not be kept. That costs a
+    // second request for those, which are small and few.
+    private AssetCache.Hit download(String url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection conn = network.open(url);
+        try {
+            if (requestHeaders != null) {
+                for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                    if (isForwarded(header.getKey())) conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                conn.disconnect();
+                return null;
+            }
+
+            long expiresAt = AssetCachePolicy.expiresAt(url, conn.getHeaderField("Cache-Control"),
+                    conn.getHeaderField("Vary"), System.currentTimeMillis());
+            if (expiresAt == AssetCachePolicy.NOT_CACHEABLE) {
+                Log.d(TAG, "Not caching " + url + ": may change under the same URL.");
+                conn.disconnect();
+                return null;
+            }
+
+            // store() drains and closes the stream, which leaves the socket
+            // in the keep-alive pool for the next asset.
+            AssetCache.Hit hit = assetCache.store(url, conn.getInputStream(), expiresAt,
+                    conn.getHeaderField("Access-Control-Allow-Origin"));
+            Log.d(TAG, "Cached " + url + " (" + hit.length + " bytes). " + assetCache.describeStats());
+            return hit;
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private static boolean isForwarded(String name) {
+        for (String forwarded : FORWARDED_HEADERS) {
+            if (forwarded.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    // Only the CORS header the server itself sent is passed on.
+    private static WebResourceResponse respond(String mimeType, AssetCache.Hit hit) {
+        Map<String, String> headers = new HashMap<>();
+        if (hit.allowOrigin != null) headers.put("Access-Control-Allow-Origin", hit.allowOrigin);
+        headers.put("Content-Length", String.valueOf(hit.length));
+        return new WebResourceResponse(mimeType, null, 200, "OK", headers, hit.body);
+    }
+}
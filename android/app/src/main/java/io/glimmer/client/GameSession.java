@@ -0,0 +1,261 @@
+package io.glimmer.client;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import androidx.webkit.ScriptHandler;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import java.io.IOException;
+import java.util.Collections;
+
+// One game WebView and everything that belongs to it: its bridge, render
+// mode, page server, load timer and reconnect supervisor. The primary
+// session (tag null) lives in Capacitor's WebView; the extra ones in
+// multi-session mode get a WebView of their own from SessionHost.
+public class GameSession {
+
+    private static final String TAG = "GlimmerGameSession";
+    private static final String GAME_ORIGIN = "https://highspell.com";
+
+    final String tag;
+    final String label;
+    final WebView webView;
+    final GlimmerNativeBridge nativeBridge;
+    final RenderModeController renderMode;
+    final GameLoadTimer loadTimer;
+
+    private final MainActivity activity;
+    private final GamePageServer pageServer;
+    private final ReconnectSupervisor reconnectSupervisor;
+    private ScriptHandler documentStartScript;
+    // The page last handed to the WebView, for ReconnectSupervisor and for
+    // rebuilding the session after a renderer crash.
+    private String lastGamePage;
+    // Identifies the loadArrivingPage call whose page is still coming in.
+    private Object arrivingLoad;
+    // Main thread only. Once the renderer is gone the WebView must not be
+    // used again; lostAt is when, until the rebuilt page shows.
+    private boolean rendererGone = false;
+    private long lostAt = -1;
+
+    GameSession(MainActivity activity, WebView webView, String tag, String label) {
+        this.activity = activity;
+        this.webView = webView;
+        this.tag = tag;
+        this.label = label;
+        loadTimer = new GameLoadTimer(activity);
+        pageServer = new GamePageServer(loadTimer);
+        if (tag == null) {
+            activity.getBridge().setWebViewClient(new GlimmerWebViewClient(activity.getBridge(),
+                    activity.getAssetCache(), NetworkClient.getInstance(activity), this,
+                    MapTiles.getInstance(activity), pageServer));
+        } else {
+            webView.setWebViewClient(new SessionClient(new GameResourceInterceptor(activity.getAssetCache(),
+                    NetworkClient.getInstance(activity), MapTiles.getInstance(activity), pageServer), this));
+        }
+
+        nativeBridge = new GlimmerNativeBridge(activity, webView, tag, label);
+        webView.addJavascriptInterface(nativeBridge, "GlimmerNative");
+        renderMode = new RenderModeController(webView);
+        reconnectSupervisor = ReconnectSupervisor.getInstance(activity, tag, label);
+        reconnectSupervisor.setReloader(this::reloadLastGame);
+    }
+
+    boolean isPrimary() {
+        return tag == null;
+    }
+
+    ReconnectSupervisor getReconnectSupervisor() {
+        return reconnectSupervisor;
+    }
+
+    String getLastGamePage() {
+        return lastGamePage;
+    }
+
+    boolean isRendererGone() {
+        return rendererGone;
+    }
+
+    // Installs the scripts to run before anything else in every game page,
+    // once per WebView. False where the WebView cannot do that, or when the
+    // launcher asked for the inline fallback (glimmer_scriptInjection).
+    private boolean useDocumentStartScript() {
+        boolean inline = "inline".equals(
+                SettingsStore.getInstance(activity).get(tag).getString("glimmer_scriptInjection", "auto"));
+        if (inline || !WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT)) {
+            if (documentStartScript != null) {
+                documentStartScript.remove();
+                documentStartScript = null;
+            }
+            return false;
+        }
+        if (documentStartScript == null) {
+            try {
+                documentStartScript = WebViewCompat.addDocumentStartJavaScript(
+                        webView, activity.getInjectionScript(), Collections.singleton(GAME_ORIGIN));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read the Glimmer scripts", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hands the game page to the WebView, which then fetches it from
+    // GamePageServer as a normal navigation.
+    public void loadPage(String page, String source) {
+        boolean documentStart = useDocumentStartScript();
+        String inlineBundle = documentStart ? null : readInlineBundle();
+        lastGamePage = page;
+        arrivingLoad = null;
+        pageServer.publish(page, inlineBundle);
+        navigate(source, documentStart);
+    }
+
+    // Hands the WebView a page whose body is still arriving from the server,
+    // which it renders as the bytes come in. The page is kept for reloads
+    // and handed to arrived once all of it is in; not if another page has
+    // replaced it by then.
+    public void loadArrivingPage(NetworkClient.Streamed response, String source, GamePageServer.ArrivalListener arrived) {
+        boolean documentStart = useDocumentStartScript();
+        String inlineBundle = documentStart ? null : readInlineBundle();
+        lastGamePage = null;
+        Object load = new Object();
+        arrivingLoad = load;
+        pageServer.publish(response, inlineBundle, html -> activity.runOnUiThread(() -> {
+            if (arrivingLoad != load) return;
+            arrivingLoad = null;
+            lastGamePage = html;
+            pageServer.publish(html, inlineBundle);
+            arrived.onPageArrived(html);
+        }));
+        navigate(source, documentStart);
+    }
+
+    private String readInlineBundle() {
+        try {
+            return activity.getInjectionBundle();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the Glimmer scripts, loading the game without them", e);
+            return null;
+        }
+    }
+
+    private void navigate(String source, boolean documentStart) {
+        // Sockets of the page being replaced never report their close.
+        WakeLockManager.getInstance(activity).onPageReset(nativeBridge.resetSockets());
+        loadTimer.pageHandedOver(source,
+                documentStart ? GameLoadTimer.INJECTION_DOCUMENT_START : GameLoadTimer.INJECTION_INLINE);
+
+        webView.getSettings().setDomStorageEnabled(true);
+        webView.getSettings().setJavaScriptEnabled(true);
+        webView.getSettings().setMixedContentMode(WebSettings.MIXED_CONTENT_ALWAYS_ALLOW);
+
+        // Enable WebSocket support
+        webView.getSettings().setAllowContentAccess(true);
+        webView.getSettings().setAllowFileAccess(true);
+        webView.getSettings().setAllowUniversalAccessFromFileURLs(true);
+        webView.getSettings().setAllowFileAccessFromFileURLs(true);
+
+        // Leave default WebView User-Agent
+
+        Log.d(TAG, "WebView configured with WebSocket support settings");
+        webView.loadUrl(GamePageServer.DOCUMENT_URL);
+        Log.d(TAG, "Game page handed to the " + describe() + " WebView ("
+                + (documentStart ? "document-start" : "inline") + " script).");
+    }
+
+    // Reloads the game from memory, without fetching the page again.
+    boolean reloadLastGame() {
+        if (lastGamePage == null) return false;
+        loadPage(lastGamePage, GameLoadTimer.SOURCE_RECONNECT);
+        return true;
+    }
+
+    // Loads the page of a session that lost its renderer, in this new one;
+    // the time until it shows counts as the recovery time.
+    boolean recover(String page, long lostAt) {
+        if (page == null) return false;
+        this.lostAt = lostAt;
+        loadPage(page, GameLoadTimer.SOURCE_RECOVERY);
+        return true;
+    }
+
+    void onFirstFrame() {
+        loadTimer.onFirstFrame();
+        if (lostAt < 0) return;
+        long tookMs = SystemClock.elapsedRealtime() - lostAt;
+        lostAt = -1;
+        Metrics metrics = Metrics.get();
+        metrics.count(Metrics.RENDERER_RECOVERIES);
+        metrics.add(Metrics.RECOVERY_MILLIS, tookMs);
+        metrics.setGauge(Metrics.LAST_RECOVERY_MS, tookMs);
+        Log.i(TAG, describe() + " is back " + tookMs + "ms after losing its renderer");
+    }
+
+    void onRendererGone(boolean crashed) {
+        if (rendererGone) return;
+        rendererGone = true;
+        activity.getSessions().onRendererGone(this, crashed);
+    }
+
+    // The page is told the SessionHost.PRESSURE_* tier and frees what it can.
+    void onMemoryPressure(int tier) {
+        webView.evaluateJavascript(
+                "window.Glimmer && Glimmer.onMemoryPressure && Glimmer.onMemoryPressure(" + tier + ")", null);
+        // Only the in-memory cache; the disk cache is what reloads are fast from.
+        if (tier >= SessionHost.PRESSURE_DROP_CACHES) webView.clearCache(false);
+    }
+
+    void release() {
+        nativeBridge.release();
+        reconnectSupervisor.setReloader(null);
+        reconnectSupervisor.onPageLost();
+        if (!isPrimary()) {
+            WakeLockManager.getInstance(activity).onPageReset(nativeBridge.resetSockets());
+            if (!rendererGone) webView.removeJavascriptInterface("GlimmerNative");
+            webView.destroy();
+        }
+    }
+
+    String describe() {
+        return label == null ? "Main" : label;
+    }
+
+    // Extra sessions stay clear of Capacitor's BridgeWebViewClient, which
+    // resets the launcher's plugin calls on every page start.
+    private static final class SessionClient extends WebViewClient {
+        private final GameResourceInterceptor interceptor;
+        private final GameSession session;
+
+        SessionClient(GameResourceInterceptor interceptor, GameSession session) {
+            this.interceptor = interceptor;
+            this.session = session;
+        }
+
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+            return interceptor.intercept(request);
+        }
+
+        @Override
+        public void onPageCommitVisible(WebView view, String url) {
+            session.onFirstFrame();
+        }
+
+        @Override
+        public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+            session.onRendererGone(detail.didCrash());
+            return true;
+        }
+    }
+}
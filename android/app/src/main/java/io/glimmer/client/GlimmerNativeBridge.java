@@ -1,84 +1,447 @@
 package io.glimmer.client;
 
 import android.Manifest;
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Debug;
 import android.util.Log;
 import android.view.WindowManager;
 import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
 
-import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
+import com.getcapacitor.JSObject;
+
 import org.json.JSONObject;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+// One per game WebView. sessionTag is null for the primary session and
+// names the session in multi-session mode; it picks the settings scope, the
+// alert slots, the idle timer and the history slot.
 public class GlimmerNativeBridge {
     Context context;
-    SharedPreferences prefs;
-    private int notificationId = 1;
+    WebView webView;
     public static final String TAG = "GlimmerNativeBridge";
+    private static final int DEFAULT_PM_PREVIEW_CHARS = 50;
+
+    private final String sessionTag;
+    private final String label;
+
+    private final ExecutorService packetExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "GlimmerPackets"));
+    private final PacketPipeline pipeline;
+    private final LogSink logSink;
+    private final AlertScheduler alertScheduler;
+    private final IdleMonitor idleMonitor;
+    private final PacketCapture capture;
+    private final SettingsStore settingsStore;
+    private final ReconnectSupervisor reconnectSupervisor;
+    private final SessionHistory.Recorder history;
+    private final Metrics metrics = Metrics.get();
+    private Metrics.Snapshot lastMetrics;
+    private final SettingsStore.Listener settingsListener = this::onSettingsChanged;
+    private final Runnable idleFiredListener = this::onIdleFired;
+    // Whether history has an idle period open. Re-arming after the AFK
+    // alert starts a new countdown, not a new idle period.
+    private boolean idleRecorded = false;
+    // What the current AlertRules were compiled from; any settings change
+    // lands here, but only an edit to the rules recompiles them.
+    private String alertRulesSource;
+    // Likewise for the chat keywords, with the whole-word flag in front.
+    private String chatKeywordsSource;
+
+    // Per-session accounting for multi-session mode; Metrics only has
+    // process-wide totals.
+    private final AtomicInteger openSockets = new AtomicInteger();
+    private final AtomicLong packetCpuNanos = new AtomicLong();
+    private final AtomicLong jsHandlerMicros = new AtomicLong();
+    private volatile long jsHeapBytes = 0;
 
-    GlimmerNativeBridge(Context c) {
+    GlimmerNativeBridge(Context c, WebView webView) {
+        this(c, webView, null, null);
+    }
+
+    GlimmerNativeBridge(Context c, WebView webView, String sessionTag, String label) {
         context = c;
-        prefs = c.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
+        this.webView = webView;
+        this.sessionTag = sessionTag;
+        this.label = label;
+        logSink = LogSink.getInstance(c);
+        alertScheduler = AlertScheduler.getInstance(c);
+        alertScheduler.setSessionLabel(sessionTag, label);
+        idleMonitor = IdleMonitor.getInstance(c, sessionTag);
+        capture = PacketCapture.getInstance(c);
+        settingsStore = SettingsStore.getInstance(c);
+        reconnectSupervisor = ReconnectSupervisor.getInstance(c, sessionTag, label);
+        history = SessionHistory.getInstance(c).recorder(sessionTag);
+        pipeline = new PacketPipeline(task -> packetExecutor.execute(() -> {
+            long start = Debug.threadCpuTimeNanos();
+            task.run();
+            if (start >= 0) packetCpuNanos.addAndGet(Debug.threadCpuTimeNanos() - start);
+        }), new PipelineListener());
+        applySettings(settingsStore.get(sessionTag));
+        settingsStore.addListener(settingsListener);
+        idleMonitor.setFiredListener(idleFiredListener);
+    }
+
+    private boolean isPrimary() {
+        return sessionTag == null;
+    }
+
+    private boolean isEnabled(String key) {
+        return settingsStore.get(sessionTag).isEnabled(key);
+    }
+
+    private void applySettings(SettingsSnapshot snapshot) {
+        pipeline.setAlerts(snapshot.isEnabled("glimmer_healthAlert"), snapshot.isEnabled("glimmer_idleAlert"),
+                snapshot.isEnabled("glimmer_pmAlert"));
+        pipeline.setProximityAlert(snapshot.isEnabled("glimmer_proximityAlert"),
+                snapshot.getInt("glimmer_proximityRadius", PacketPipeline.DEFAULT_PROXIMITY_RADIUS));
+        pipeline.setLowHealthPercent(
+                snapshot.getInt("glimmer_lowHealthPercent", PacketPipeline.DEFAULT_LOW_HEALTH_PERCENT));
+        String rulesSource = snapshot.getString("glimmer_alertRules", "");
+        if (!rulesSource.equals(alertRulesSource)) {
+            alertRulesSource = rulesSource;
+            AlertRules rules = AlertRules.compile(rulesSource);
+            for (String error : rules.getErrors()) {
+                logSink.log(LogSink.LEVEL_ERROR, "Alert rule skipped: " + error);
+            }
+            if (rules.size() > 0) logSink.log(LogSink.LEVEL_INFO, rules.size() + " alert rule(s) active");
+            pipeline.setAlertRules(rules);
+        }
+        boolean wholeWord = snapshot.isEnabled("glimmer_chatWholeWord");
+        String keywordsText = snapshot.getString("glimmer_chatKeywords", "");
+        String keywordsSource = wholeWord + ":" + keywordsText;
+        if (!keywordsSource.equals(chatKeywordsSource)) {
+            chatKeywordsSource = keywordsSource;
+            ChatKeywords keywords = ChatKeywords.compile(keywordsText, wholeWord);
+            if (!keywords.isEmpty()) {
+                logSink.log(LogSink.LEVEL_INFO, "Watching chat for " + keywords.size() + " keyword(s)");
+            }
+            pipeline.setChatKeywords(keywords);
+        }
+        SessionHistory sessionHistory = SessionHistory.getInstance(context);
+        if (isPrimary()) {
+            // Process-wide, so only the primary session's values count.
+            logSink.setLevel(LogSink.parseLevel(snapshot.getString("glimmer_logLevel", "info")));
+            capture.setEnabled(snapshot.isEnabled("glimmer_captureEnabled"));
+            sessionHistory.setRetentionDays(
+                    snapshot.getInt("glimmer_historyDays", SessionHistory.DEFAULT_RETENTION_DAYS));
+        }
+        pipeline.setHistoryEnabled(sessionHistory.isEnabled());
+    }
+
+    void release() {
+        settingsStore.removeListener(settingsListener);
+        idleMonitor.clearFiredListener(idleFiredListener);
+        idleMonitor.onActivity();
+        history.endSession();
+        // Every page gets a new bridge, the primary one too after a renderer
+        // crash recreates the activity.
+        packetExecutor.shutdown();
+    }
+
+    // The sockets this page had open, which will never report their close
+    // once the page is replaced.
+    int resetSockets() {
+        return openSockets.getAndSet(0);
+    }
+
+    // What this session costs, for SessionHost and the metrics overlay.
+    JSObject getAccounting() {
+        PacketPipeline.Stats stats = pipeline.getStats();
+        JSObject json = new JSObject();
+        json.put("tag", sessionTag);
+        json.put("label", label);
+        json.put("frames", stats.frames);
+        json.put("decodeMicros", stats.decodeMicros);
+        json.put("packetCpuMs", packetCpuNanos.get() / 1_000_000);
+        json.put("jsHandlerMs", jsHandlerMicros.get() / 1000);
+        json.put("jsHeapBytes", jsHeapBytes);
+        json.put("openSockets", openSockets.get());
+        return json;
+    }
+
+    long getJsHeapBytes() {
+        return jsHeapBytes;
+    }
+
+    // Runs on the main thread whenever the launcher saves a glimmer_* key.
+    // The page gets the whole snapshot instead of having to poll for it.
+    private void onSettingsChanged(SettingsSnapshot shared) {
+        SettingsSnapshot snapshot = settingsStore.get(sessionTag);
+        applySettings(snapshot);
+        if (webView == null) return;
+        String js = "window.Glimmer && Glimmer.applySettings(" + snapshot.toJson() + "," + snapshot.version + ")";
+        webView.post(() -> webView.evaluateJavascript(js, null));
     }
+
+    // The AFK alert went off. Both decoders let the next idle packet start
+    // a fresh countdown; whichever is active picks it up.
+    private void onIdleFired() {
+        pipeline.rearmIdle();
+        if (webView == null) return;
+        webView.post(() -> webView.evaluateJavascript("window.Glimmer && Glimmer.onIdleFired()", null));
+    }
+
+    // From the packet thread and the JavaBridge thread alike.
+    private synchronized void recordIdle(boolean idle) {
+        if (idle == idleRecorded) return;
+        idleRecorded = idle;
+        history.recordIdle(idle);
+    }
+
+    // Receives the decoded game events from the packet thread.
+    private class PipelineListener implements PacketPipeline.Listener {
+        @Override
+        public void onLogin(long entityId) {
+            logSink.log(LogSink.LEVEL_INFO, "EntityID set to: " + entityId + " (native pipeline)");
+            history.startSession(entityId);
+            postAlert(AlertScheduler.CATEGORY_CONNECTION, "Glimmer Connected", "Now monitoring your session.");
+        }
+
+        @Override
+        public void onLowHealth(int currentHealth, int maxHealth) {
+            int percent = settingsStore.get(sessionTag)
+                    .getInt("glimmer_lowHealthPercent", PacketPipeline.DEFAULT_LOW_HEALTH_PERCENT);
+            postAlert(AlertScheduler.CATEGORY_HEALTH, "Low Health Warning!",
+                    "Your health is below " + percent + "% (" + currentHealth + "/" + maxHealth + ")");
+        }
+
+        @Override
+        public void onHealthChanged(int currentHealth, int maxHealth, int damageTaken) {
+            history.recordHealth(currentHealth, maxHealth, damageTaken);
+        }
+
+        // PMs and idle periods also arrive with their alerts off while
+        // history is being kept.
+        @Override
+        public void onPrivateMessage(String from, String message) {
+            history.recordPrivateMessage(from, message);
+            if (!isEnabled("glimmer_pmAlert")) return;
+            int preview = Math.max(1, settingsStore.get(sessionTag)
+                    .getInt("glimmer_pmPreviewChars", DEFAULT_PM_PREVIEW_CHARS));
+            String truncated = message.length() > preview ? message.substring(0, preview) + "..." : message;
+            postAlert(AlertScheduler.CATEGORY_PM, "PM from " + from, truncated);
+        }
+
+        @Override
+        public void onIdleStarted() {
+            recordIdle(true);
+            if (isEnabled("glimmer_idleAlert")) idleMonitor.onIdleStarted();
+        }
+
+        @Override
+        public void onActivity() {
+            recordIdle(false);
+            idleMonitor.onActivity();
+        }
+
+        @Override
+        public void onPositionChanged(int mapLevel, int x, int y) {
+            history.recordPosition(mapLevel, x, y);
+            if (webView == null || !isEnabled("glimmer_mapEnabled")) return;
+            String js = "window.Glimmer && Glimmer.onNativePosition(" + mapLevel + "," + x + "," + y + ")";
+            webView.post(() -> webView.evaluateJavascript(js, null));
+        }
+
+        @Override
+        public void onEntityApproaching(long entityId, int distance) {
+            postAlert(AlertScheduler.CATEGORY_PROXIMITY, "Someone is nearby",
+                    "Entity " + entityId + " is " + distance + " tiles away");
+        }
+
+        // Each rule gets its own notification slot.
+        @Override
+        public void onRuleMatched(String name, String title, String body) {
+            postAlert(AlertScheduler.CATEGORY_RULE + ":" + name, title, body);
+        }
+
+        @Override
+        public void onChatKeyword(String keyword, String line) {
+            postAlert(AlertScheduler.CATEGORY_CHAT, "Chat: " + keyword, line);
+        }
+    }
+
+    // One call per animation frame from injected-script.js, or per 80ms
+    // while backgrounded, carrying every socket.io frame seen since the last.
     @JavascriptInterface
-    public void log(String message) {
-        Log.d("GlimmerJS", message);
+    public void pushFrames(String batch) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        if (batch != null && !batch.isEmpty()) {
+            // Captures only ever hold the primary session's traffic.
+            if (isPrimary()) capture.append(batch);
+            pipeline.submit(batch);
+        }
     }
+
     @JavascriptInterface
-    public void notify(String title, String body) {
-        Log.d(TAG, "Notify: " + title + " - " + body);
+    public String getPipelineStats() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        PacketPipeline.Stats stats = pipeline.getStats();
+        Map<String, Object> json = new HashMap<>();
+        json.put("batches", stats.batches);
+        json.put("frames", stats.frames);
+        json.put("parseErrors", stats.parseErrors);
+        json.put("lastBatchSize", stats.lastBatchSize);
+        json.put("maxBatchSize", stats.maxBatchSize);
+        json.put("avgBatchSize", stats.batches > 0 ? (double) stats.frames / stats.batches : 0);
+        json.put("queueDepth", stats.queueDepth);
+        json.put("maxQueueDepth", stats.maxQueueDepth);
+        json.put("decodeMicros", stats.decodeMicros);
+        json.put("entities", stats.entities);
+        return new JSONObject(json).toString();
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            if (ContextCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
-                Log.d(TAG, "Notification permission not granted, suppressing notification.");
-                return;
+    // Deltas from the page every few seconds: framesIn, framesOut, packets
+    // handled, JS heap bytes, handler time sum (us), frames parsed, frames
+    // skipped by prefix, then one count per Metrics histogram bucket.
+    @JavascriptInterface
+    public void reportMetrics(String report) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        if (report == null) return;
+        String[] parts = report.split(",");
+        if (parts.length < 7) return;
+        try {
+            metrics.add(Metrics.FRAMES_IN, Long.parseLong(parts[0]));
+            metrics.add(Metrics.FRAMES_OUT, Long.parseLong(parts[1]));
+            metrics.add(Metrics.JS_PACKETS, Long.parseLong(parts[2]));
+            long jsHeap = Long.parseLong(parts[3]);
+            if (jsHeap > 0) {
+                jsHeapBytes = jsHeap;
+                // The gauge follows the primary page; SessionHost sums the rest.
+                if (isPrimary()) metrics.setGauge(Metrics.JS_HEAP, jsHeap);
             }
+            metrics.add(Metrics.JS_FRAMES_PARSED, Long.parseLong(parts[5]));
+            metrics.add(Metrics.JS_FRAMES_SKIPPED, Long.parseLong(parts[6]));
+            long[] buckets = new long[parts.length - 7];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = Long.parseLong(parts[7 + i]);
+            long handlerMicros = Long.parseLong(parts[4]);
+            metrics.merge(Metrics.JS_HANDLER, buckets, handlerMicros);
+            jsHandlerMicros.addAndGet(handlerMicros);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Malformed metrics report: " + report);
         }
+    }
+
+    // Rates are relative to the previous call, which is the overlay's refresh.
+    @JavascriptInterface
+    public synchronized String getMetrics() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        Metrics.Snapshot snapshot = MetricsSampler.sample();
+        String json = snapshot.toJson(lastMetrics);
+        lastMetrics = snapshot;
+        return json;
+    }
 
-        Intent intent = new Intent(context, MainActivity.class);
-        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-        
-        // Use unique request code to avoid conflicts
-        int requestCode = (int) System.currentTimeMillis();
-        PendingIntent pendingIntent;
+    // This page's share, for the overlay when more than one world is open.
+    @JavascriptInterface
+    public String getSessionStats() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        JSObject json = getAccounting();
+        json.put("sessions", metrics.getGauge(Metrics.SESSIONS));
+        return json.toString();
+    }
+
+    @JavascriptInterface
+    public void log(String message) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        logSink.log(LogSink.LEVEL_INFO, message);
+    }
+
+    // Queued log lines from injected-script.js, one bridge call per flush.
+    @JavascriptInterface
+    public void logBatch(String batch) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        logSink.logBatch(batch);
+    }
+
+    @JavascriptInterface
+    public int getLogLevel() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        return logSink.getLevel();
+    }
+
+    // Game socket lifecycle from the WebSocket proxy; decides whether the
+    // background service may hold the CPU.
+    @JavascriptInterface
+    public void onSocketOpen() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        openSockets.incrementAndGet();
+        WakeLockManager.getInstance(context).onSocketOpened();
+        reconnectSupervisor.onSocketOpened();
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            pendingIntent = PendingIntent.getActivity(context, requestCode, intent, 
-                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
-        } else {
-            pendingIntent = PendingIntent.getActivity(context, requestCode, intent, 
-                PendingIntent.FLAG_UPDATE_CURRENT);
+    @JavascriptInterface
+    public void onSocketClose(int code) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        // A close after resetSockets was already settled with WakeLockManager.
+        if (openSockets.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            WakeLockManager.getInstance(context).onSocketClosed();
         }
+        reconnectSupervisor.onSocketClosed(code);
+    }
+
+    // A close event always follows, so this is only logged.
+    @JavascriptInterface
+    public void onSocketError() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        logSink.log(LogSink.LEVEL_INFO, "WebSocket error reported by the page");
+    }
+
+    // Idle transitions from the in-page fallback decoder; the timer itself
+    // lives in IdleMonitor.
+    @JavascriptInterface
+    public void idleStarted() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        recordIdle(true);
+        idleMonitor.onIdleStarted();
+    }
+
+    @JavascriptInterface
+    public void idleEnded() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        recordIdle(false);
+        idleMonitor.onActivity();
+    }
+
+    @JavascriptInterface
+    public void notify(String title, String body) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        postAlert(AlertScheduler.CATEGORY_GENERAL, title, body);
+    }
 
-        Notification notification = new NotificationCompat.Builder(context, MainActivity.CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(body)
-                .setSmallIcon(R.drawable.ic_stat_glimmer)
-                .setContentIntent(pendingIntent)
-                .setAutoCancel(true)
-                .setPriority(NotificationCompat.PRIORITY_HIGH)
-                .setDefaults(NotificationCompat.DEFAULT_ALL)  // Enable sound, vibration, lights
-                .setCategory(NotificationCompat.CATEGORY_ALARM)  // Important game alerts
-                .build();
+    // Alerts of one category share a notification slot, so bursts are merged
+    // and rate limited by AlertScheduler instead of stacking up.
+    @JavascriptInterface
+    public void notifyAlert(String category, String title, String body) {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        postAlert(category, title, body);
+    }
 
-        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManager.notify(notificationId++, notification);
+    private void postAlert(String category, String title, String body) {
+        Log.d(TAG, "Notify [" + category + "]: " + title + " - " + body);
+        alertScheduler.post(sessionTag, category, title, body);
+    }
+
+    @JavascriptInterface
+    public String getAlertStats() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        return alertScheduler.getStatsJson();
     }
 
 
     @JavascriptInterface
     public boolean hasNotificationPermission() {
+        metrics.count(Metrics.BRIDGE_CALLS);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             return ContextCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS) == PackageManager.PERMISSION_GRANTED;
         }
@@ -87,30 +450,29 @@ public class GlimmerNativeBridge {
 
     @JavascriptInterface
     public void requestNotificationPermission() {
+        metrics.count(Metrics.BRIDGE_CALLS);
         Log.d(TAG, "Permission request initiated from JavaScript");
         if (context instanceof MainActivity) {
             ((MainActivity) context).requestNotificationPermissionFromJS();
         }
     }
 
+    // Initial read only; later changes arrive through Glimmer.applySettings.
     @JavascriptInterface
     public String getSettings() {
-        Map<String, String> settingsMap = new HashMap<>();
-        String[] keys = {"glimmer_idleAlert", "glimmer_pmAlert", "glimmer_healthAlert", "glimmer_mapEnabled"};
-
-        for (String key : keys) {
-            String value = prefs.getString(key, "true");
-            if (value != null) {
-                settingsMap.put(key, value);
-            }
-        }
+        metrics.count(Metrics.BRIDGE_CALLS);
+        return settingsStore.get(sessionTag).toJson();
+    }
 
-        JSONObject json = new JSONObject(settingsMap);
-        return json.toString();
+    @JavascriptInterface
+    public int getSettingsVersion() {
+        metrics.count(Metrics.BRIDGE_CALLS);
+        return settingsStore.get(sessionTag).version;
     }
 
     @JavascriptInterface
     public void keepAwake() {
+        metrics.count(Metrics.BRIDGE_CALLS);
         Log.d(TAG, "Enabling keep awake (screen on)");
         if (context instanceof MainActivity) {
             MainActivity activity = (MainActivity) context;
@@ -122,6 +484,7 @@ public class GlimmerNativeBridge {
 
     @JavascriptInterface
     public void allowSleep() {
+        metrics.count(Metrics.BRIDGE_CALLS);
         Log.d(TAG, "Disabling keep awake (allow sleep)");
         if (context instanceof MainActivity) {
             MainActivity activity = (MainActivity) context;
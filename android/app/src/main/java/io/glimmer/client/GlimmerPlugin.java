@@ -1,75 +1,612 @@
 package io.glimmer.client;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @CapacitorPlugin(name = "GlimmerPlugin")
 public class GlimmerPlugin extends Plugin {
 
+    private static final String TAG = "GlimmerPlugin";
+    private static final String GAME_URL = "https://highspell.com/game";
+
+    // A prepared page older than this is fetched again on Play.
+    private static final long PREPARED_MAX_AGE_MS = 5 * 60 * 1000L;
+    private static final int PROBE_THREADS = 4;
+
+    private GamePageCache pageCache;
+    private NetworkClient network;
+    private PreparedGame prepared;
+    private ServerProbe serverProbe;
+
+    // Result of prepareGame for one server. It finishes once, whether or not
+    // the attempt produced a page; a load waiting on it is queued from
+    // finish() instead of parking a network thread until then.
+    private static class PreparedGame {
+        final String serverId;
+        final String serverUrl;
+        private final List<Runnable> waiting = new ArrayList<>();
+        private boolean finished;
+        private String page;
+        private NetworkClient.Timing timing;
+        private long preparedAt;
+
+        PreparedGame(String serverId, String serverUrl) {
+            this.serverId = serverId;
+            this.serverUrl = serverUrl;
+        }
+
+        // Runs then right away if the attempt has already finished.
+        void whenFinished(Runnable then) {
+            synchronized (this) {
+                if (!finished) {
+                    waiting.add(then);
+                    return;
+                }
+            }
+            then.run();
+        }
+
+        // Only the first call counts; a null page means there is nothing to use.
+        void finish(String page, NetworkClient.Timing timing, long preparedAt) {
+            List<Runnable> then;
+            synchronized (this) {
+                if (finished) return;
+                finished = true;
+                this.page = page;
+                this.timing = timing;
+                this.preparedAt = preparedAt;
+                then = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            for (Runnable runnable : then) runnable.run();
+        }
+
+        synchronized String page() {
+            return page;
+        }
+
+        synchronized NetworkClient.Timing timing() {
+            return timing;
+        }
+
+        synchronized long preparedAt() {
+            return preparedAt;
+        }
+    }
+
+    @Override
+    public void load() {
+        pageCache = new GamePageCache(getContext());
+        network = NetworkClient.getInstance(getContext());
+    }
+
     @PluginMethod
     public void loadGame(PluginCall call) {
-        new Thread(() -> {
+        String serverId = call.getString("serverId");
+        String serverUrl = call.getString("serverUrl");
+
+        if (serverUrl == null || serverId == null) {
+            call.reject("serverId and serverUrl must be provided.");
+            return;
+        }
+
+        MainActivity activity = (MainActivity) getActivity();
+        activity.getLoadTimer().start();
+        ReconnectSupervisor.getInstance(getContext()).onGameRequested(serverUrl);
+        SessionHistory.getInstance(getContext()).recorder(null).setServer(serverId);
+        PreparedGame preparing = candidate(serverId, serverUrl);
+        Runnable load = () -> {
             try {
-                String serverId = call.getString("serverId");
-                String serverUrl = call.getString("serverUrl");
+                // Keyed per server: a second tap cancels the first load instead of
+                // racing it for the WebView.
+                network.submit("loadGame:" + serverId, () -> runLoadGame(call, serverId, serverUrl, preparing),
+                        () -> call.reject("Superseded by a newer load."));
+            } catch (RejectedExecutionException e) {
+                call.reject("Too many network requests in flight, try again.");
+            }
+        };
+        // A prepare still in flight for this server queues the load when it
+        // finishes rather than the load starting a second fetch.
+        if (preparing != null) {
+            preparing.whenFinished(load);
+        } else {
+            load.run();
+        }
+    }
+
+    // Multi-session mode: opens another world next to the one loadGame
+    // plays, in a WebView of its own that loads in the background. Uses the
+    // cached page when there is one.
+    @PluginMethod
+    public void openSession(PluginCall call) {
+        String serverId = call.getString("serverId");
+        String serverUrl = call.getString("serverUrl");
+
+        if (serverUrl == null || serverId == null) {
+            call.reject("serverId and serverUrl must be provided.");
+            return;
+        }
 
-                if (serverUrl == null || serverId == null) {
-                    call.reject("serverId and serverUrl must be provided.");
+        MainActivity activity = (MainActivity) getActivity();
+        activity.runOnUiThread(() -> {
+            String refused = activity.getSessions().checkCanOpen();
+            if (refused != null) {
+                call.reject(refused);
+                return;
+            }
+            try {
+                network.submit("openSession:" + serverId, () -> runOpenSession(call, serverId, serverUrl),
+                        () -> call.reject("Superseded by a newer request."));
+            } catch (RejectedExecutionException e) {
+                call.reject("Too many network requests in flight, try again.");
+            }
+        });
+    }
+
+    private void runOpenSession(PluginCall call, String serverId, String serverUrl) {
+        MainActivity activity = (MainActivity) getActivity();
+        try {
+            GamePageCache.Entry cached = pageCache.get(serverId, serverUrl);
+            String html = cached != null ? cached.html : null;
+            String source = GameLoadTimer.SOURCE_CACHED;
+            if (html == null) {
+                html = acceptGamePage(serverId, serverUrl, null, requestGamePage(serverId, serverUrl, null));
+                source = GameLoadTimer.SOURCE_NETWORK;
+            }
+            String page = activity.prepareGamePage(html);
+            String pageSource = source;
+            activity.runOnUiThread(() -> {
+                // The budget is checked again: the other pages kept growing
+                // while this one was fetched.
+                SessionHost sessions = activity.getSessions();
+                String refused = sessions.checkCanOpen();
+                if (refused != null) {
+                    call.reject(refused);
                     return;
                 }
+                GameSession session = sessions.open(serverId, serverUrl, page, pageSource);
+                JSObject result = new JSObject();
+                result.put("tag", session.tag);
+                result.put("label", session.label);
+                call.resolve(result);
+            });
+        } catch (NetworkClient.CancelledException e) {
+            call.reject("Superseded by a newer request.");
+        } catch (Exception e) {
+            Log.w(TAG, "Could not open a session for server " + serverId, e);
+            call.reject("Failed to open another world.", e);
+        }
+    }
 
-                URL url = new URL("https://highspell.com/game");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-                conn.setDoOutput(true);
+    // Called by the launcher when it opens and whenever the server changes.
+    // Reads the injection bundle, connects to the game host and fetches the
+    // page for that server, so Play only has to hand the result over.
+    @PluginMethod
+    public void prepareGame(PluginCall call) {
+        String serverId = call.getString("serverId");
+        String serverUrl = call.getString("serverUrl");
 
-                String submitValue = "World " + serverId;
-                String postData = "submit=" + URLEncoder.encode(submitValue, "UTF-8") +
-                        "&serverid=" + URLEncoder.encode(serverId, "UTF-8") +
-                        "&serverurl=" + URLEncoder.encode(serverUrl, "UTF-8");
+        if (serverUrl == null || serverId == null) {
+            call.reject("serverId and serverUrl must be provided.");
+            return;
+        }
 
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = postData.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                }
+        PreparedGame preparing = new PreparedGame(serverId, serverUrl);
+        PreparedGame previous;
+        synchronized (this) {
+            previous = prepared;
+            prepared = preparing;
+        }
+        // Its fetch is cancelled below and may never run; a load waiting on
+        // it goes on to fetch the page itself.
+        if (previous != null) previous.finish(null, null, 0);
+        try {
+            // One key for all servers: changing the selection drops the
+            // fetch for the previous one.
+            network.submit("prepareGame", () -> runPrepareGame(call, preparing), () -> {
+                preparing.finish(null, null, 0);
+                call.reject("Superseded by a newer prepare.");
+            });
+        } catch (RejectedExecutionException e) {
+            preparing.finish(null, null, 0);
+            call.reject("Too many network requests in flight, try again.");
+        }
+    }
 
-                InputStream is = conn.getInputStream();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                    response.append('\n');
-                }
-                reader.close();
+    private void runPrepareGame(PluginCall call, PreparedGame preparing) {
+        MainActivity activity = (MainActivity) getActivity();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            activity.getInjectionBundle();
+            warmDns(preparing.serverUrl);
 
-                String finalHtml = response.toString();
-                String baseUrl = "https://highspell.com";
+            GamePageCache.Entry cached = pageCache.get(preparing.serverId, preparing.serverUrl);
+            NetworkClient.Response response = requestGamePage(preparing.serverId, preparing.serverUrl, cached);
+            String html = acceptGamePage(preparing.serverId, preparing.serverUrl, cached, response);
+            if (html == null) html = cached.html;
+
+            String page = activity.prepareGamePage(html);
+            long preparedAt = SystemClock.elapsedRealtime();
+            Log.d(TAG, "Prepared game page for server " + preparing.serverId + " in "
+                    + (preparedAt - start) + "ms (" + page.length() + " chars)");
+            preparing.finish(page, response.timing, preparedAt);
+
+            JSObject result = new JSObject();
+            result.put("serverId", preparing.serverId);
+            result.put("prepareMs", preparedAt - start);
+            result.put("timing", response.timing.toJSObject());
+            call.resolve(result);
+        } catch (NetworkClient.CancelledException e) {
+            call.reject("Superseded by a newer prepare.");
+        } catch (Exception e) {
+            Log.w(TAG, "Could not prepare game page for server " + preparing.serverId, e);
+            call.reject("Failed to prepare game page.", e);
+        } finally {
+            preparing.finish(null, null, 0);
+        }
+    }
 
-                MainActivity activity = (MainActivity) getActivity();
+    // The WebView resolves the socket host on its own later; looking it up
+    // now leaves the answer in the system resolver cache.
+    private static void warmDns(String serverUrl) {
+        try {
+            InetAddress.getAllByName(new URL(serverUrl).getHost());
+        } catch (IOException e) {
+            Log.d(TAG, "Could not resolve " + serverUrl + " ahead of time: " + e.getMessage());
+        }
+    }
+
+    // The prepare for this server, if that is what the launcher prepared.
+    // One for another server is dropped, as Play went elsewhere.
+    private PreparedGame candidate(String serverId, String serverUrl) {
+        PreparedGame candidate;
+        synchronized (this) {
+            candidate = prepared;
+        }
+        if (candidate == null) return null;
+        if (!candidate.serverId.equals(serverId) || !candidate.serverUrl.equals(serverUrl)) {
+            network.cancel("prepareGame");
+            candidate.finish(null, null, 0);
+            return null;
+        }
+        return candidate;
+    }
+
+    // Hands out a finished prepare's page once; null if it has none or it
+    // is too old.
+    private String takePrepared(PreparedGame candidate, String serverId) {
+        if (candidate == null) return null;
+        synchronized (this) {
+            if (prepared == candidate) prepared = null;
+        }
+        String page = candidate.page();
+        if (page == null) return null;
+        if (SystemClock.elapsedRealtime() - candidate.preparedAt() > PREPARED_MAX_AGE_MS) {
+            Log.d(TAG, "Prepared page for server " + serverId + " is too old, fetching again.");
+            return null;
+        }
+        return page;
+    }
+
+    private void runLoadGame(PluginCall call, String serverId, String serverUrl, PreparedGame candidate) {
+        MainActivity activity = (MainActivity) getActivity();
+        AtomicBoolean answered = new AtomicBoolean(false);
+
+        try {
+            String preparedPage = takePrepared(candidate, serverId);
+            if (preparedPage != null) {
+                Log.d(TAG, "Rendering prepared game page for server " + serverId);
+                NetworkClient.Timing timing = candidate.timing();
+                answered.set(true);
+                activity.runOnUiThread(() -> {
+                    activity.loadPreparedPage(preparedPage, GameLoadTimer.SOURCE_PREPARED);
+                    JSObject result = new JSObject();
+                    result.put("cached", false);
+                    result.put("prepared", true);
+                    result.put("timing", timing.toJSObject());
+                    call.resolve(result);
+                });
+                return;
+            }
+
+            // Render the cached copy right away; the network fetch below only
+            // decides whether a newer page has to be swapped in.
+            GamePageCache.Entry cached = pageCache.get(serverId, serverUrl);
+            if (cached != null) {
+                Log.d(TAG, "Rendering cached game page for server " + serverId);
+                String page = activity.prepareGamePage(cached.html);
+                answered.set(true);
                 activity.runOnUiThread(() -> {
-                    activity.loadGameWithHtml(finalHtml, baseUrl);
-                    call.resolve();
+                    activity.loadPreparedPage(page, GameLoadTimer.SOURCE_CACHED);
+                    JSObject result = new JSObject();
+                    result.put("cached", true);
+                    call.resolve(result);
                 });
+            } else {
+                streamGamePage(call, serverId, serverUrl);
+                answered.set(true);
+                return;
+            }
 
-            } catch (Exception e) {
-                Log.e("GlimmerPlugin", "Failed to manually load game data.", e);
+            NetworkClient.Response response = requestGamePage(serverId, serverUrl, cached);
+            String finalHtml = acceptGamePage(serverId, serverUrl, cached, response);
+            if (finalHtml == null) return;
+
+            String page = activity.prepareGamePage(finalHtml);
+            pageCache.recordStale();
+            // A new game page usually means new asset versions as well.
+            activity.getAssetCache().clear();
+            Log.d(TAG, "Cached game page was stale, swapping in the new copy. " + pageCache.describeStats());
+            activity.runOnUiThread(() -> activity.loadPreparedPage(page, GameLoadTimer.SOURCE_NETWORK));
+
+        } catch (NetworkClient.CancelledException e) {
+            Log.d(TAG, "Game load for server " + serverId + " was superseded.");
+            if (answered.compareAndSet(false, true)) {
+                call.reject("Superseded by a newer load.");
+            }
+        } catch (Exception e) {
+            if (answered.compareAndSet(false, true)) {
+                Log.e(TAG, "Failed to manually load game data.", e);
                 call.reject("Failed to load game data.", e);
+            } else {
+                Log.w(TAG, "Revalidation failed, keeping cached game page.", e);
+            }
+        }
+    }
+
+    // Nothing prepared or cached: the WebView gets the page body straight
+    // from the connection once the status is in, and renders while it is
+    // still arriving. The page is cached after the WebView has read all of
+    // it. A failure before the body starts rejects the call as before.
+    private void streamGamePage(PluginCall call, String serverId, String serverUrl) throws IOException {
+        MainActivity activity = (MainActivity) getActivity();
+        activity.getInjectionBundle();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/x-www-form-urlencoded");
+        NetworkClient.Streamed response = network.stream("loadGame", "POST", GAME_URL, headers,
+                buildGameForm(serverId, serverUrl).getBytes(StandardCharsets.UTF_8));
+        if (network.isCancelled() || response.code != HttpURLConnection.HTTP_OK || response.body == null) {
+            if (response.body != null) response.body.close();
+            if (network.isCancelled()) throw new NetworkClient.CancelledException();
+            throw new IOException("Unexpected response " + response.code + " from " + GAME_URL);
+        }
+
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        activity.runOnUiThread(() -> {
+            activity.loadArrivingPage(response, GameLoadTimer.SOURCE_NETWORK, html -> {
+                if (!GamePageInjector.hasHead(html)) {
+                    Log.w(TAG, "Game page has no <head> tag. WebSocket interception might have come too late.");
+                }
+                try {
+                    network.submit(() -> pageCache.put(serverId, serverUrl, html, etag, lastModified));
+                } catch (RejectedExecutionException e) {
+                    Log.w(TAG, "Network pool full, not caching the game page for server " + serverId);
+                }
+            });
+            JSObject result = new JSObject();
+            result.put("cached", false);
+            result.put("streamed", true);
+            // The body is still arriving, so this stops at the first byte.
+            result.put("timing", response.timing.toJSObject());
+            call.resolve(result);
+        });
+    }
+
+    // Conditional POST for the game page, revalidating the cached copy if
+    // there is one.
+    private NetworkClient.Response requestGamePage(String serverId, String serverUrl,
+                                                   GamePageCache.Entry cached) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/x-www-form-urlencoded");
+        if (cached != null) {
+            if (cached.etag != null) headers.put("If-None-Match", cached.etag);
+            if (cached.lastModified != null) headers.put("If-Modified-Since", cached.lastModified);
+        }
+
+        NetworkClient.Response response = network.execute("loadGame", "POST", GAME_URL, headers,
+                buildGameForm(serverId, serverUrl).getBytes(StandardCharsets.UTF_8));
+
+        if (network.isCancelled()) {
+            throw new NetworkClient.CancelledException();
+        }
+        return response;
+    }
+
+    // Stores a fetched page in the cache. Returns the new HTML, or null when
+    // the cached copy turned out to be current.
+    private String acceptGamePage(String serverId, String serverUrl, GamePageCache.Entry cached,
+                                  NetworkClient.Response response) throws IOException {
+        if (cached != null && response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            pageCache.recordRevalidated(cached);
+            Log.d(TAG, "Cached game page still current (304). " + pageCache.describeStats());
+            return null;
+        }
+        if (response.code != HttpURLConnection.HTTP_OK || response.body == null) {
+            throw new IOException("Unexpected response " + response.code + " from " + GAME_URL);
+        }
+
+        String html = response.body;
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        pageCache.put(serverId, serverUrl, html, etag, lastModified);
+
+        if (cached != null && html.equals(cached.html)) {
+            // Server ignored the conditional headers but nothing changed.
+            pageCache.recordRevalidated(cached);
+            Log.d(TAG, "Cached game page unchanged. " + pageCache.describeStats());
+            return null;
+        }
+        return html;
+    }
+
+    private static String buildGameForm(String serverId, String serverUrl) throws UnsupportedEncodingException {
+        String submitValue = "World " + serverId;
+        return "submit=" + URLEncoder.encode(submitValue, "UTF-8") +
+                "&serverid=" + URLEncoder.encode(serverId, "UTF-8") +
+                "&serverurl=" + URLEncoder.encode(serverUrl, "UTF-8");
+    }
+
+    @PluginMethod
+    public void getCacheStats(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("page", pageCache.getStats());
+        MainActivity activity = (MainActivity) getActivity();
+        if (activity != null && activity.getAssetCache() != null) {
+            result.put("assets", activity.getAssetCache().getStats());
+        }
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void dumpLogs(PluginCall call) {
+        int count = call.getInt("count", 500);
+        try {
+            File file = LogSink.getInstance(getContext()).dump(count);
+            JSObject result = new JSObject();
+            result.put("path", file.getAbsolutePath());
+            call.resolve(result);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to dump logs.", e);
+            call.reject("Failed to write log file.", e);
+        }
+    }
+
+    @PluginMethod
+    public void getNetworkStats(PluginCall call) {
+        call.resolve(network.getStats());
+    }
+
+    @PluginMethod
+    public void getRenderStats(PluginCall call) {
+        MainActivity activity = (MainActivity) getActivity();
+        if (activity == null || activity.getRenderMode() == null) {
+            call.reject("Render mode is not available.");
+            return;
+        }
+        call.resolve(activity.getRenderMode().getStats());
+    }
+
+    // Memory and CPU per open world, for multi-session mode.
+    @PluginMethod
+    public void getSessionStats(PluginCall call) {
+        MainActivity activity = (MainActivity) getActivity();
+        if (activity == null || activity.getSessions() == null) {
+            call.reject("No game session is open.");
+            return;
+        }
+        activity.runOnUiThread(() -> call.resolve(activity.getSessions().getStats()));
+    }
+
+    // Probes every server the launcher lists, all at once, and reports
+    // handshake times, median round trip and jitter for each.
+    @PluginMethod
+    public void probeServers(PluginCall call) {
+        JSArray list = call.getArray("servers");
+        if (list == null || list.length() == 0) {
+            call.reject("servers must be provided.");
+            return;
+        }
+        List<ServerProbe.Server> servers = new ArrayList<>();
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject server = list.optJSONObject(i);
+            if (server == null || server.optString("id", "").isEmpty() || server.optString("url", "").isEmpty()) {
+                call.reject("Each server needs an id and a url.");
+                return;
             }
-        }).start();
+            servers.add(new ServerProbe.Server(server.optString("id"), server.optString("url")));
+        }
+        int probes = call.getInt("probes", ServerProbe.DEFAULT_PROBES);
+        int timeoutMs = call.getInt("timeoutMs", ServerProbe.DEFAULT_TIMEOUT_MS);
+
+        try {
+            network.submit("probeServers", () -> {
+                try {
+                    List<ServerProbe.Result> results = getServerProbe().probeAll(servers, probes, timeoutMs);
+                    JSArray json = new JSArray();
+                    for (ServerProbe.Result result : results) {
+                        JSObject entry = new JSObject();
+                        entry.put("id", result.id);
+                        entry.put("url", result.url);
+                        entry.put("reachable", result.isReachable());
+                        entry.put("successes", result.successes);
+                        entry.put("failures", result.failures);
+                        entry.put("connectMs", result.connectMs);
+                        entry.put("tlsMs", result.tlsMs);
+                        entry.put("rttMs", result.rttMs);
+                        entry.put("jitterMs", result.jitterMs);
+                        if (result.error != null) entry.put("error", result.error);
+                        json.put(entry);
+                        Log.d(TAG, "Probe " + result.id + ": rtt=" + result.rttMs + "ms jitter=" + result.jitterMs
+                                + "ms connect=" + result.connectMs + "ms tls=" + result.tlsMs + "ms ("
+                                + result.successes + "/" + (result.successes + result.failures) + ")");
+                    }
+                    ServerProbe.Result best = ServerProbe.best(results);
+                    JSObject response = new JSObject();
+                    response.put("servers", json);
+                    if (best != null) response.put("bestId", best.id);
+                    call.resolve(response);
+                } catch (InterruptedException e) {
+                    call.reject("Superseded by a newer probe.");
+                }
+            }, () -> call.reject("Superseded by a newer probe."));
+        } catch (RejectedExecutionException e) {
+            call.reject("Too many network requests in flight, try again.");
+        }
+    }
+
+    private synchronized ServerProbe getServerProbe() {
+        if (serverProbe == null) {
+            serverProbe = new ServerProbe(Executors.newFixedThreadPool(PROBE_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "GlimmerProbe");
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+        return serverProbe;
+    }
+
+    @PluginMethod
+    public void getCaptureStats(PluginCall call) {
+        call.resolve(PacketCapture.getInstance(getContext()).getStats());
+    }
+
+    // Per-session summaries for the launcher, newest first; pass the id of
+    // the last one shown as before to page further back.
+    @PluginMethod
+    public void getSessionHistory(PluginCall call) {
+        int limit = call.getInt("limit", 20);
+        long before = call.getLong("before", 0L);
+        SessionHistory.getInstance(getContext()).loadSummaries(limit, before, call);
+    }
+
+    @PluginMethod
+    public void getWakeLockStats(PluginCall call) {
+        call.resolve(WakeLockManager.getInstance(getContext()).getStats());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package io.glimmer.client;
+
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+// Serves the game page from GamePageServer, the game's static assets from
+// AssetCache and the world map tiles from MapTiles. Everything else, including socket.io polling and the
+// WebSocket itself, goes through Capacitor untouched.
+public class GlimmerWebViewClient extends BridgeWebViewClient {
+
+    private final GameSession session;
+    private final GameResourceInterceptor interceptor;
+
+    public GlimmerWebViewClient(Bridge bridge, AssetCache assetCache, NetworkClient network, GameSession session,
+                                MapTiles mapTiles, GamePageServer gamePageServer) {
+        super(bridge);
+        this.session = session;
+        interceptor = new GameResourceInterceptor(assetCache, network, mapTiles, gamePageServer);
+    }
+
+    @Override
+    public void onPageCommitVisible(WebView view, String url) {
+        super.onPageCommitVisible(view, url);
+        session.onFirstFrame();
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        WebResourceResponse response = interceptor.intercept(request);
+        return response != null ? response : super.shouldInterceptRequest(view, request);
+    }
+
+    // Handled, so the app is not killed along with the renderer.
+    @Override
+    public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+        super.onRenderProcessGone(view, detail);
+        session.onRendererGone(detail.didCrash());
+        return true;
+    }
+}
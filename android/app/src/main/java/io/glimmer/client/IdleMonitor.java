@@ -0,0 +1,164 @@
+package io.glimmer.client;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Native AFK timer. The page (or PacketPipeline) only reports when the
+// player goes idle and when they act again; the countdown itself runs here,
+// out of reach of Chromium's background timer throttling.
+//
+// In the foreground a main-thread Handler is enough. Once ForegroundService
+// attaches, the deadline is also handed to AlarmManager so it fires on time
+// even if the CPU has gone to sleep.
+//
+// Each game session has its own timer; the primary one has no tag. Its
+// bridge hears when the timer fires, so the page and the pipeline can let
+// the next idle packet start a fresh countdown.
+public class IdleMonitor {
+
+    public static final String TAG = "GlimmerIdle";
+    private static final long DEFAULT_TIMEOUT_SEC = 30;
+    private static final String ALARM_TAG = "Glimmer::IdleAlarm";
+
+    private static final Map<String, IdleMonitor> instances = new HashMap<>();
+    // Whether ForegroundService is up; sessions opened later start attached.
+    private static boolean serviceAttached = false;
+
+    private final Context context;
+    private final String sessionTag;
+    private final AlarmManager alarmManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final SettingsStore settings;
+
+    private boolean attached = false;
+    private long deadline = -1;
+    private long timeoutSec;
+    private boolean alarmSet = false;
+    private Runnable firedListener;
+
+    private final Runnable fireRunnable = this::fire;
+    // Only exists on N+, where AlarmManager takes a listener instead of a broadcast.
+    private final Object alarmListener;
+
+    public static IdleMonitor getInstance(Context context) {
+        return getInstance(context, null);
+    }
+
+    public static synchronized IdleMonitor getInstance(Context context, String sessionTag) {
+        IdleMonitor monitor = instances.get(sessionTag);
+        if (monitor == null) {
+            monitor = new IdleMonitor(context.getApplicationContext(), sessionTag);
+            instances.put(sessionTag, monitor);
+            if (serviceAttached) monitor.attach();
+        }
+        return monitor;
+    }
+
+    // Called by ForegroundService when it starts and stops.
+    public static synchronized void setServiceAttached(boolean attached) {
+        serviceAttached = attached;
+        for (IdleMonitor monitor : instances.values()) {
+            if (attached) {
+                monitor.attach();
+            } else {
+                monitor.detach();
+            }
+        }
+    }
+
+    private IdleMonitor(Context context, String sessionTag) {
+        this.context = context;
+        this.sessionTag = sessionTag;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        settings = SettingsStore.getInstance(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            alarmListener = (AlarmManager.OnAlarmListener) this::fire;
+        } else {
+            alarmListener = null;
+        }
+    }
+
+    public synchronized void setFiredListener(Runnable listener) {
+        firedListener = listener;
+    }
+
+    // A released bridge only clears the listener if no newer one replaced it.
+    public synchronized void clearFiredListener(Runnable listener) {
+        if (firedListener == listener) firedListener = null;
+    }
+
+    private long getTimeoutSec() {
+        return Math.max(5, settings.get().getLong("glimmer_idleTimeoutSec", DEFAULT_TIMEOUT_SEC));
+    }
+
+    public synchronized void onIdleStarted() {
+        if (deadline >= 0) return;
+        timeoutSec = getTimeoutSec();
+        deadline = SystemClock.elapsedRealtime() + timeoutSec * 1000L;
+        handler.postAtTime(fireRunnable, SystemClock.uptimeMillis() + timeoutSec * 1000L);
+        if (attached) setAlarm();
+        Log.d(TAG, "Idle timer started (" + timeoutSec + "s)");
+    }
+
+    public synchronized void onActivity() {
+        if (deadline < 0) return;
+        cancel();
+        Log.d(TAG, "Activity detected, idle timer cleared");
+    }
+
+    private synchronized void attach() {
+        attached = true;
+        if (deadline >= 0) setAlarm();
+    }
+
+    private synchronized void detach() {
+        attached = false;
+        cancelAlarm();
+    }
+
+    private void fire() {
+        Runnable listener;
+        synchronized (this) {
+            // The Handler and the alarm race for the same deadline; first one wins.
+            if (deadline < 0) return;
+            cancel();
+            listener = firedListener;
+        }
+        AlertScheduler.getInstance(context).post(sessionTag, AlertScheduler.CATEGORY_IDLE,
+                "Glimmer: AFK Alert!", "You have been idle for " + timeoutSec + " seconds.");
+        if (listener != null) listener.run();
+    }
+
+    private void cancel() {
+        deadline = -1;
+        handler.removeCallbacks(fireRunnable);
+        cancelAlarm();
+    }
+
+    private void setAlarm() {
+        if (alarmListener == null || alarmManager == null || alarmSet) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarmManager.canScheduleExactAlarms()) {
+            // Without the exact-alarm grant the Handler still runs while
+            // WakeLockManager holds the CPU for the open socket.
+            return;
+        }
+        alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadline,
+                sessionTag == null ? ALARM_TAG : ALARM_TAG + "." + sessionTag,
+                (AlarmManager.OnAlarmListener) alarmListener, handler);
+        alarmSet = true;
+    }
+
+    private void cancelAlarm() {
+        if (!alarmSet) return;
+        alarmManager.cancel((AlarmManager.OnAlarmListener) alarmListener);
+        alarmSet = false;
+    }
+}
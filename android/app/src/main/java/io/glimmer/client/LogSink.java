@@ -0,0 +1,188 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// In-memory ring buffer for Glimmer's log lines. Writers only append; a
+// background thread mirrors new entries to logcat in batches, and the
+// launcher can dump the tail of the buffer to a file when chasing a bug.
+public class LogSink {
+
+    public static final String TAG = "GlimmerJS";
+    private static final String PREFS_NAME = "CapacitorStorage";
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_ERROR = 1;
+    public static final int LEVEL_INFO = 2;
+    public static final int LEVEL_DEBUG = 3;
+
+    private static final int CAPACITY = 2000;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final int LOGCAT_CHUNK = 3500;
+
+    private static LogSink instance;
+
+    private final SharedPreferences prefs;
+    private final File logDir;
+    private final long[] times = new long[CAPACITY];
+    private final byte[] levels = new byte[CAPACITY];
+    private final String[] messages = new String[CAPACITY];
+    private long written = 0;
+    private long flushed = 0;
+    private long dropped = 0;
+    private volatile int level;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "GlimmerLog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public static synchronized LogSink getInstance(Context context) {
+        if (instance == null) {
+            instance = new LogSink(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private LogSink(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        File external = context.getExternalFilesDir(null);
+        logDir = new File(external != null ? external : context.getFilesDir(), "logs");
+        level = parseLevel(prefs.getString("glimmer_logLevel", "info"));
+        flusher.scheduleWithFixedDelay(this::flushToLogcat, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static int parseLevel(String value) {
+        if (value == null) return LEVEL_INFO;
+        switch (value) {
+            case "off": return LEVEL_OFF;
+            case "error": return LEVEL_ERROR;
+            case "debug": return LEVEL_DEBUG;
+            default: return LEVEL_INFO;
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(int level) {
+        return level != LEVEL_OFF && level <= this.level;
+    }
+
+    public void log(int level, String message) {
+        if (!isEnabled(level) || message == null) return;
+        synchronized (this) {
+            append(System.currentTimeMillis(), level, message);
+        }
+    }
+
+    // Batch from injected-script.js: one line per entry, each starting with
+    // the level digit. The page already dropped anything above its level.
+    public void logBatch(String batch) {
+        if (batch == null || batch.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            int start = 0;
+            int length = batch.length();
+            while (start < length) {
+                int end = batch.indexOf('\n', start);
+                if (end == -1) end = length;
+                if (end - start > 1) {
+                    int entryLevel = batch.charAt(start) - '0';
+                    if (isEnabled(entryLevel)) {
+                        append(now, entryLevel, batch.substring(start + 1, end));
+                    }
+                }
+                start = end + 1;
+            }
+        }
+    }
+
+    private void append(long time, int entryLevel, String message) {
+        int slot = (int) (written % CAPACITY);
+        times[slot] = time;
+        levels[slot] = (byte) entryLevel;
+        messages[slot] = message;
+        written++;
+    }
+
+    private void flushToLogcat() {
+        StringBuilder chunk = new StringBuilder();
+        synchronized (this) {
+            if (flushed == written) return;
+            if (written - flushed > CAPACITY) {
+                dropped += written - flushed - CAPACITY;
+                flushed = written - CAPACITY;
+            }
+            for (long i = flushed; i < written; i++) {
+                int slot = (int) (i % CAPACITY);
+                chunk.append(levelChar(levels[slot])).append(' ').append(messages[slot]).append('\n');
+            }
+            flushed = written;
+        }
+
+        for (int start = 0; start < chunk.length(); start += LOGCAT_CHUNK) {
+            Log.d(TAG, chunk.substring(start, Math.min(chunk.length(), start + LOGCAT_CHUNK)));
+        }
+    }
+
+    // Writes the newest `count` entries to a timestamped file and returns it.
+    public File dump(int count) throws IOException {
+        if (!logDir.exists() && !logDir.mkdirs()) {
+            throw new IOException("Could not create " + logDir);
+        }
+        SimpleDateFormat fileFormat = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US);
+        SimpleDateFormat lineFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        File file = new File(logDir, "glimmer-" + fileFormat.format(new Date()) + ".log");
+
+        StringBuilder out = new StringBuilder();
+        synchronized (this) {
+            long available = Math.min(written, CAPACITY);
+            long first = written - Math.min(available, Math.max(count, 0));
+            for (long i = first; i < written; i++) {
+                int slot = (int) (i % CAPACITY);
+                out.append(lineFormat.format(new Date(times[slot])))
+                        .append(' ').append(levelChar(levels[slot]))
+                        .append(' ').append(messages[slot]).append('\n');
+            }
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(out.toString());
+        }
+        return file;
+    }
+
+    public synchronized String describeStats() {
+        return "written=" + written + " buffered=" + Math.min(written, CAPACITY) + " dropped=" + dropped;
+    }
+
+    private static char levelChar(int level) {
+        switch (level) {
+            case LEVEL_ERROR: return 'E';
+            case LEVEL_DEBUG: return 'D';
+            default: return 'I';
+        }
+    }
+}
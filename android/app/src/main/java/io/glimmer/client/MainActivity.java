@@ -3,13 +3,10 @@ package io.glimmer.client;
 import android.Manifest;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.PowerManager;
 import android.util.Log;
 import android.view.View;
 import android.view.Window;
@@ -22,7 +19,6 @@ import androidx.core.content.ContextCompat;
 
 import com.getcapacitor.BridgeActivity;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -30,11 +26,12 @@ public class MainActivity extends BridgeActivity {
 
     public static final String CHANNEL_ID = "GlimmerServiceChannel";
     public static final String TAG = "GlimmerMainActivity";
-    private static final String PREFS_NAME = "CapacitorStorage";
-    private PowerManager.WakeLock wakeLock;
-    private static final long WAKELOCK_TIMEOUT = 20 * 60 * 1000L;
     private ActivityResultLauncher<String> requestPermissionLauncher;
     private boolean isServiceRunning = false;
+    private AssetCache assetCache;
+    private SessionHost sessions;
+    private String injectionScript;
+    private String injectionBundle;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -51,14 +48,10 @@ public class MainActivity extends BridgeActivity {
         
         createNotificationChannel();
 
-        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
-        if (powerManager != null) {
-            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
-                    "Glimmer::BackgroundWakeLock");
-        }
-        WebView webView = getBridge().getWebView();
-        GlimmerNativeBridge nativeBridge = new GlimmerNativeBridge(this);
-        webView.addJavascriptInterface(nativeBridge, "GlimmerNative");
+        assetCache = new AssetCache(this);
+        sessions = new SessionHost(this, new GameSession(this, getBridge().getWebView(), null, null));
+        // Back from a renderer crash: the game pages load again by themselves.
+        sessions.restoreAfterCrash();
 
         requestPermissionLauncher = registerForActivityResult(
                 new ActivityResultContracts.RequestPermission(),
@@ -79,68 +72,77 @@ public class MainActivity extends BridgeActivity {
         }
     }
 
-    private String getScriptContent(String fileName) throws IOException {
-        try (InputStream inputStream = getAssets().open("public/" + fileName)) {
-            ByteArrayOutputStream result = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = inputStream.read(buffer)) != -1) {
-                result.write(buffer, 0, length);
-            }
-            return result.toString("UTF-8");
-        }
+    public GameLoadTimer getLoadTimer() {
+        return sessions.primary().loadTimer;
     }
 
-    public void loadGameWithHtml(String html, String baseUrl) {
-        try {
-            String interactJsContent = getScriptContent("interact.min.js");
-            String glimmerScriptContent = getScriptContent("injected-script.js");
+    public RenderModeController getRenderMode() {
+        return sessions.primary().renderMode;
+    }
 
-            String combinedScripts = interactJsContent + "\n" + glimmerScriptContent;
+    public SessionHost getSessions() {
+        return sessions;
+    }
 
-            String scriptTag = "<script type=\"text/javascript\">" + combinedScripts + "</script>";
-            String injections = scriptTag;
+    public AssetCache getAssetCache() {
+        return assetCache;
+    }
 
-            String modifiedHtml = html;
-            Log.d(TAG, "Preparing HTML injection.");
+    private String getScriptContent(String fileName) throws IOException {
+        try (InputStream inputStream = getAssets().open("public/" + fileName)) {
+            return GamePageInjector.readScript(inputStream);
+        }
+    }
 
-            int headIndex = html.toLowerCase().indexOf("<head>");
+    // The shipped scripts cannot change while the app runs, so they are read
+    // and joined once, ideally by GlimmerPlugin.prepareGame before Play.
+    synchronized String getInjectionScript() throws IOException {
+        if (injectionScript == null) {
+            injectionScript = GamePageInjector.joinScripts(
+                    getScriptContent("interact.min.js"),
+                    getScriptContent("injected-script.js"));
+        }
+        return injectionScript;
+    }
 
-            if (headIndex != -1) {
-                int injectionIndex = headIndex + "<head>".length();
-                modifiedHtml = html.substring(0, injectionIndex) + injections + html.substring(injectionIndex);
-                Log.d(TAG, "Injected scripts into <head>.");
-            } else {
-                Log.w(TAG, "Could not find <head> tag. Injecting before </body>. WebSocket interception might fail.");
-                modifiedHtml = html.replace("</body>", injections + "</body>");
-            }
+    // Under memory pressure; read again on the next page load.
+    private synchronized void dropInjectionScripts() {
+        injectionScript = null;
+        injectionBundle = null;
+    }
 
-            WebView webView = getBridge().getWebView();
-            webView.getSettings().setDomStorageEnabled(true);
-            webView.getSettings().setJavaScriptEnabled(true);
-            webView.getSettings().setMixedContentMode(android.webkit.WebSettings.MIXED_CONTENT_ALWAYS_ALLOW);
-            
-            // Enable WebSocket support
-            webView.getSettings().setAllowContentAccess(true);
-            webView.getSettings().setAllowFileAccess(true);
-            webView.getSettings().setAllowUniversalAccessFromFileURLs(true);
-            webView.getSettings().setAllowFileAccessFromFileURLs(true);
-            
-            // Leave default WebView User-Agent
-            
-            Log.d(TAG, "WebView configured with WebSocket support settings");
-            webView.loadDataWithBaseURL(baseUrl, modifiedHtml, "text/html", "UTF-8", null);
-            Log.d(TAG, "Successfully loaded modified HTML into WebView.");
+    // The same scripts as an inline tag, for the splice fallback.
+    synchronized String getInjectionBundle() throws IOException {
+        if (injectionBundle == null) {
+            injectionBundle = GamePageInjector.scriptTag(getInjectionScript());
+        }
+        return injectionBundle;
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to read or inject script.", e);
+    // Safe to call off the main thread. Only checks the page: the scripts go
+    // in as a document-start script or while the page streams to the WebView.
+    String prepareGamePage(String html) throws IOException {
+        getInjectionBundle();
+        if (!GamePageInjector.hasHead(html)) {
+            Log.w(TAG, "Could not find <head> tag. Injecting before </body>. WebSocket interception might fail.");
         }
+        getLoadTimer().sampleHeap();
+        return html;
     }
 
+    // Hands a game page to the primary WebView.
+    public void loadPreparedPage(String page, String source) {
+        sessions.primary().loadPage(page, source);
+    }
+
+    // The same for a page whose body is still arriving; see GamePageServer.
+    public void loadArrivingPage(NetworkClient.Streamed response, String source,
+                                 GamePageServer.ArrivalListener arrived) {
+        sessions.primary().loadArrivingPage(response, source, arrived);
+    }
 
     private boolean shouldServiceRun() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String runInBackground = prefs.getString("glimmer_runInBackground", "true");
+        String runInBackground = SettingsStore.getInstance(this).get().getString("glimmer_runInBackground", "true");
         return "true".equals(runInBackground);
     }
 
@@ -151,9 +153,6 @@ public class MainActivity extends BridgeActivity {
         }
         
         try {
-            if (wakeLock != null && !wakeLock.isHeld()) {
-                wakeLock.acquire(WAKELOCK_TIMEOUT);
-            }
             Intent serviceIntent = new Intent(this, ForegroundService.class);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 Log.d(TAG, "Starting foreground service for Android O+");
@@ -176,9 +175,6 @@ public class MainActivity extends BridgeActivity {
         }
         
         try {
-            if (wakeLock != null && wakeLock.isHeld()) {
-                wakeLock.release();
-            }
             Intent serviceIntent = new Intent(this, ForegroundService.class);
             Log.d(TAG, "Stopping foreground service");
             stopService(serviceIntent);
@@ -225,11 +221,32 @@ public class MainActivity extends BridgeActivity {
         super.onPause();
         if (shouldServiceRun()) {
             startForegroundService();
+            sessions.onPause();
         } else {
             stopForegroundService();
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Metrics.get().count(Metrics.TRIM_EVENTS);
+        if (SessionHost.pressureTier(level) >= SessionHost.PRESSURE_DROP_CACHES) {
+            dropInjectionScripts();
+        }
+        if (sessions != null) {
+            sessions.onTrimMemory(level);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (sessions != null) {
+            sessions.releaseAll();
+        }
+        super.onDestroy();
+    }
+
     public void requestNotificationPermissionFromJS() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             if (ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
@@ -251,6 +268,7 @@ public class MainActivity extends BridgeActivity {
     @Override
     public void onResume() {
         super.onResume();
+        sessions.onResume();
         stopForegroundService();
         // Re-enable fullscreen in case it was lost
         enableFullscreenMode();
@@ -0,0 +1,142 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Serves the world map from a local tile pack to the in-page map renderer.
+// The page asks for /glimmer-map/meta.json and /glimmer-map/<level>/<x>/<y>
+// on its own origin, so nothing leaves the device and no frame is needed.
+// A pack dropped into files/map/ wins over one bundled under assets/map/.
+// No pack ships with the app; without one meta.json is a 404 and the page
+// falls back to the online map.
+public class MapTiles {
+
+    public static final String TAG = "GlimmerMapTiles";
+    public static final String PATH_PREFIX = "/glimmer-map/";
+    private static final String PACK_NAME = "world.gtp";
+    private static final String ASSET_PATH = "map/" + PACK_NAME;
+
+    private static MapTiles instance;
+
+    private final Context context;
+    private TilePack pack;
+    private boolean opened = false;
+
+    public static synchronized MapTiles getInstance(Context context) {
+        if (instance == null) {
+            instance = new MapTiles(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MapTiles(Context context) {
+        this.context = context;
+    }
+
+    public static boolean handles(String path) {
+        return path != null && path.startsWith(PATH_PREFIX);
+    }
+
+    // Runs on the WebView's resource thread.
+    public WebResourceResponse serve(String path) {
+        TilePack tiles = pack();
+        String rest = path.substring(PATH_PREFIX.length());
+        if ("meta.json".equals(rest)) {
+            if (tiles == null) return notFound();
+            return respond("application/json", "no-cache",
+                    new ByteArrayInputStream(tiles.toJson().getBytes(StandardCharsets.UTF_8)));
+        }
+        if (tiles == null) return notFound();
+
+        String[] parts = rest.split("/");
+        if (parts.length != 3) return notFound();
+        ByteBuffer image;
+        try {
+            image = tiles.tile(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            return notFound();
+        }
+        if (image == null) return notFound();
+        // Tiles never change within a pack version.
+        return respond(TilePack.mimeType(image), "max-age=31536000, immutable", new BufferInputStream(image));
+    }
+
+    private synchronized TilePack pack() {
+        if (opened) return pack;
+        opened = true;
+        File local = new File(new File(context.getFilesDir(), "map"), PACK_NAME);
+        try {
+            if (local.isFile()) {
+                try (FileInputStream in = new FileInputStream(local)) {
+                    pack = TilePack.map(in.getChannel(), 0, local.length());
+                }
+            } else {
+                // Only works because gtp is listed under noCompress.
+                try (AssetFileDescriptor fd = context.getAssets().openFd(ASSET_PATH);
+                     FileInputStream in = fd.createInputStream()) {
+                    FileChannel channel = in.getChannel();
+                    pack = TilePack.map(channel, fd.getStartOffset(), fd.getLength());
+                }
+            }
+            Log.i(TAG, "Mapped " + pack.size() + " map tiles");
+        } catch (IOException e) {
+            Log.w(TAG, "No usable map tile pack: " + e.getMessage());
+            pack = null;
+        }
+        return pack;
+    }
+
+    private static WebResourceResponse respond(String mimeType, String cacheControl, InputStream body) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Origin", "*");
+        headers.put("Cache-Control", cacheControl);
+        return new WebResourceResponse(mimeType, null, 200, "OK", headers, body);
+    }
+
+    private static WebResourceResponse notFound() {
+        WebResourceResponse response = new WebResourceResponse("text/plain", "utf-8",
+                new ByteArrayInputStream(new byte[0]));
+        response.setStatusCodeAndReasonPhrase(404, "Not Found");
+        return response;
+    }
+
+    // Reads a mapped tile without copying it into a byte[] first.
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package io.glimmer.client;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Process-wide runtime metrics: fixed counters, fixed-bucket latency
+// histograms and a few gauges. Recording an event is one or two atomic
+// adds on preallocated arrays; only snapshot() allocates.
+//
+// Shared by PacketPipeline, the bridge and ForegroundService.
+public final class Metrics {
+
+    // Counters
+    public static final int FRAMES_IN = 0;
+    public static final int FRAMES_OUT = 1;
+    public static final int BATCHES = 2;
+    public static final int BRIDGE_CALLS = 3;
+    public static final int ALERTS = 4;
+    public static final int JS_PACKETS = 5;
+    public static final int SOCKET_DROPS = 6;
+    public static final int RECONNECT_ATTEMPTS = 7;
+    public static final int RECONNECTS = 8;
+    // Summed drop-to-reopen time of all RECONNECTS, for the mean.
+    public static final int RECONNECT_MILLIS = 9;
+    // Frames the in-page decoder parsed, and those it dropped by prefix.
+    public static final int JS_FRAMES_PARSED = 10;
+    public static final int JS_FRAMES_SKIPPED = 11;
+    // onTrimMemory calls, WebView renderers lost, and the game pages brought
+    // back after that; RECOVERY_MILLIS sums the crash-to-first-frame times.
+    public static final int TRIM_EVENTS = 12;
+    public static final int RENDERER_CRASHES = 13;
+    public static final int RENDERER_RECOVERIES = 14;
+    public static final int RECOVERY_MILLIS = 15;
+    static final int COUNTER_COUNT = 16;
+    static final String[] COUNTER_NAMES = {
+            "framesIn", "framesOut", "batches", "bridgeCalls", "alerts", "jsPackets",
+            "socketDrops", "reconnectAttempts", "reconnects", "reconnectMillis",
+            "jsFramesParsed", "jsFramesSkipped", "trimEvents", "rendererCrashes",
+            "rendererRecoveries", "recoveryMillis"
+    };
+
+    // Histograms, all in microseconds
+    public static final int DECODE_BATCH = 0;
+    public static final int JS_HANDLER = 1;
+    static final int HISTOGRAM_COUNT = 2;
+    static final String[] HISTOGRAM_NAMES = {"decodeBatch", "jsHandler"};
+
+    // Upper bounds of each bucket; one extra overflow bucket follows. The
+    // page keeps the same bounds so its counts can be merged in as-is.
+    static final long[] BUCKET_BOUNDS_US = {25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000};
+    static final int BUCKETS = BUCKET_BOUNDS_US.length + 1;
+
+    // Gauges
+    public static final int JAVA_HEAP = 0;
+    public static final int NATIVE_HEAP = 1;
+    public static final int JS_HEAP = 2;
+    public static final int LAST_RECONNECT_MS = 3;
+    // Game WebViews open in multi-session mode.
+    public static final int SESSIONS = 4;
+    public static final int LAST_RECOVERY_MS = 5;
+    static final int GAUGE_COUNT = 6;
+    static final String[] GAUGE_NAMES = {"javaHeapBytes", "nativeHeapBytes", "jsHeapBytes", "lastReconnectMs", "sessions",
+            "lastRecoveryMs"};
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+    private final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAM_COUNT * BUCKETS);
+    private final AtomicLongArray sums = new AtomicLongArray(HISTOGRAM_COUNT);
+    private final AtomicLongArray gauges = new AtomicLongArray(GAUGE_COUNT);
+
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    public void count(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    public void add(int counter, long delta) {
+        counters.addAndGet(counter, delta);
+    }
+
+    public void record(int histogram, long micros) {
+        buckets.incrementAndGet(histogram * BUCKETS + bucketFor(micros));
+        sums.addAndGet(histogram, micros);
+    }
+
+    // Pre-aggregated counts from the page, one per bucket.
+    public void merge(int histogram, long[] bucketCounts, long sumMicros) {
+        int n = Math.min(bucketCounts.length, BUCKETS);
+        for (int i = 0; i < n; i++) {
+            if (bucketCounts[i] != 0) buckets.addAndGet(histogram * BUCKETS + i, bucketCounts[i]);
+        }
+        sums.addAndGet(histogram, sumMicros);
+    }
+
+    public void setGauge(int gauge, long value) {
+        gauges.set(gauge, value);
+    }
+
+    public long getGauge(int gauge) {
+        return gauges.get(gauge);
+    }
+
+    static int bucketFor(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS_US.length; i++) {
+            if (micros <= BUCKET_BOUNDS_US[i]) return i;
+        }
+        return BUCKET_BOUNDS_US.length;
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(System.nanoTime());
+        for (int i = 0; i < COUNTER_COUNT; i++) snapshot.counters[i] = counters.get(i);
+        for (int i = 0; i < HISTOGRAM_COUNT * BUCKETS; i++) snapshot.buckets[i] = buckets.get(i);
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) snapshot.sums[i] = sums.get(i);
+        for (int i = 0; i < GAUGE_COUNT; i++) snapshot.gauges[i] = gauges.get(i);
+        return snapshot;
+    }
+
+    public static final class Snapshot {
+        final long takenAtNanos;
+        final long[] counters = new long[COUNTER_COUNT];
+        final long[] buckets = new long[HISTOGRAM_COUNT * BUCKETS];
+        final long[] sums = new long[HISTOGRAM_COUNT];
+        final long[] gauges = new long[GAUGE_COUNT];
+
+        Snapshot(long takenAtNanos) {
+            this.takenAtNanos = takenAtNanos;
+        }
+
+        public long counter(int counter) {
+            return counters[counter];
+        }
+
+        public long gauge(int gauge) {
+            return gauges[gauge];
+        }
+
+        // Events per second since `previous`; 0 without one.
+        public double rate(int counter, Snapshot previous) {
+            if (previous == null) return 0;
+            double seconds = (takenAtNanos - previous.takenAtNanos) / 1e9;
+            return seconds > 0 ? (counters[counter] - previous.counters[counter]) / seconds : 0;
+        }
+
+        // Histogram figures cover the window since `previous` (everything
+        // since start if it is null), so a bad minute is not averaged away.
+        private long bucket(int histogram, int index, Snapshot previous) {
+            int slot = histogram * BUCKETS + index;
+            return buckets[slot] - (previous != null ? previous.buckets[slot] : 0);
+        }
+
+        public long count(int histogram, Snapshot previous) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += bucket(histogram, i, previous);
+            return total;
+        }
+
+        public double meanMicros(int histogram, Snapshot previous) {
+            long count = count(histogram, previous);
+            long sum = sums[histogram] - (previous != null ? previous.sums[histogram] : 0);
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        // Upper bound of the bucket holding the given quantile (0..1).
+        public long percentileMicros(int histogram, double quantile, Snapshot previous) {
+            long count = count(histogram, previous);
+            if (count == 0) return 0;
+            long target = (long) Math.ceil(count * quantile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += bucket(histogram, i, previous);
+                if (seen >= target) {
+                    return i < BUCKET_BOUNDS_US.length ? BUCKET_BOUNDS_US[i] : BUCKET_BOUNDS_US[BUCKET_BOUNDS_US.length - 1] * 2;
+                }
+            }
+            return 0;
+        }
+
+        // One line for the foreground notification.
+        public String summary(Snapshot previous) {
+            String summary = String.format(Locale.US, "%.0f pkt/s · decode p95 %s · %.1f calls/s · heap %dMB",
+                    rate(FRAMES_IN, previous) + rate(FRAMES_OUT, previous),
+                    formatMicros(percentileMicros(DECODE_BATCH, 0.95, previous)),
+                    rate(BRIDGE_CALLS, previous),
+                    (gauges[JAVA_HEAP] + gauges[NATIVE_HEAP]) >> 20);
+            return gauges[SESSIONS] > 1 ? summary + " · " + gauges[SESSIONS] + " worlds" : summary;
+        }
+
+        public String toJson(Snapshot previous) {
+            StringBuilder out = new StringBuilder(512);
+            out.append("{\"counters\":{");
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                if (i > 0) out.append(',');
+                out.append('"').append(COUNTER_NAMES[i]).append("\":{\"total\":").append(counters[i])
+                        .append(",\"perSecond\":").append(String.format(Locale.US, "%.2f", rate(i, previous)))
+                        .append('}');
+            }
+            out.append("},\"histograms\":{");
+            for (int h = 0; h < HISTOGRAM_COUNT; h++) {
+                if (h > 0) out.append(',');
+                out.append('"').append(HISTOGRAM_NAMES[h]).append("\":{\"total\":").append(count(h, null))
+                        .append(",\"count\":").append(count(h, previous))
+                        .append(",\"meanUs\":").append(String.format(Locale.US, "%.1f", meanMicros(h, previous)))
+                        .append(",\"p50Us\":").append(percentileMicros(h, 0.5, previous))
+                        .append(",\"p95Us\":").append(percentileMicros(h, 0.95, previous))
+                        .append(",\"p99Us\":").append(percentileMicros(h, 0.99, previous))
+                        .append('}');
+            }
+            out.append("},\"gauges\":{");
+            for (int i = 0; i < GAUGE_COUNT; i++) {
+                if (i > 0) out.append(',');
+                out.append('"').append(GAUGE_NAMES[i]).append("\":").append(gauges[i]);
+            }
+            return out.append("}}").toString();
+        }
+
+        private static String formatMicros(long micros) {
+            return micros >= 1000
+                    ? String.format(Locale.US, "%.1fms", micros / 1000.0)
+                    : micros + "µs";
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.glimmer.client;
+
+import android.os.Debug;
+
+// Android-side gauges for Metrics, kept out of the registry itself.
+final class MetricsSampler {
+
+    private MetricsSampler() {
+    }
+
+    static Metrics.Snapshot sample() {
+        Metrics metrics = Metrics.get();
+        Runtime runtime = Runtime.getRuntime();
+        metrics.setGauge(Metrics.JAVA_HEAP, runtime.totalMemory() - runtime.freeMemory());
+        metrics.setGauge(Metrics.NATIVE_HEAP, Debug.getNativeHeapAllocatedSize());
+        return metrics.snapshot();
+    }
+}
@@ -0,0 +1,403 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shared HTTP plumbing for the plugin: one bounded pool instead of a thread
+// per call, timeouts from settings, keyed cancellation and per-phase timing.
+public class NetworkClient {
+
+    public static final String TAG = "GlimmerNetwork";
+    private static final String PREFS_NAME = "CapacitorStorage";
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 20000;
+    private static final int MAX_RECENT_TIMINGS = 20;
+    // Core and maximum are the same: with a queue in front, a pool only grows
+    // past its core size once the queue is full.
+    private static final int POOL_THREADS = 4;
+    private static final int POOL_QUEUE = 16;
+
+    private static NetworkClient instance;
+
+    private final SharedPreferences prefs;
+    private final SettingsStore settings;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, InFlight> inFlight = new HashMap<>();
+    private final ArrayDeque<JSObject> recentTimings = new ArrayDeque<>();
+    private final ThreadLocal<InFlight> currentTask = new ThreadLocal<>();
+
+    private static class InFlight {
+        Future<?> future;
+        volatile HttpURLConnection connection;
+        volatile boolean cancelled;
+        // Claimed by whichever comes first: the task starting, or a cancel
+        // that then answers for it through onSuperseded.
+        final AtomicBoolean started = new AtomicBoolean();
+        Runnable onSuperseded;
+    }
+
+    public static class Timing {
+        public long dnsMs = -1;
+        public long connectMs = -1;
+        public long ttfbMs = -1;
+        public long bodyMs = -1;
+        public long totalMs = -1;
+
+        public JSObject toJSObject() {
+            JSObject json = new JSObject();
+            json.put("dnsMs", dnsMs);
+            json.put("connectMs", connectMs);
+            json.put("ttfbMs", ttfbMs);
+            json.put("bodyMs", bodyMs);
+            json.put("totalMs", totalMs);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return "dns=" + dnsMs + "ms connect=" + connectMs + "ms ttfb=" + ttfbMs
+                    + "ms body=" + bodyMs + "ms total=" + totalMs + "ms";
+        }
+    }
+
+    public static class Response {
+        public final int code;
+        public final String body;
+        public final Map<String, String> headers;
+        public final Timing timing;
+
+        Response(int code, String body, Map<String, String> headers, Timing timing) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+            this.timing = timing;
+        }
+
+        public String header(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    // A response from stream(): the body is still on the wire, or null.
+    public static class Streamed {
+        public final int code;
+        public final InputStream body;
+        public final Map<String, String> headers;
+        public final Timing timing;
+
+        Streamed(int code, InputStream body, Map<String, String> headers, Timing timing) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+            this.timing = timing;
+        }
+
+        public String header(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    public static class CancelledException extends IOException {
+        CancelledException() {
+            super("Request was cancelled.");
+        }
+    }
+
+    public static synchronized NetworkClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new NetworkClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private NetworkClient(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        settings = SettingsStore.getInstance(context);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(POOL_THREADS, POOL_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(POOL_QUEUE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "GlimmerNet-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Runs the task on the shared pool. A task submitted under a key that is
+    // still in flight cancels the older one, so repeated taps never pile up.
+    // A task that had started sees isCancelled() and answers for itself; one
+    // still queued never runs, and its onSuperseded runs instead.
+    public Future<?> submit(String key, Runnable task, Runnable onSuperseded) throws RejectedExecutionException {
+        InFlight entry = new InFlight();
+        entry.onSuperseded = onSuperseded;
+        synchronized (inFlight) {
+            InFlight previous = inFlight.put(key, entry);
+            if (previous != null) {
+                Log.d(TAG, "Cancelling in-flight request for " + key);
+                cancel(previous);
+            }
+            try {
+                entry.future = executor.submit(() -> {
+                    if (!entry.started.compareAndSet(false, true)) return;
+                    currentTask.set(entry);
+                    try {
+                        task.run();
+                    } finally {
+                        currentTask.remove();
+                        synchronized (inFlight) {
+                            if (inFlight.get(key) == entry) inFlight.remove(key);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key);
+                throw e;
+            }
+        }
+        return entry.future;
+    }
+
+    public void submit(Runnable task) throws RejectedExecutionException {
+        executor.execute(task);
+    }
+
+    public void cancel(String key) {
+        synchronized (inFlight) {
+            InFlight entry = inFlight.remove(key);
+            if (entry != null) cancel(entry);
+        }
+    }
+
+    private static void cancel(InFlight entry) {
+        entry.cancelled = true;
+        HttpURLConnection connection = entry.connection;
+        if (connection != null) {
+            // Unblocks a read stuck on a stalled socket.
+            connection.disconnect();
+        }
+        if (entry.future != null) entry.future.cancel(true);
+        if (entry.started.compareAndSet(false, true) && entry.onSuperseded != null) {
+            entry.onSuperseded.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        InFlight entry = currentTask.get();
+        return entry != null && entry.cancelled;
+    }
+
+    public int getConnectTimeout() {
+        return readIntPref("glimmer_connectTimeoutMs", DEFAULT_CONNECT_TIMEOUT_MS);
+    }
+
+    public int getReadTimeout() {
+        return readIntPref("glimmer_readTimeoutMs", DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    private int readIntPref(String key, int fallback) {
+        return settings.get().getInt(key, fallback);
+    }
+
+    public HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(getConnectTimeout());
+        conn.setReadTimeout(getReadTimeout());
+        return conn;
+    }
+
+    // Performs a request and reads the full body. The stream is closed rather
+    // than the connection disconnected on success, which hands the socket
+    // back to the keep-alive pool for the next call.
+    public Response execute(String label, String method, String url,
+                            Map<String, String> headers, byte[] body) throws IOException {
+        InFlight entry = currentTask.get();
+        Exchange exchange = send(entry, method, url, headers, body);
+        try {
+            long bodyStart = SystemClock.elapsedRealtime();
+            String responseBody = exchange.stream != null ? readFully(exchange.stream) : null;
+            exchange.timing.bodyMs = SystemClock.elapsedRealtime() - bodyStart;
+            exchange.timing.totalMs = SystemClock.elapsedRealtime() - exchange.start;
+
+            recordTiming(label, exchange.code, exchange.timing);
+            return new Response(exchange.code, responseBody, exchange.headers, exchange.timing);
+        } catch (IOException e) {
+            exchange.conn.disconnect();
+            if (entry != null && entry.cancelled) throw new CancelledException();
+            throw e;
+        } finally {
+            if (entry != null) entry.connection = null;
+        }
+    }
+
+    // Like execute(), but hands back the body unread once the status and
+    // headers are in, for a caller that passes it on as it arrives. The
+    // timing is recorded when the body is closed. The caller must close it.
+    public Streamed stream(String label, String method, String url,
+                           Map<String, String> headers, byte[] body) throws IOException {
+        InFlight entry = currentTask.get();
+        Exchange exchange = send(entry, method, url, headers, body);
+        // Cancelling the task no longer applies: the body outlives it.
+        if (entry != null) entry.connection = null;
+        long bodyStart = SystemClock.elapsedRealtime();
+        InputStream stream = exchange.stream;
+        if (stream == null) {
+            exchange.conn.disconnect();
+            exchange.timing.totalMs = SystemClock.elapsedRealtime() - exchange.start;
+            recordTiming(label, exchange.code, exchange.timing);
+            return new Streamed(exchange.code, null, exchange.headers, exchange.timing);
+        }
+        InputStream timed = new FilterInputStream(stream) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                exchange.timing.bodyMs = SystemClock.elapsedRealtime() - bodyStart;
+                exchange.timing.totalMs = SystemClock.elapsedRealtime() - exchange.start;
+                recordTiming(label, exchange.code, exchange.timing);
+                super.close();
+            }
+        };
+        return new Streamed(exchange.code, timed, exchange.headers, exchange.timing);
+    }
+
+    // A request sent and answered up to the end of the headers.
+    private static final class Exchange {
+        final HttpURLConnection conn;
+        final long start;
+        final Timing timing;
+        int code;
+        Map<String, String> headers;
+        InputStream stream;
+
+        Exchange(HttpURLConnection conn, long start, Timing timing) {
+            this.conn = conn;
+            this.start = start;
+            this.timing = timing;
+        }
+    }
+
+    private Exchange send(InFlight entry, String method, String url,
+                          Map<String, String> headers, byte[] body) throws IOException {
+        Timing timing = new Timing();
+        long start = SystemClock.elapsedRealtime();
+
+        URL target = new URL(url);
+        long dnsStart = SystemClock.elapsedRealtime();
+        InetAddress.getAllByName(target.getHost());
+        timing.dnsMs = SystemClock.elapsedRealtime() - dnsStart;
+
+        HttpURLConnection conn = open(url);
+        if (entry != null) {
+            entry.connection = conn;
+            if (entry.cancelled) throw new CancelledException();
+        }
+        Exchange exchange = new Exchange(conn, start, timing);
+
+        try {
+            conn.setRequestMethod(method);
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            if (body != null) conn.setDoOutput(true);
+
+            long connectStart = SystemClock.elapsedRealtime();
+            conn.connect();
+            timing.connectMs = SystemClock.elapsedRealtime() - connectStart;
+
+            long requestSent = SystemClock.elapsedRealtime();
+            if (body != null) {
+                try (OutputStream os = conn.getOutputStream()) {
+                    os.write(body, 0, body.length);
+                }
+            }
+            exchange.code = conn.getResponseCode();
+            timing.ttfbMs = SystemClock.elapsedRealtime() - requestSent;
+
+            Map<String, String> responseHeaders = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+                if (header.getKey() != null && !header.getValue().isEmpty()) {
+                    responseHeaders.put(header.getKey().toLowerCase(), header.getValue().get(0));
+                }
+            }
+            exchange.headers = responseHeaders;
+            exchange.stream = exchange.code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            return exchange;
+        } catch (IOException e) {
+            conn.disconnect();
+            if (entry != null) entry.connection = null;
+            if (entry != null && entry.cancelled) throw new CancelledException();
+            throw e;
+        }
+    }
+
+    private static String readFully(InputStream is) throws IOException {
+        try (InputStream in = is) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    private void recordTiming(String label, int code, Timing timing) {
+        Log.d(TAG, label + " -> " + code + " " + timing);
+        JSObject json = timing.toJSObject();
+        json.put("label", label);
+        json.put("status", code);
+        json.put("at", System.currentTimeMillis());
+        synchronized (recentTimings) {
+            recentTimings.addLast(json);
+            while (recentTimings.size() > MAX_RECENT_TIMINGS) recentTimings.removeFirst();
+        }
+        // The launcher is replaced by the game page, so the latest timing per
+        // label is kept where it can read it on the next start.
+        prefs.edit().putString("glimmer_lastTiming_" + label, json.toString()).apply();
+    }
+
+    public JSObject getStats() {
+        JSObject stats = new JSObject();
+        JSArray timings = new JSArray();
+        synchronized (recentTimings) {
+            for (JSObject timing : recentTimings) timings.put(timing);
+        }
+        stats.put("recent", timings);
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("connectTimeoutMs", getConnectTimeout());
+        stats.put("readTimeoutMs", getReadTimeout());
+        return stats;
+    }
+}
@@ -0,0 +1,143 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Opt-in recording of every frame batch the page hands to pushFrames(),
+// written to a PacketTrace file under externalFilesDir/traces. Turned on and
+// off by glimmer_captureEnabled; stops by itself at MAX_BYTES.
+public class PacketCapture {
+
+    public static final String TAG = "GlimmerCapture";
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 2000;
+
+    private static PacketCapture instance;
+
+    private final File traceDir;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "GlimmerCapture");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the writer thread.
+    private PacketTrace.Writer trace;
+    private File traceFile;
+    private long lastFlush = 0;
+
+    private volatile boolean recording = false;
+
+    public static synchronized PacketCapture getInstance(Context context) {
+        if (instance == null) {
+            instance = new PacketCapture(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PacketCapture(Context context) {
+        File external = context.getExternalFilesDir(null);
+        traceDir = new File(external != null ? external : context.getFilesDir(), "traces");
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled == recording) return;
+        recording = enabled;
+        writer.execute(enabled ? this::open : this::close);
+    }
+
+    // Called on the JavaBridge thread; the batch string is immutable, so the
+    // writer thread can encode it later.
+    public void append(String batch) {
+        if (!recording) return;
+        long now = System.currentTimeMillis();
+        writer.execute(() -> write(now, batch));
+    }
+
+    private void open() {
+        if (trace != null) return;
+        if (!traceDir.exists() && !traceDir.mkdirs()) {
+            Log.e(TAG, "Could not create " + traceDir);
+            recording = false;
+            return;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US);
+        traceFile = new File(traceDir, "glimmer-" + format.format(new Date()) + ".gtrace");
+        try {
+            trace = new PacketTrace.Writer(
+                    new BufferedOutputStream(new FileOutputStream(traceFile), 64 * 1024),
+                    System.currentTimeMillis());
+            Log.d(TAG, "Recording packets to " + traceFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start packet capture", e);
+            trace = null;
+            recording = false;
+        }
+    }
+
+    private void write(long timeMillis, String batch) {
+        if (trace == null) return;
+        try {
+            trace.writeBatch(timeMillis, batch);
+            if (trace.getBytes() >= MAX_BYTES) {
+                Log.w(TAG, "Trace reached " + (MAX_BYTES >> 20) + "MB, stopping capture");
+                recording = false;
+                close();
+            } else if (timeMillis - lastFlush >= FLUSH_INTERVAL_MS) {
+                trace.flush();
+                lastFlush = timeMillis;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Packet capture failed, stopping", e);
+            recording = false;
+            close();
+        }
+    }
+
+    private void close() {
+        if (trace == null) return;
+        try {
+            trace.close();
+            Log.d(TAG, "Stopped recording, " + trace.getFrames() + " frames in " + traceFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close " + traceFile, e);
+        }
+        trace = null;
+    }
+
+    public JSObject getStats() {
+        JSObject result = new JSObject();
+        result.put("recording", recording);
+        result.put("directory", traceDir.getAbsolutePath());
+        File[] files = traceDir.listFiles();
+        int count = 0;
+        long bytes = 0;
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".gtrace")) {
+                    count++;
+                    bytes += file.length();
+                }
+            }
+        }
+        result.put("traces", count);
+        result.put("bytes", bytes);
+        return result;
+    }
+}
@@ -0,0 +1,562 @@
+package io.glimmer.client;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decodes socket.io frames handed over from injected-script.js in batches
+// and keeps the player state that used to live in the page. Batches are
+// newline separated; every frame carries a one character direction prefix
+// ('I' inbound, 'O' outbound) in front of the raw "42[...]" text.
+public class PacketPipeline {
+
+    public static final char INBOUND = 'I';
+    public static final char OUTBOUND = 'O';
+
+    public static final int DEFAULT_LOW_HEALTH_PERCENT = 20;
+    public static final int DEFAULT_PROXIMITY_RADIUS = 8;
+    // Entities further from the player than this are taken to be out of
+    // view; the server sends them again when they come back.
+    static final int VIEW_RADIUS = 48;
+    // Public chat: [speaker entity id, line, ...]. The line is only ever
+    // taken from its own slot, never as "the first string", so a payload
+    // carrying the speaker's name as well cannot have the name matched.
+    // PacketReplayTest checks this layout against a capture when given one.
+    static final int CHAT_PACKET = 12;
+    static final int CHAT_SPEAKER = 0;
+    static final int CHAT_LINE = 1;
+
+    public interface Listener {
+        void onLogin(long entityId);
+        void onLowHealth(int currentHealth, int maxHealth);
+        void onPrivateMessage(String from, String message);
+        void onIdleStarted();
+        void onActivity();
+        // Called at most once per batch, after the whole batch was applied.
+        void onPositionChanged(int mapLevel, int x, int y);
+        // Also once per batch; damageTaken sums the hits on the player in it.
+        void onHealthChanged(int currentHealth, int maxHealth, int damageTaken);
+        // Another entity came within the proximity radius of the player.
+        void onEntityApproaching(long entityId, int distance);
+        // A user-defined AlertRules rule fired.
+        void onRuleMatched(String name, String title, String body);
+        // Someone else's public chat line holds one of the ChatKeywords.
+        void onChatKeyword(String keyword, String line);
+    }
+
+    public static class Stats {
+        public long batches;
+        public long frames;
+        public long parseErrors;
+        public int lastBatchSize;
+        public int maxBatchSize;
+        public int queueDepth;
+        public int maxQueueDepth;
+        public long decodeMicros;
+        public int entities;
+    }
+
+    // Numbers found at the top level of a payload array, plus the numbers of
+    // a nested array in slot 1 (the [actionType, actionData] shape). Reused
+    // for every packet so decoding does not allocate.
+    static final class Payload {
+        static final int MAX_SLOTS = 64;
+        static final int MAX_INNER = 8;
+
+        final double[] values = new double[MAX_SLOTS];
+        final boolean[] present = new boolean[MAX_SLOTS];
+        final double[] inner = new double[MAX_INNER];
+        int length;
+        int innerLength;
+        // The chat line, from slot CHAT_LINE; only kept for chat.
+        String text;
+
+        void clear() {
+            Arrays.fill(present, 0, Math.min(length, MAX_SLOTS), false);
+            length = 0;
+            innerLength = 0;
+            text = null;
+        }
+
+        boolean has(int index) {
+            return index < MAX_SLOTS && present[index];
+        }
+
+        int intAt(int index) {
+            return (int) values[index];
+        }
+
+        boolean isEntity(int index, long entityId) {
+            return has(index) && entityId != PlayerState.NO_ENTITY && (long) values[index] == entityId;
+        }
+    }
+
+    private final Executor executor;
+    private final Listener listener;
+    private final PlayerState state = new PlayerState();
+    private final FrameReader reader = new FrameReader();
+    private final Payload payload = new Payload();
+    private final EntityIndex entities = new EntityIndex();
+    private final Metrics metrics = Metrics.get();
+
+    private volatile boolean healthAlertEnabled = true;
+    private volatile boolean idleAlertEnabled = true;
+    private volatile boolean pmAlertEnabled = true;
+    private volatile boolean proximityAlertEnabled = false;
+    private volatile int proximityRadius = DEFAULT_PROXIMITY_RADIUS;
+    private volatile int lowHealthPercent = DEFAULT_LOW_HEALTH_PERCENT;
+    private volatile AlertRules rules = AlertRules.NONE;
+    private volatile ChatKeywords chatKeywords = ChatKeywords.NONE;
+    // Session history wants idle periods and PMs even with their alerts off.
+    private volatile boolean historyEnabled = false;
+    // Set once the AFK alert has fired: the player still counts as idle,
+    // but the next idle packet starts a fresh countdown.
+    private boolean idleRearmed = false;
+
+    private boolean positionDirty = false;
+    private boolean healthDirty = false;
+    private int batchDamage = 0;
+    // Set on login and level changes, when the whole neighbourhood arrives
+    // at once; cleared at the end of the batch.
+    private boolean arrivalsMuted = false;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final Object statsLock = new Object();
+    private final Stats stats = new Stats();
+
+    public PacketPipeline(Executor executor, Listener listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    public void setAlerts(boolean health, boolean idle, boolean pm) {
+        healthAlertEnabled = health;
+        idleAlertEnabled = idle;
+        pmAlertEnabled = pm;
+    }
+
+    public void setLowHealthPercent(int percent) {
+        lowHealthPercent = percent > 0 && percent < 100 ? percent : DEFAULT_LOW_HEALTH_PERCENT;
+    }
+
+    // Swapping in a new set starts its rules afresh: armed, no cooldown.
+    public void setAlertRules(AlertRules rules) {
+        this.rules = rules != null ? rules : AlertRules.NONE;
+    }
+
+    public void setChatKeywords(ChatKeywords keywords) {
+        chatKeywords = keywords != null ? keywords : ChatKeywords.NONE;
+    }
+
+    public void setHistoryEnabled(boolean enabled) {
+        historyEnabled = enabled;
+    }
+
+    public void setProximityAlert(boolean enabled, int radius) {
+        proximityRadius = radius > 0 ? radius : DEFAULT_PROXIMITY_RADIUS;
+        proximityAlertEnabled = enabled;
+    }
+
+    // Called when IdleMonitor fires; runs on the pipeline's executor like
+    // the packets themselves.
+    public void rearmIdle() {
+        executor.execute(() -> idleRearmed = true);
+    }
+
+    // Called from the JavaBridge thread; the actual decoding happens on the
+    // pipeline's own executor so neither the page nor the bridge waits on it.
+    public void submit(String batch) {
+        int depth = queueDepth.incrementAndGet();
+        synchronized (statsLock) {
+            if (depth > stats.maxQueueDepth) stats.maxQueueDepth = depth;
+        }
+        executor.execute(() -> {
+            try {
+                process(batch);
+            } finally {
+                queueDepth.decrementAndGet();
+            }
+        });
+    }
+
+    // Synchronous entry point, used by submit() and by offline replays.
+    public void process(String batch) {
+        long start = System.nanoTime();
+        int frames = 0;
+        int outbound = 0;
+        int errors = 0;
+        int lineStart = 0;
+        int length = batch.length();
+
+        while (lineStart < length) {
+            int lineEnd = batch.indexOf('\n', lineStart);
+            if (lineEnd == -1) lineEnd = length;
+            if (lineEnd - lineStart > 3) {
+                frames++;
+                if (batch.charAt(lineStart) == OUTBOUND) outbound++;
+                if (!processFrame(batch, lineStart, lineEnd)) errors++;
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        if (positionDirty) {
+            positionDirty = false;
+            if (state.hasPosition()) {
+                entities.retainAround(state.mapLevel, state.x, state.y, VIEW_RADIUS, proximityRadius);
+            }
+            listener.onPositionChanged(state.mapLevel, state.x, state.y);
+        }
+        if (healthDirty) {
+            healthDirty = false;
+            if (state.hasHealth()) listener.onHealthChanged(state.currentHealth, state.maxHealth, batchDamage);
+            batchDamage = 0;
+        }
+        arrivalsMuted = false;
+
+        long micros = (System.nanoTime() - start) / 1000;
+        metrics.count(Metrics.BATCHES);
+        metrics.add(Metrics.FRAMES_IN, frames - outbound);
+        metrics.add(Metrics.FRAMES_OUT, outbound);
+        metrics.record(Metrics.DECODE_BATCH, micros);
+        synchronized (statsLock) {
+            stats.batches++;
+            stats.frames += frames;
+            stats.parseErrors += errors;
+            stats.lastBatchSize = frames;
+            if (frames > stats.maxBatchSize) stats.maxBatchSize = frames;
+            stats.decodeMicros += micros;
+            stats.entities = entities.size();
+        }
+    }
+
+    public Stats getStats() {
+        Stats copy = new Stats();
+        synchronized (statsLock) {
+            copy.batches = stats.batches;
+            copy.frames = stats.frames;
+            copy.parseErrors = stats.parseErrors;
+            copy.lastBatchSize = stats.lastBatchSize;
+            copy.maxBatchSize = stats.maxBatchSize;
+            copy.maxQueueDepth = stats.maxQueueDepth;
+            copy.decodeMicros = stats.decodeMicros;
+            copy.entities = stats.entities;
+        }
+        copy.queueDepth = queueDepth.get();
+        return copy;
+    }
+
+    // Only safe to read from the pipeline thread or after the executor drained.
+    PlayerState getState() {
+        return state;
+    }
+
+    EntityIndex getEntities() {
+        return entities;
+    }
+
+    private boolean processFrame(String batch, int start, int end) {
+        char direction = batch.charAt(start);
+        if (!batch.startsWith("42[", start + 1)) return true;
+
+        try {
+            // The frame body after "42" is itself a JSON array.
+            reader.reset(batch, start + 3, end);
+            reader.beginArray();
+            String event = reader.nextString();
+
+            if (direction == OUTBOUND) {
+                if ("1".equals(event)) handleActionWrapper();
+                return true;
+            }
+
+            switch (event) {
+                case "15":
+                    readPayload(15);
+                    processLogin();
+                    break;
+                case "pm":
+                    handlePrivateMessage();
+                    break;
+                case "0":
+                    handleUpdateList();
+                    break;
+                case "1":
+                    handleActionWrapper();
+                    break;
+                default:
+                    int actionId;
+                    try {
+                        actionId = Integer.parseInt(event);
+                    } catch (NumberFormatException e) {
+                        return true;
+                    }
+                    readPayload(actionId);
+                    handlePacket(actionId);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // "0" carries a list of [actionId, payload] updates.
+    private void handleUpdateList() {
+        if (reader.peek() != FrameReader.BEGIN_ARRAY) return;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != FrameReader.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            int actionId = reader.nextInt();
+            readPayload(actionId);
+            while (reader.hasNext()) reader.skipValue();
+            reader.endArray();
+            handlePacket(actionId);
+        }
+        reader.endArray();
+    }
+
+    // "1" carries [actionType, actionData]; the action type is dispatched
+    // as the packet id, the same way the page handled it.
+    private void handleActionWrapper() {
+        if (reader.peek() != FrameReader.BEGIN_ARRAY) return;
+        reader.beginArray();
+        if (reader.peek() != FrameReader.NUMBER && reader.peek() != FrameReader.STRING) return;
+        int actionId = reader.nextInt();
+        if (!reader.hasNext()) return;
+        readPayload(actionId);
+        handlePacket(actionId);
+    }
+
+    // Strings are skipped without being built, except the chat line while
+    // there are keywords to look for.
+    private void readPayload(int actionId) {
+        payload.clear();
+        if (reader.peek() != FrameReader.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        boolean keepText = actionId == CHAT_PACKET && !chatKeywords.isEmpty();
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            int type = reader.peek();
+            if (type == FrameReader.NUMBER && index < Payload.MAX_SLOTS) {
+                payload.values[index] = reader.nextDouble();
+                payload.present[index] = true;
+            } else if (type == FrameReader.STRING && keepText && index == CHAT_LINE) {
+                payload.text = reader.nextString();
+            } else if (type == FrameReader.BEGIN_ARRAY && index == 1) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == FrameReader.NUMBER && payload.innerLength < Payload.MAX_INNER) {
+                        payload.inner[payload.innerLength++] = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+            index++;
+        }
+        reader.endArray();
+        payload.length = index;
+    }
+
+    private void handlePacket(int actionId) {
+        // Only transitions are reported, so an active player costs nothing here.
+        if (state.isIdle && actionId != 13 && payload.isEntity(0, state.entityId)) {
+            state.isIdle = false;
+            listener.onActivity();
+        }
+
+        switch (actionId) {
+            case 1:
+                handleAction();
+                break;
+            case 3:
+                handleChunkEntry();
+                break;
+            case 8:
+                if (payload.isEntity(1, state.entityId) && payload.has(2) && state.currentHealth != PlayerState.UNKNOWN) {
+                    state.currentHealth -= payload.intAt(2);
+                    batchDamage += Math.max(0, payload.intAt(2));
+                    healthDirty = true;
+                    checkHealthAlert();
+                } else if (payload.has(1) && payload.has(2)) {
+                    entities.addHealth((long) payload.values[1], -payload.intAt(2));
+                }
+                break;
+            case 91:
+                if (payload.isEntity(1, state.entityId) && payload.has(2)) {
+                    setHealth(payload.intAt(2));
+                } else if (payload.has(1) && payload.has(2)) {
+                    entities.setHealth((long) payload.values[1], payload.intAt(2));
+                }
+                break;
+            case CHAT_PACKET:
+                if (payload.text != null && !payload.isEntity(CHAT_SPEAKER, state.entityId)) {
+                    String keyword = chatKeywords.match(payload.text);
+                    if (keyword != null) listener.onChatKeyword(keyword, payload.text);
+                }
+                break;
+            default:
+                break;
+        }
+
+        AlertRules current = rules;
+        AlertRules.Rule[] matching = current.forAction(actionId);
+        if (matching != null) current.evaluate(matching, payload, state, listener);
+    }
+
+    private void handleAction() {
+        if (!payload.has(0)) return;
+        int actionType = payload.intAt(0);
+        if (actionType == 10 && payload.innerLength >= 2) {
+            updateLocation(PlayerState.UNKNOWN, (int) payload.inner[0], (int) payload.inner[1]);
+        } else if (actionType == 16 && payload.innerLength >= 1) {
+            if (state.isLoggedIn() && (long) payload.inner[0] == state.entityId
+                    && (idleAlertEnabled || historyEnabled) && (!state.isIdle || idleRearmed)) {
+                state.isIdle = true;
+                idleRearmed = false;
+                listener.onIdleStarted();
+            }
+        }
+    }
+
+    private void handleChunkEntry() {
+        if (!payload.has(0) || !state.isLoggedIn()) return;
+        if (!payload.isEntity(0, state.entityId)) {
+            trackEntity((long) payload.values[0]);
+            return;
+        }
+
+        updateLocation(
+                payload.has(7) ? payload.intAt(7) : PlayerState.UNKNOWN,
+                payload.has(8) ? payload.intAt(8) : PlayerState.UNKNOWN,
+                payload.has(9) ? payload.intAt(9) : PlayerState.UNKNOWN);
+
+        if (payload.has(5) && payload.intAt(5) != state.maxHealth) {
+            state.maxHealth = payload.intAt(5);
+            healthDirty = true;
+        }
+        if (payload.has(6)) {
+            setHealth(payload.intAt(6));
+        }
+    }
+
+    // Packet 3 for anyone else: enter or move. Which of them are players is
+    // not in the part of the payload we decode, so every entity counts.
+    private void trackEntity(long entityId) {
+        entities.put(entityId,
+                payload.has(7) ? payload.intAt(7) : PlayerState.UNKNOWN,
+                payload.has(8) ? payload.intAt(8) : PlayerState.UNKNOWN,
+                payload.has(9) ? payload.intAt(9) : PlayerState.UNKNOWN,
+                payload.has(6) ? payload.intAt(6) : PlayerState.UNKNOWN,
+                payload.has(5) ? payload.intAt(5) : PlayerState.UNKNOWN);
+        if (!proximityAlertEnabled || !state.hasPosition()) return;
+
+        int radius = proximityRadius;
+        if (entities.enteredRadius(entityId, state.mapLevel, state.x, state.y, radius) && !arrivalsMuted) {
+            listener.onEntityApproaching(entityId, entities.distanceTo(entityId, state.x, state.y));
+        }
+    }
+
+    private void processLogin() {
+        if (!payload.has(0)) return;
+        state.entityId = (long) payload.values[0];
+        entities.clear();
+        arrivalsMuted = true;
+        if (state.isIdle) {
+            state.isIdle = false;
+            listener.onActivity();
+        }
+
+        updateLocation(
+                payload.has(4) ? payload.intAt(4) : PlayerState.UNKNOWN,
+                payload.has(5) ? payload.intAt(5) : PlayerState.UNKNOWN,
+                payload.has(6) ? payload.intAt(6) : PlayerState.UNKNOWN);
+
+        int hpLevel = payload.has(48) ? payload.intAt(48) : 0;
+        if (hpLevel <= 0) {
+            // Same fallback the page used: first plausible HP value near slot 48.
+            for (int i = 40; i < 60; i++) {
+                if (payload.has(i) && payload.values[i] >= 10 && payload.values[i] <= 100) {
+                    hpLevel = payload.intAt(i);
+                    break;
+                }
+            }
+        }
+        if (hpLevel > 0) {
+            state.maxHealth = hpLevel;
+            state.currentHealth = hpLevel;
+            healthDirty = true;
+        }
+        state.isLowHealth = false;
+
+        listener.onLogin(state.entityId);
+    }
+
+    private void handlePrivateMessage() {
+        if (reader.peek() != FrameReader.BEGIN_OBJECT) return;
+        String from = null;
+        String message = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("from".equals(name) && reader.peek() == FrameReader.STRING) {
+                from = reader.nextString();
+            } else if ("msg".equals(name) && reader.peek() == FrameReader.STRING) {
+                message = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((pmAlertEnabled || historyEnabled) && from != null && message != null && !from.isEmpty() && !message.isEmpty()) {
+            listener.onPrivateMessage(from, message);
+        }
+    }
+
+    private void updateLocation(int mapLevel, int x, int y) {
+        if (mapLevel != PlayerState.UNKNOWN && mapLevel != state.mapLevel) {
+            state.mapLevel = mapLevel;
+            positionDirty = true;
+            arrivalsMuted = true;
+        }
+        if (x != PlayerState.UNKNOWN && x != state.x) {
+            state.x = x;
+            positionDirty = true;
+        }
+        if (y != PlayerState.UNKNOWN && y != state.y) {
+            state.y = y;
+            positionDirty = true;
+        }
+    }
+
+    private void setHealth(int currentHealth) {
+        if (currentHealth != state.currentHealth) {
+            state.currentHealth = currentHealth;
+            healthDirty = true;
+        }
+        checkHealthAlert();
+    }
+
+    private void checkHealthAlert() {
+        if (!healthAlertEnabled || !state.hasHealth()) return;
+
+        int percentTimesMax = state.currentHealth * 100;
+        boolean below = percentTimesMax < lowHealthPercent * state.maxHealth;
+        if (below && !state.isLowHealth) {
+            state.isLowHealth = true;
+            listener.onLowHealth(state.currentHealth, state.maxHealth);
+        } else if (!below && state.isLowHealth) {
+            state.isLowHealth = false;
+        }
+    }
+}
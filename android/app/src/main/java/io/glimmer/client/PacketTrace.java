@@ -0,0 +1,168 @@
+package io.glimmer.client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Append-only binary trace of socket.io frames, written by PacketCapture and
+// read back by offline replays.
+//
+// Layout: "GLTR", a version byte and the capture start as epoch millis
+// (8 bytes, big endian), then one record per frame:
+//   varint  milliseconds since the previous record (or since start)
+//   byte    direction, PacketPipeline.INBOUND or OUTBOUND
+//   varint  length of the frame in UTF-8 bytes
+//   bytes   the raw "42[...]" frame
+//
+// Records are self-contained, so a trace cut short by a crash is still
+// readable up to its last complete record.
+public final class PacketTrace {
+
+    static final byte[] MAGIC = {'G', 'L', 'T', 'R'};
+    static final int VERSION = 1;
+
+    private PacketTrace() {
+    }
+
+    public static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        private long lastMillis;
+        private long frames = 0;
+        private long bytes;
+
+        public Writer(OutputStream out, long startMillis) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeLong(startMillis);
+            lastMillis = startMillis;
+            bytes = MAGIC.length + 1 + 8;
+        }
+
+        public void write(long timeMillis, char direction, String frame) throws IOException {
+            write(timeMillis, direction, frame, 0, frame.length());
+        }
+
+        public void write(long timeMillis, char direction, String source, int start, int end) throws IOException {
+            byte[] data = source.substring(start, end).getBytes(StandardCharsets.UTF_8);
+            // Clocks can step backwards; never encode a negative delta.
+            long delta = Math.max(0, timeMillis - lastMillis);
+            lastMillis = Math.max(lastMillis, timeMillis);
+            bytes += writeVarint(delta);
+            out.writeByte(direction);
+            bytes += 1 + writeVarint(data.length);
+            out.write(data);
+            bytes += data.length;
+            frames++;
+        }
+
+        // One pushFrames() batch: newline separated, direction prefixed.
+        public void writeBatch(long timeMillis, String batch) throws IOException {
+            int start = 0;
+            int length = batch.length();
+            while (start < length) {
+                int end = batch.indexOf('\n', start);
+                if (end == -1) end = length;
+                if (end - start > 1) {
+                    write(timeMillis, batch.charAt(start), batch, start + 1, end);
+                }
+                start = end + 1;
+            }
+        }
+
+        private int writeVarint(long value) throws IOException {
+            int written = 1;
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+                written++;
+            }
+            out.writeByte((int) value);
+            return written;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        public final long startMillis;
+
+        // Current record, valid after next() returned true.
+        public long timeMillis;
+        public char direction;
+        public String frame;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) throw new IOException("Not a Glimmer packet trace");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported trace version " + version);
+            startMillis = this.in.readLong();
+            timeMillis = startMillis;
+        }
+
+        // False at the end of the trace, including after a truncated record.
+        public boolean next() throws IOException {
+            try {
+                long delta = readVarint();
+                if (delta < 0) return false;
+                direction = (char) in.readUnsignedByte();
+                // Cut off right after the direction byte, or garbage.
+                long length = readVarint();
+                if (length < 0 || length > Integer.MAX_VALUE) throw new EOFException();
+                byte[] data = new byte[(int) length];
+                in.readFully(data);
+                frame = new String(data, StandardCharsets.UTF_8);
+                timeMillis += delta;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int b = in.read();
+                if (b == -1) {
+                    if (shift == 0) return -1;
+                    throw new EOFException();
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+                if (shift > 63) throw new IOException("Malformed varint in trace");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.glimmer.client;
+
+// What Glimmer knows about the logged-in character. Only the packet thread
+// writes it; everyone else gets copies through PacketPipeline.Listener.
+public class PlayerState {
+    public static final long NO_ENTITY = Long.MIN_VALUE;
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    public long entityId = NO_ENTITY;
+    public int currentHealth = UNKNOWN;
+    public int maxHealth = UNKNOWN;
+    public int mapLevel = 1;
+    public int x = UNKNOWN;
+    public int y = UNKNOWN;
+    public boolean isLowHealth = false;
+    public boolean isIdle = false;
+
+    public boolean isLoggedIn() {
+        return entityId != NO_ENTITY;
+    }
+
+    public boolean hasHealth() {
+        return currentHealth != UNKNOWN && maxHealth != UNKNOWN && maxHealth > 0;
+    }
+
+    public boolean hasPosition() {
+        return x != UNKNOWN && y != UNKNOWN;
+    }
+}
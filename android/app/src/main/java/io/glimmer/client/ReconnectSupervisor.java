@@ -0,0 +1,270 @@
+package io.glimmer.client;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Brings the game back after its socket drops. socket.io gets a grace period
+// to reconnect by itself; after that the last game page is reloaded from
+// memory, without another loadGame POST, once the world answers a probe.
+// Attempts back off exponentially with jitter, and the whole episode shows
+// as one notification that is updated in place. Every game session has its
+// own supervisor and notification.
+public class ReconnectSupervisor {
+
+    public static final String TAG = "GlimmerReconnect";
+
+    // Long enough for socket.io's own reconnect to have a go first.
+    private static final long SOCKETIO_GRACE_MS = 8 * 1000L;
+    private static final long BASE_DELAY_MS = 2 * 1000L;
+    private static final long MAX_DELAY_MS = 60 * 1000L;
+    private static final int MAX_ATTEMPTS = 8;
+    // After a reload the player may still have to log in before the socket
+    // opens again; stop counting it as a reconnect after this.
+    private static final long RELOAD_SETTLE_MS = 30 * 1000L;
+    private static final int PROBE_TIMEOUT_MS = 3000;
+    // One id per session, counting up; stays below AlertScheduler's ids.
+    private static final int FIRST_NOTIFICATION_ID = 90;
+    private static final String CHANNEL_ID = "GlimmerBackgroundService";
+    // Normal closure: the game ended the session on purpose, e.g. logout.
+    private static final int CLOSE_NORMAL = 1000;
+
+    public interface Reloader {
+        // Loads the last game page again; false if there is none.
+        boolean reloadLastGame();
+    }
+
+    private static final Map<String, ReconnectSupervisor> instances = new HashMap<>();
+    // Probes are rare and short; all sessions share one thread.
+    private static final ExecutorService prober = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "GlimmerReconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Context context;
+    private final String label;
+    private final int notificationId;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final NotificationManager notificationManager;
+    private final WakeLockManager wakeLockManager;
+    private final Metrics metrics = Metrics.get();
+    private final Random random = new Random();
+    private final ServerProbe serverProbe = new ServerProbe(prober);
+
+    // All state below is only touched on the main thread.
+    private Reloader reloader;
+    private String serverUrl;
+    private int openSockets = 0;
+    private boolean connected = false;
+    private boolean recovering = false;
+    private long droppedAt = -1;
+    private int attempt = 0;
+    private NotificationCompat.Builder notification;
+
+    private final Runnable nextAttempt = this::attemptReconnect;
+    private final Runnable settleReload = this::onReloadSettled;
+
+    public static ReconnectSupervisor getInstance(Context context) {
+        return getInstance(context, null, null);
+    }
+
+    // label is shown in the notification of non-primary sessions.
+    public static synchronized ReconnectSupervisor getInstance(Context context, String sessionTag, String label) {
+        ReconnectSupervisor supervisor = instances.get(sessionTag);
+        if (supervisor == null) {
+            supervisor = new ReconnectSupervisor(context.getApplicationContext(), label,
+                    FIRST_NOTIFICATION_ID + instances.size());
+            instances.put(sessionTag, supervisor);
+        }
+        return supervisor;
+    }
+
+    private ReconnectSupervisor(Context context, String label, int notificationId) {
+        this.context = context;
+        this.label = label;
+        this.notificationId = notificationId;
+        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        wakeLockManager = WakeLockManager.getInstance(context);
+    }
+
+    public void setReloader(Reloader reloader) {
+        handler.post(() -> this.reloader = reloader);
+    }
+
+    // A fresh load from the launcher ends any recovery in progress.
+    public void onGameRequested(String serverUrl) {
+        handler.post(() -> {
+            this.serverUrl = serverUrl;
+            openSockets = 0;
+            connected = false;
+            stopRecovery();
+        });
+    }
+
+    // The page is gone with its renderer, and its sockets never reported
+    // their close. SessionHost rebuilds the page; counting starts over.
+    public void onPageLost() {
+        handler.post(() -> {
+            openSockets = 0;
+            connected = false;
+            stopRecovery();
+        });
+    }
+
+    // WebSocket events from injected-script.js, via the JavaBridge thread.
+    public void onSocketOpened() {
+        handler.post(() -> {
+            openSockets++;
+            connected = true;
+            if (!recovering) return;
+            long tookMs = SystemClock.elapsedRealtime() - droppedAt;
+            metrics.count(Metrics.RECONNECTS);
+            metrics.add(Metrics.RECONNECT_MILLIS, tookMs);
+            metrics.setGauge(Metrics.LAST_RECONNECT_MS, tookMs);
+            Log.i(TAG, prefix() + "Reconnected after " + tookMs + "ms and " + attempt + " reload(s)");
+            stopRecovery();
+        });
+    }
+
+    public void onSocketClosed(int code) {
+        handler.post(() -> {
+            if (openSockets > 0) openSockets--;
+            if (openSockets > 0 || !connected || recovering) return;
+            connected = false;
+            if (code == CLOSE_NORMAL) {
+                Log.d(TAG, "Socket closed normally, not reconnecting");
+                return;
+            }
+            metrics.count(Metrics.SOCKET_DROPS);
+            Log.i(TAG, prefix() + "Game socket dropped (" + code + "), giving socket.io "
+                    + SOCKETIO_GRACE_MS + "ms before stepping in");
+            recovering = true;
+            droppedAt = SystemClock.elapsedRealtime();
+            attempt = 0;
+            wakeLockManager.setReconnecting(true);
+            handler.postDelayed(nextAttempt, SOCKETIO_GRACE_MS);
+        });
+    }
+
+    private void attemptReconnect() {
+        if (!recovering) return;
+        if (attempt >= MAX_ATTEMPTS) {
+            Log.w(TAG, prefix() + "Giving up after " + attempt + " reloads");
+            showNotification("Disconnected from HighSpell", "Tap to open Glimmer and reconnect.", false);
+            recovering = false;
+            wakeLockManager.setReconnecting(false);
+            return;
+        }
+        attempt++;
+        showNotification("Reconnecting to HighSpell…", "Attempt " + attempt + " of " + MAX_ATTEMPTS, true);
+
+        if (!isOnline() || serverUrl == null) {
+            Log.d(TAG, "No network yet, attempt " + attempt + " skipped");
+            scheduleNext();
+            return;
+        }
+        String url = serverUrl;
+        prober.execute(() -> {
+            // Probed right here: probeAll would hand the probe to this same
+            // thread and then wait for it.
+            boolean reachable = serverProbe.probe(new ServerProbe.Server("game", url), 1, PROBE_TIMEOUT_MS)
+                    .isReachable();
+            handler.post(() -> onProbed(reachable));
+        });
+    }
+
+    private void onProbed(boolean reachable) {
+        if (!recovering) return;
+        if (!reachable) {
+            Log.d(TAG, "World not reachable yet, attempt " + attempt + " skipped");
+            scheduleNext();
+            return;
+        }
+        if (reloader == null || !reloader.reloadLastGame()) {
+            Log.w(TAG, prefix() + "No game page to reload");
+            stopRecovery();
+            return;
+        }
+        metrics.count(Metrics.RECONNECT_ATTEMPTS);
+        Log.i(TAG, prefix() + "Reloaded the game page, attempt " + attempt);
+        handler.postDelayed(settleReload, RELOAD_SETTLE_MS);
+    }
+
+    // The page is back but the socket is not: most likely the login screen.
+    private void onReloadSettled() {
+        if (!recovering) return;
+        Log.i(TAG, prefix() + "Game page reloaded; waiting for the player to log back in");
+        showNotification("HighSpell reloaded", "Tap to log back in.", false);
+        recovering = false;
+        wakeLockManager.setReconnecting(false);
+    }
+
+    // Exponential backoff with equal jitter: half the delay is fixed, the
+    // other half random, so clients dropped together do not retry together.
+    private void scheduleNext() {
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt - 1, 16));
+        delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+        handler.postDelayed(nextAttempt, delay);
+    }
+
+    private void stopRecovery() {
+        handler.removeCallbacks(nextAttempt);
+        handler.removeCallbacks(settleReload);
+        if (recovering) wakeLockManager.setReconnecting(false);
+        recovering = false;
+        notificationManager.cancel(notificationId);
+        notification = null;
+    }
+
+    private String prefix() {
+        return label == null ? "" : label + ": ";
+    }
+
+    private boolean isOnline() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) return true;
+        NetworkInfo info = connectivity.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    private void showNotification(String title, String text, boolean ongoing) {
+        if (notification == null) {
+            Intent intent = new Intent(context, MainActivity.class);
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    ? PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT
+                    : PendingIntent.FLAG_UPDATE_CURRENT;
+            notification = new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_stat_glimmer)
+                    .setContentIntent(PendingIntent.getActivity(context, 3000, intent, flags))
+                    .setOnlyAlertOnce(true)
+                    .setPriority(NotificationCompat.PRIORITY_LOW);
+        }
+        notification.setContentTitle(label == null ? title : "[" + label + "] " + title)
+                .setContentText(text)
+                .setOngoing(ongoing)
+                .setAutoCancel(!ongoing);
+        try {
+            notificationManager.notify(notificationId, notification.build());
+        } catch (SecurityException e) {
+            Log.d(TAG, "Notification permission not granted");
+        }
+    }
+}
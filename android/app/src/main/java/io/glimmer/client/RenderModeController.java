@@ -0,0 +1,115 @@
+package io.glimmer.client;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebView;
+
+import com.getcapacitor.JSObject;
+
+// Switches the game WebView between full rendering and a low-power mode
+// for while the activity is in the background. Background mode stops
+// animations and compositing, drops the renderer's priority and asks the
+// page to unload its map overlay. JavaScript timers keep running, so the
+// game socket stays connected.
+public class RenderModeController {
+
+    public static final String TAG = "GlimmerRenderMode";
+
+    private final WebView webView;
+    private boolean background = false;
+
+    // CPU time of this process (not the sandboxed renderer) per mode.
+    private final ModeStats foregroundStats = new ModeStats();
+    private final ModeStats backgroundStats = new ModeStats();
+    private long modeStartedWall = SystemClock.elapsedRealtime();
+    private long modeStartedCpu = Process.getElapsedCpuTime();
+
+    private static class ModeStats {
+        long wallMs = 0;
+        long cpuMs = 0;
+        int entries = 0;
+
+        static double perMinute(long cpu, long wall) {
+            return wall > 0 ? cpu * 60000.0 / wall : 0;
+        }
+
+        JSObject toJSObject(long extraWall, long extraCpu) {
+            long wall = wallMs + extraWall;
+            long cpu = cpuMs + extraCpu;
+            JSObject json = new JSObject();
+            json.put("wallMs", wall);
+            json.put("cpuMs", cpu);
+            json.put("entries", entries);
+            json.put("cpuMsPerMinute", perMinute(cpu, wall));
+            return json;
+        }
+    }
+
+    public RenderModeController(WebView webView) {
+        this.webView = webView;
+        foregroundStats.entries = 1;
+    }
+
+    public synchronized void enterBackground() {
+        if (background) return;
+        closeCurrentMode();
+        background = true;
+        backgroundStats.entries++;
+
+        // Let the page drop its overlays before the view stops drawing.
+        webView.evaluateJavascript("window.Glimmer && Glimmer.setBackgroundMode(true)", null);
+        webView.onPause();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // BOUND rather than WAIVED: the renderer holds the JS context and
+            // the socket, so it should live exactly as long as the service.
+            webView.setRendererPriorityPolicy(WebView.RENDERER_PRIORITY_BOUND, true);
+        }
+        Log.d(TAG, "Entered background render mode");
+    }
+
+    public synchronized void enterForeground() {
+        if (!background) return;
+        closeCurrentMode();
+        background = false;
+        foregroundStats.entries++;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            webView.setRendererPriorityPolicy(WebView.RENDERER_PRIORITY_IMPORTANT, false);
+        }
+        webView.onResume();
+        webView.evaluateJavascript("window.Glimmer && Glimmer.setBackgroundMode(false)", null);
+        Log.d(TAG, "Restored full rendering. " + describeStats());
+    }
+
+    public synchronized boolean isBackground() {
+        return background;
+    }
+
+    private void closeCurrentMode() {
+        long nowWall = SystemClock.elapsedRealtime();
+        long nowCpu = Process.getElapsedCpuTime();
+        ModeStats stats = background ? backgroundStats : foregroundStats;
+        stats.wallMs += nowWall - modeStartedWall;
+        stats.cpuMs += nowCpu - modeStartedCpu;
+        modeStartedWall = nowWall;
+        modeStartedCpu = nowCpu;
+    }
+
+    public synchronized JSObject getStats() {
+        long extraWall = SystemClock.elapsedRealtime() - modeStartedWall;
+        long extraCpu = Process.getElapsedCpuTime() - modeStartedCpu;
+        JSObject result = new JSObject();
+        result.put("mode", background ? "background" : "foreground");
+        result.put("foreground", foregroundStats.toJSObject(background ? 0 : extraWall, background ? 0 : extraCpu));
+        result.put("background", backgroundStats.toJSObject(background ? extraWall : 0, background ? extraCpu : 0));
+        return result;
+    }
+
+    // Only called right after a mode switch, so the totals are settled.
+    private String describeStats() {
+        return "cpu ms/min foreground=" + Math.round(ModeStats.perMinute(foregroundStats.cpuMs, foregroundStats.wallMs))
+                + " background=" + Math.round(ModeStats.perMinute(backgroundStats.cpuMs, backgroundStats.wallMs));
+    }
+}
@@ -0,0 +1,223 @@
+package io.glimmer.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Measures how far each game world is from here. Every server is probed on
+// its own thread, and each probe opens a fresh connection so the TCP and TLS
+// handshakes are part of what gets measured, followed by one small HTTP
+// request on that connection.
+public class ServerProbe {
+
+    public static final int DEFAULT_PROBES = 5;
+    public static final int MAX_PROBES = 10;
+    public static final int DEFAULT_TIMEOUT_MS = 2000;
+    private static final int MAX_FAILURES_IN_A_ROW = 2;
+
+    private final ExecutorService executor;
+    private final SSLSocketFactory sslFactory;
+
+    public static class Server {
+        public final String id;
+        public final String url;
+
+        public Server(String id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+    }
+
+    public static class Result {
+        public final String id;
+        public final String url;
+        public int successes;
+        public int failures;
+        // Medians over successful probes, -1 when there were none. tlsMs
+        // stays -1 for plain http servers.
+        public long connectMs = -1;
+        public long tlsMs = -1;
+        public long rttMs = -1;
+        // Mean difference between consecutive round trips.
+        public long jitterMs = -1;
+        public String error;
+
+        Result(Server server) {
+            this.id = server.id;
+            this.url = server.url;
+        }
+
+        public boolean isReachable() {
+            return successes > 0;
+        }
+    }
+
+    public ServerProbe(ExecutorService executor) {
+        this(executor, (SSLSocketFactory) SSLSocketFactory.getDefault());
+    }
+
+    ServerProbe(ExecutorService executor, SSLSocketFactory sslFactory) {
+        this.executor = executor;
+        this.sslFactory = sslFactory;
+    }
+
+    // Blocks until every server has finished its probes. Servers run side by
+    // side; connecting, the TLS handshake and the response are each bounded
+    // by timeoutMs.
+    public List<Result> probeAll(List<Server> servers, int probes, int timeoutMs) throws InterruptedException {
+        int count = Math.max(1, Math.min(probes, MAX_PROBES));
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Server server : servers) {
+            Callable<Result> task = () -> probe(server, count, timeoutMs);
+            futures.add(executor.submit(task));
+        }
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < servers.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Result failed = new Result(servers.get(i));
+                failed.failures = count;
+                failed.error = String.valueOf(e.getCause());
+                results.add(failed);
+            } catch (InterruptedException e) {
+                for (Future<Result> future : futures) future.cancel(true);
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    // The reachable server with the lowest median round trip, or null.
+    public static Result best(List<Result> results) {
+        Result best = null;
+        for (Result result : results) {
+            if (!result.isReachable()) continue;
+            if (best == null || result.rttMs < best.rttMs
+                    || (result.rttMs == best.rttMs && result.jitterMs < best.jitterMs)) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    Result probe(Server server, int probes, int timeoutMs) {
+        Result result = new Result(server);
+        URI uri;
+        try {
+            uri = new URI(server.url);
+        } catch (URISyntaxException e) {
+            result.failures = probes;
+            result.error = "Bad server URL";
+            return result;
+        }
+        boolean tls = "https".equalsIgnoreCase(uri.getScheme());
+        String host = uri.getHost();
+        int port = uri.getPort() != -1 ? uri.getPort() : tls ? 443 : 80;
+
+        long[] connect = new long[probes];
+        long[] handshake = new long[probes];
+        long[] rtt = new long[probes];
+        InetAddress address = null;
+        int failedInARow = 0;
+        for (int i = 0; i < probes && !Thread.currentThread().isInterrupted(); i++) {
+            // A world that failed twice running is down; waiting out its
+            // timeouts would only hold up the launcher.
+            if (failedInARow == MAX_FAILURES_IN_A_ROW) break;
+            try {
+                // DNS is resolved once; it says nothing about the world itself.
+                if (address == null) address = InetAddress.getByName(host);
+                long[] sample = probeOnce(address, host, port, tls, timeoutMs);
+                connect[result.successes] = sample[0];
+                handshake[result.successes] = sample[1];
+                rtt[result.successes] = sample[2];
+                result.successes++;
+                failedInARow = 0;
+            } catch (IOException e) {
+                result.failures++;
+                failedInARow++;
+                result.error = e instanceof SocketTimeoutException ? "Timed out" : e.getMessage();
+            }
+        }
+
+        int n = result.successes;
+        if (n > 0) {
+            result.connectMs = median(connect, n);
+            result.tlsMs = tls ? median(handshake, n) : -1;
+            result.rttMs = median(rtt, n);
+            result.jitterMs = jitter(rtt, n);
+        }
+        return result;
+    }
+
+    // Returns {connect, tls, round trip} in milliseconds.
+    private long[] probeOnce(InetAddress address, String host, int port, boolean tls, int timeoutMs) throws IOException {
+        long[] sample = {0, -1, 0};
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMs);
+            long start = System.nanoTime();
+            socket.connect(new InetSocketAddress(address, port), timeoutMs);
+            sample[0] = elapsedMs(start);
+
+            Socket channel = socket;
+            if (tls) {
+                SSLSocket ssl = (SSLSocket) sslFactory.createSocket(socket, host, port, true);
+                start = System.nanoTime();
+                ssl.startHandshake();
+                sample[1] = elapsedMs(start);
+                channel = ssl;
+            }
+
+            byte[] request = ("HEAD / HTTP/1.1\r\nHost: " + host + "\r\nUser-Agent: Glimmer-Probe\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            OutputStream out = channel.getOutputStream();
+            InputStream in = channel.getInputStream();
+            start = System.nanoTime();
+            out.write(request);
+            out.flush();
+            // Any status line will do; only the first byte back is timed.
+            if (in.read() == -1) throw new IOException("Connection closed without a response");
+            sample[2] = elapsedMs(start);
+            channel.close();
+        } finally {
+            socket.close();
+        }
+        return sample;
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos + 500_000) / 1_000_000;
+    }
+
+    static long median(long[] values, int count) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2;
+    }
+
+    static long jitter(long[] values, int count) {
+        if (count < 2) return 0;
+        long total = 0;
+        for (int i = 1; i < count; i++) total += Math.abs(values[i] - values[i - 1]);
+        return total / (count - 1);
+    }
+}
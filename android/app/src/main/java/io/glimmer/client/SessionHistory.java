@@ -0,0 +1,558 @@
+package io.glimmer.client;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps what Glimmer saw during each game session in SQLite: the HP
+// timeline, positions, PMs and idle periods, plus one summary row per
+// session for the launcher. Callers only append to an in-memory queue; a
+// single writer thread commits everything queued so far in one transaction
+// every few seconds, so the packet thread never waits on the disk.
+//
+// The summary row is rewritten with each commit, so the launcher reads one
+// short row per session instead of scanning events, and a session cut off
+// by a crash still has a summary up to its last commit.
+//
+// Each game session in multi-session mode records through its own Recorder
+// and keeps its own current session row.
+public class SessionHistory {
+
+    public static final String TAG = "GlimmerHistory";
+    private static final String DB_NAME = "glimmer-history.db";
+    private static final int DB_VERSION = 1;
+
+    public static final int DEFAULT_RETENTION_DAYS = 180;
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int MAX_SESSIONS = 5000;
+
+    private static final long FLUSH_INTERVAL_MS = 10 * 1000L;
+    // Enough for a busy fight between two timed flushes.
+    private static final int FLUSH_THRESHOLD = 512;
+    // Positions come once per batch while walking; one a second is plenty
+    // for a trail.
+    private static final long POSITION_INTERVAL_MS = 1000;
+    // A login by the same character this soon after the last event is a
+    // reconnect, and continues the session.
+    private static final long RESUME_WINDOW_MS = 5 * 60 * 1000L;
+    // Sessions older than this keep one position per minute.
+    private static final long COMPACT_AFTER_MS = 7 * DAY_MS;
+    private static final long COMPACT_POSITION_MS = 60 * 1000L;
+    private static final long MAINTENANCE_INTERVAL_MS = 6 * 60 * 60 * 1000L;
+
+    static final int EVENT_START = 0;
+    static final int EVENT_HEALTH = 1;
+    static final int EVENT_POSITION = 2;
+    static final int EVENT_PM = 3;
+    static final int EVENT_IDLE_START = 4;
+    static final int EVENT_IDLE_END = 5;
+    static final int EVENT_END = 6;
+
+    // One queued record. START carries the entity id in a and the server in
+    // text; HEALTH is current, max, damage; POSITION is level, x, y; PM is
+    // sender and message. slot is the game session's tag.
+    static final class Event {
+        final String slot;
+        final long at;
+        final int type;
+        final long a;
+        final int b;
+        final int c;
+        final String text;
+        final String detail;
+
+        Event(long at, int type, long a, int b, int c, String text, String detail) {
+            this(null, at, type, a, b, c, text, detail);
+        }
+
+        Event(String slot, long at, int type, long a, int b, int c, String text, String detail) {
+            this.slot = slot;
+            this.at = at;
+            this.type = type;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.text = text;
+            this.detail = detail;
+        }
+    }
+
+    private static SessionHistory instance;
+
+    private final Context context;
+    private final String dbName;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "GlimmerHistory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private ArrayList<Event> pending = new ArrayList<>();
+    private boolean flushQueued = false;
+    private final Map<String, Recorder> recorders = new HashMap<>();
+
+    private volatile int retentionDays = DEFAULT_RETENTION_DAYS;
+
+    // Only touched on the writer thread.
+    private Helper helper;
+    private SQLiteDatabase db;
+    private SQLiteStatement insertEvent;
+    private final Map<String, Slot> slots = new HashMap<>();
+    private long eventsWritten = 0;
+    private long commits = 0;
+
+    // The session row one game session is currently writing to.
+    private static final class Slot {
+        long sessionId = -1;
+        long sessionEntity;
+        long lastAt;
+        long idleMs;
+        long idleSince = -1;
+        long damageTaken;
+        int pms;
+        int events;
+    }
+
+    // What a game session records through; runs on its packet thread and
+    // the JavaBridge thread.
+    public final class Recorder {
+        private final String slot;
+        private volatile String server;
+        // Guarded by lock.
+        private long lastPositionAt = 0;
+        private int lastPositionLevel = PlayerState.UNKNOWN;
+
+        private Recorder(String slot) {
+            this.slot = slot;
+        }
+
+        // The world the next session is played on, from the launcher.
+        public void setServer(String serverId) {
+            server = serverId;
+        }
+
+        public void startSession(long entityId) {
+            append(new Event(slot, System.currentTimeMillis(), EVENT_START, entityId, 0, 0, server, null));
+        }
+
+        public void endSession() {
+            append(new Event(slot, System.currentTimeMillis(), EVENT_END, 0, 0, 0, null, null));
+            requestFlush();
+        }
+
+        public void recordHealth(int currentHealth, int maxHealth, int damageTaken) {
+            append(new Event(slot, System.currentTimeMillis(), EVENT_HEALTH, currentHealth, maxHealth, damageTaken,
+                    null, null));
+        }
+
+        public void recordPosition(int mapLevel, int x, int y) {
+            if (!isEnabled()) return;
+            long now = System.currentTimeMillis();
+            synchronized (lock) {
+                if (mapLevel == lastPositionLevel && now - lastPositionAt < POSITION_INTERVAL_MS) return;
+                lastPositionAt = now;
+                lastPositionLevel = mapLevel;
+            }
+            append(new Event(slot, now, EVENT_POSITION, mapLevel, x, y, null, null));
+        }
+
+        public void recordPrivateMessage(String from, String message) {
+            append(new Event(slot, System.currentTimeMillis(), EVENT_PM, 0, 0, 0, from, message));
+        }
+
+        public void recordIdle(boolean idle) {
+            append(new Event(slot, System.currentTimeMillis(), idle ? EVENT_IDLE_START : EVENT_IDLE_END,
+                    0, 0, 0, null, null));
+        }
+    }
+
+    public static synchronized SessionHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new SessionHistory(context.getApplicationContext(), DB_NAME);
+        }
+        return instance;
+    }
+
+    SessionHistory(Context context, String dbName) {
+        this.context = context;
+        this.dbName = dbName;
+        writer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(() -> runMaintenance(System.currentTimeMillis()),
+                0, MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // 0 stops recording; what is already stored stays until it expires.
+    public void setRetentionDays(int days) {
+        retentionDays = Math.max(0, days);
+    }
+
+    public boolean isEnabled() {
+        return retentionDays > 0;
+    }
+
+    // sessionTag is null for the primary game session.
+    public Recorder recorder(String sessionTag) {
+        synchronized (lock) {
+            Recorder recorder = recorders.get(sessionTag);
+            if (recorder == null) {
+                recorder = new Recorder(sessionTag);
+                recorders.put(sessionTag, recorder);
+            }
+            return recorder;
+        }
+    }
+
+    void append(Event event) {
+        if (!isEnabled() && event.type != EVENT_END) return;
+        boolean full;
+        synchronized (lock) {
+            pending.add(event);
+            full = pending.size() >= FLUSH_THRESHOLD;
+        }
+        if (full) requestFlush();
+    }
+
+    // Commits what is queued without waiting for the next timed flush.
+    public void requestFlush() {
+        synchronized (lock) {
+            if (flushQueued) return;
+            flushQueued = true;
+        }
+        writer.execute(this::flush);
+    }
+
+    // Resolves the call with the newest sessions before beforeId (or the
+    // newest overall when it is 0) and totals over everything kept. Runs
+    // behind a flush, so the current session is up to date.
+    public void loadSummaries(int limit, long beforeId, PluginCall call) {
+        writer.execute(() -> {
+            flush();
+            try {
+                call.resolve(querySummaries(limit, beforeId));
+            } catch (SQLException e) {
+                Log.e(TAG, "Could not read session history", e);
+                call.reject("Could not read session history.");
+            }
+        });
+    }
+
+    // Runs a task on the writer thread and waits for it. Only for tests.
+    <T> T onWriter(Callable<T> task) throws InterruptedException, ExecutionException {
+        return writer.submit(task).get();
+    }
+
+    private SQLiteDatabase open() {
+        if (db != null) return db;
+        try {
+            helper = new Helper(context, dbName);
+            db = helper.getWritableDatabase();
+            insertEvent = db.compileStatement(
+                    "INSERT INTO events (session_id, at, type, a, b, c, text, detail) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        } catch (SQLException e) {
+            Log.e(TAG, "Could not open session history", e);
+            db = null;
+        }
+        return db;
+    }
+
+    void flush() {
+        List<Event> batch;
+        synchronized (lock) {
+            flushQueued = false;
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new ArrayList<>(Math.max(16, batch.size()));
+        }
+        SQLiteDatabase db = open();
+        if (db == null) return;
+
+        db.beginTransaction();
+        try {
+            for (Event event : batch) apply(db, event);
+            for (Slot slot : slots.values()) {
+                if (slot.sessionId >= 0) writeSummary(db, slot);
+            }
+            db.setTransactionSuccessful();
+            commits++;
+        } catch (SQLException e) {
+            Log.e(TAG, "Dropped " + batch.size() + " history events", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void apply(SQLiteDatabase db, Event event) {
+        Slot slot = slots.get(event.slot);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(event.slot, slot);
+        }
+        switch (event.type) {
+            case EVENT_START:
+                if (slot.sessionId >= 0
+                        && (event.a != slot.sessionEntity || event.at - slot.lastAt > RESUME_WINDOW_MS)) {
+                    closeSession(db, slot);
+                }
+                if (slot.sessionId < 0) openSession(db, slot, event);
+                return;
+            case EVENT_END:
+                if (slot.sessionId >= 0) closeSession(db, slot);
+                return;
+            default:
+                break;
+        }
+        if (slot.sessionId < 0) return;
+
+        insertEvent.bindLong(1, slot.sessionId);
+        insertEvent.bindLong(2, event.at);
+        insertEvent.bindLong(3, event.type);
+        insertEvent.bindLong(4, event.a);
+        insertEvent.bindLong(5, event.b);
+        insertEvent.bindLong(6, event.c);
+        bindText(insertEvent, 7, event.text);
+        bindText(insertEvent, 8, event.detail);
+        insertEvent.executeInsert();
+        eventsWritten++;
+        slot.events++;
+        slot.lastAt = Math.max(slot.lastAt, event.at);
+
+        switch (event.type) {
+            case EVENT_HEALTH:
+                slot.damageTaken += event.c;
+                break;
+            case EVENT_PM:
+                slot.pms++;
+                break;
+            case EVENT_IDLE_START:
+                if (slot.idleSince < 0) slot.idleSince = event.at;
+                break;
+            case EVENT_IDLE_END:
+                if (slot.idleSince >= 0) {
+                    slot.idleMs += Math.max(0, event.at - slot.idleSince);
+                    slot.idleSince = -1;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void openSession(SQLiteDatabase db, Slot slot, Event start) {
+        ContentValues row = new ContentValues();
+        row.put("started_at", start.at);
+        row.put("ended_at", start.at);
+        row.put("server", start.text);
+        row.put("entity_id", start.a);
+        slot.sessionId = db.insertOrThrow("sessions", null, row);
+        slot.sessionEntity = start.a;
+        slot.lastAt = start.at;
+        slot.idleMs = 0;
+        slot.idleSince = -1;
+        slot.damageTaken = 0;
+        slot.pms = 0;
+        slot.events = 0;
+    }
+
+    // An idle period still open at the end runs to the last event.
+    private static void closeSession(SQLiteDatabase db, Slot slot) {
+        if (slot.idleSince >= 0) {
+            slot.idleMs += Math.max(0, slot.lastAt - slot.idleSince);
+            slot.idleSince = -1;
+        }
+        writeSummary(db, slot);
+        slot.sessionId = -1;
+    }
+
+    private static void writeSummary(SQLiteDatabase db, Slot slot) {
+        long idle = slot.idleMs + (slot.idleSince >= 0 ? Math.max(0, slot.lastAt - slot.idleSince) : 0);
+        db.execSQL("UPDATE sessions SET ended_at = ?, idle_ms = ?, damage_taken = ?, pms = ?, events = ? WHERE id = ?",
+                new Object[]{slot.lastAt, idle, slot.damageTaken, slot.pms, slot.events, slot.sessionId});
+    }
+
+    private boolean isActive(long id) {
+        for (Slot slot : slots.values()) {
+            if (slot.sessionId == id) return true;
+        }
+        return false;
+    }
+
+    // Drops sessions past the retention limit and thins the positions of
+    // old ones, then hands the freed pages back to the file system.
+    void runMaintenance(long now) {
+        flush();
+        SQLiteDatabase db = open();
+        if (db == null) return;
+        // With recording off, what is left still expires on the default.
+        int days = retentionDays > 0 ? retentionDays : DEFAULT_RETENTION_DAYS;
+        long deleted = 0;
+
+        db.beginTransaction();
+        try {
+            // Ids follow start order, so both limits become one id cut-off.
+            long firstKept = Math.max(
+                    longQuery(db, "SELECT MIN(id) FROM sessions WHERE started_at >= ?",
+                            String.valueOf(now - days * DAY_MS), Long.MAX_VALUE),
+                    longQuery(db, "SELECT id FROM sessions ORDER BY id DESC LIMIT 1 OFFSET " + (MAX_SESSIONS - 1),
+                            null, 0));
+            StringBuilder active = new StringBuilder("-1");
+            for (Slot slot : slots.values()) {
+                if (slot.sessionId < 0) continue;
+                firstKept = Math.min(firstKept, slot.sessionId);
+                active.append(',').append(slot.sessionId);
+            }
+            String[] args = {String.valueOf(firstKept)};
+            deleted += db.delete("events", "session_id < ?", args);
+            deleted += db.delete("sessions", "id < ?", args);
+
+            String compactBefore = String.valueOf(now - COMPACT_AFTER_MS);
+            String due = "SELECT id FROM sessions WHERE compacted = 0 AND ended_at < ? AND id NOT IN (" + active + ")";
+            deleted += db.delete("events", "type = " + EVENT_POSITION + " AND session_id IN (" + due + ")"
+                            + " AND rowid NOT IN (SELECT MIN(rowid) FROM events WHERE type = " + EVENT_POSITION
+                            + " AND session_id IN (" + due + ") GROUP BY session_id, at / " + COMPACT_POSITION_MS + ")",
+                    new String[]{compactBefore, compactBefore});
+            db.execSQL("UPDATE sessions SET compacted = 1 WHERE compacted = 0 AND ended_at < ? AND id NOT IN ("
+                    + active + ")", new Object[]{now - COMPACT_AFTER_MS});
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(TAG, "Session history maintenance failed", e);
+            deleted = 0;
+        } finally {
+            db.endTransaction();
+        }
+
+        if (deleted > 0) {
+            // auto_vacuum is incremental, so this only moves free pages.
+            db.execSQL("PRAGMA incremental_vacuum");
+            Log.d(TAG, "Maintenance removed " + deleted + " rows");
+        }
+    }
+
+    private static long longQuery(SQLiteDatabase db, String sql, String arg, long fallback) {
+        try (Cursor cursor = db.rawQuery(sql, arg == null ? null : new String[]{arg})) {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) return fallback;
+            return cursor.getLong(0);
+        }
+    }
+
+    JSObject querySummaries(int limit, long beforeId) {
+        JSObject result = new JSObject();
+        JSArray sessions = new JSArray();
+        SQLiteDatabase db = open();
+        if (db != null) {
+            // The primary key is in start order, so this is an index walk no
+            // matter how much history there is.
+            try (Cursor cursor = db.rawQuery(
+                    "SELECT id, started_at, ended_at, server, idle_ms, damage_taken, pms, events FROM sessions"
+                            + " WHERE id < ? ORDER BY id DESC LIMIT ?",
+                    new String[]{String.valueOf(beforeId > 0 ? beforeId : Long.MAX_VALUE),
+                            String.valueOf(Math.max(1, limit))})) {
+                while (cursor.moveToNext()) {
+                    JSObject session = new JSObject();
+                    session.put("id", cursor.getLong(0));
+                    session.put("startedAt", cursor.getLong(1));
+                    session.put("endedAt", cursor.getLong(2));
+                    session.put("server", cursor.isNull(3) ? null : cursor.getString(3));
+                    session.put("idleMs", cursor.getLong(4));
+                    session.put("damageTaken", cursor.getLong(5));
+                    session.put("pms", cursor.getInt(6));
+                    session.put("events", cursor.getInt(7));
+                    session.put("active", isActive(cursor.getLong(0)));
+                    sessions.put(session);
+                }
+            }
+            try (Cursor cursor = db.rawQuery("SELECT COUNT(*), SUM(ended_at - started_at), SUM(idle_ms),"
+                    + " SUM(damage_taken), SUM(pms) FROM sessions", null)) {
+                if (cursor.moveToFirst()) {
+                    JSObject totals = new JSObject();
+                    totals.put("sessions", cursor.getLong(0));
+                    totals.put("playedMs", cursor.getLong(1));
+                    totals.put("idleMs", cursor.getLong(2));
+                    totals.put("damageTaken", cursor.getLong(3));
+                    totals.put("pms", cursor.getLong(4));
+                    result.put("totals", totals);
+                }
+            }
+        }
+        result.put("sessions", sessions);
+        result.put("recording", isEnabled());
+        result.put("retentionDays", retentionDays);
+        result.put("eventsWritten", eventsWritten);
+        result.put("commits", commits);
+        File file = context.getDatabasePath(dbName);
+        result.put("bytes", file.length() + new File(file.getPath() + "-wal").length());
+        return result;
+    }
+
+    private static final class Helper extends SQLiteOpenHelper {
+        Helper(Context context, String name) {
+            super(context, name, null, DB_VERSION);
+            // Lets the launcher read while a commit is in progress.
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // Only takes effect before the first table exists.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE sessions ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "started_at INTEGER NOT NULL,"
+                    + "ended_at INTEGER NOT NULL,"
+                    + "server TEXT,"
+                    + "entity_id INTEGER NOT NULL,"
+                    + "idle_ms INTEGER NOT NULL DEFAULT 0,"
+                    + "damage_taken INTEGER NOT NULL DEFAULT 0,"
+                    + "pms INTEGER NOT NULL DEFAULT 0,"
+                    + "events INTEGER NOT NULL DEFAULT 0,"
+                    + "compacted INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE TABLE events ("
+                    + "session_id INTEGER NOT NULL,"
+                    + "at INTEGER NOT NULL,"
+                    + "type INTEGER NOT NULL,"
+                    + "a INTEGER,"
+                    + "b INTEGER,"
+                    + "c INTEGER,"
+                    + "text TEXT,"
+                    + "detail TEXT)");
+            db.execSQL("CREATE INDEX events_session ON events (session_id, type, at)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
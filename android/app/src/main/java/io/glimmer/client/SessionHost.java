@@ -0,0 +1,418 @@
+package io.glimmer.client;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.coordinatorlayout.widget.CoordinatorLayout;
+import androidx.webkit.ProfileStore;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Multi-session mode: extra game WebViews next to Capacitor's, each with its
+// own GameSession, for playing two worlds or accounts at once. Only one
+// session is visible; the others stay in RenderModeController's low-power
+// mode, drawing nothing but keeping their sockets. ForegroundService and
+// the wake lock are shared, as is the renderer process.
+//
+// Opening another session is refused once the estimated memory of all of
+// them would go past glimmer_sessionMemoryMb.
+//
+// Under memory pressure the pages are told to free what they can, in tiers.
+// A session whose renderer dies is rebuilt in a new WebView from its last
+// game page; for the primary one that means recreating the activity, as
+// Capacitor's Bridge keeps its WebView for good.
+public class SessionHost {
+
+    public static final String TAG = "GlimmerSessions";
+
+    // Including the primary session.
+    static final int MAX_SESSIONS = 3;
+    private static final int DEFAULT_BUDGET_MB = 768;
+    // What a game page costs before it has reported its JS heap, and what a
+    // page costs on top of that heap: DOM, canvas and GPU buffers.
+    private static final long SESSION_BASE_BYTES = 160L << 20;
+    private static final long RENDERER_OVERHEAD_BYTES = 96L << 20;
+    private static final long ACCOUNTING_INTERVAL_MS = 60 * 1000L;
+
+    // Memory pressure tiers; each one also does what the ones below do.
+    static final int PRESSURE_NONE = 0;
+    static final int PRESSURE_PAUSE_OVERLAYS = 1;
+    static final int PRESSURE_DROP_CACHES = 2;
+    static final int PRESSURE_FREE_MAP = 3;
+
+    // A page to load again once the activity is recreated.
+    private static final class Restore {
+        final String tag;
+        final String label;
+        final String page;
+        final boolean visible;
+        final long lostAt;
+
+        Restore(String tag, String label, String page, boolean visible, long lostAt) {
+            this.tag = tag;
+            this.label = label;
+            this.page = page;
+            this.visible = visible;
+            this.lostAt = lostAt;
+        }
+    }
+
+    // Outlives the activity that lost the primary renderer.
+    private static List<Restore> pendingRestore;
+
+    private final MainActivity activity;
+    private final GameSession primary;
+    private final List<GameSession> sessions = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Metrics metrics = Metrics.get();
+    private GameSession visible;
+    private TextView switchButton;
+    private boolean resumed = false;
+    private boolean underPressure = false;
+    private int nextTag = 2;
+    // All game WebViews share one renderer, so they are usually lost
+    // together; the losses are collected and handled in one go.
+    private final List<GameSession> lost = new ArrayList<>();
+    private long lostAt;
+    private boolean restarting = false;
+    private final Runnable recoverLost = this::recoverLost;
+
+    private final Runnable accounting = new Runnable() {
+        @Override
+        public void run() {
+            logAccounting();
+            if (sessions.size() > 1) handler.postDelayed(this, ACCOUNTING_INTERVAL_MS);
+        }
+    };
+
+    SessionHost(MainActivity activity, GameSession primary) {
+        this.activity = activity;
+        this.primary = primary;
+        sessions.add(primary);
+        visible = primary;
+        metrics.setGauge(Metrics.SESSIONS, 1);
+    }
+
+    public GameSession primary() {
+        return primary;
+    }
+
+    private long budgetBytes() {
+        return SettingsStore.getInstance(activity).get()
+                .getLong("glimmer_sessionMemoryMb", DEFAULT_BUDGET_MB) << 20;
+    }
+
+    private static long estimateBytes(GameSession session) {
+        long jsHeap = session.nativeBridge.getJsHeapBytes();
+        return jsHeap > 0 ? Math.max(SESSION_BASE_BYTES, jsHeap + RENDERER_OVERHEAD_BYTES) : SESSION_BASE_BYTES;
+    }
+
+    private long estimateTotalBytes() {
+        long total = 0;
+        for (GameSession session : sessions) total += estimateBytes(session);
+        return total;
+    }
+
+    // Null when another session fits, otherwise why not.
+    public String checkCanOpen() {
+        if (sessions.size() >= MAX_SESSIONS) {
+            return "At most " + MAX_SESSIONS + " worlds can be open at once.";
+        }
+        long needed = estimateTotalBytes() + SESSION_BASE_BYTES;
+        if (needed > budgetBytes()) {
+            return "Not enough memory budget for another world (" + (needed >> 20) + "MB of "
+                    + (budgetBytes() >> 20) + "MB).";
+        }
+        return null;
+    }
+
+    // Main thread only. The new session loads in the background; the switch
+    // button brings it up.
+    public GameSession open(String serverId, String serverUrl, String page, String source) {
+        String tag = String.valueOf(nextTag);
+        GameSession session = create(tag, "World " + serverId + " #" + tag);
+        SessionHistory.getInstance(activity).recorder(tag).setServer(serverId);
+        session.getReconnectSupervisor().onGameRequested(serverUrl);
+        session.loadPage(page, source);
+        sessions.add(session);
+        onSessionsChanged();
+        Log.i(TAG, "Opened " + session.describe() + ", " + sessions.size() + " sessions");
+        return session;
+    }
+
+    // A new WebView and session for tag, behind the visible one. The caller
+    // adds it to sessions.
+    private GameSession create(String tag, String label) {
+        nextTag = Math.max(nextTag, Integer.parseInt(tag) + 1);
+        WebView webView = new WebView(activity);
+        if (WebViewFeature.isFeatureSupported(WebViewFeature.MULTI_PROFILE)) {
+            // Own cookies and storage, so a second account stays logged in.
+            String profile = "glimmer-session-" + tag;
+            ProfileStore.getInstance().getOrCreateProfile(profile);
+            WebViewCompat.setProfile(webView, profile);
+        }
+        webView.setVisibility(View.INVISIBLE);
+        ViewGroup container = container();
+        container.addView(webView, new CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        GameSession session = new GameSession(activity, webView, tag, label);
+        session.renderMode.enterBackground();
+        return session;
+    }
+
+    public void close(GameSession session) {
+        if (session.isPrimary() || !sessions.remove(session)) return;
+        // While restarting, every WebView is on its way out anyway.
+        if (visible == session && !restarting) show(primary);
+        container().removeView(session.webView);
+        session.release();
+        onSessionsChanged();
+        Log.i(TAG, "Closed " + session.describe() + ", " + sessions.size() + " sessions");
+    }
+
+    // Brings the next session to the front, in opening order.
+    public void showNext() {
+        show(sessions.get((sessions.indexOf(visible) + 1) % sessions.size()));
+    }
+
+    private void show(GameSession session) {
+        if (session == visible) return;
+        GameSession previous = visible;
+        visible = session;
+        session.webView.setVisibility(View.VISIBLE);
+        session.webView.requestFocus();
+        if (resumed) session.renderMode.enterForeground();
+        previous.webView.setVisibility(View.INVISIBLE);
+        if (!previous.isRendererGone()) previous.renderMode.enterBackground();
+        updateSwitchButton();
+    }
+
+    public void onResume() {
+        resumed = true;
+        if (visible.isRendererGone()) return;
+        visible.renderMode.enterForeground();
+        if (underPressure) {
+            underPressure = false;
+            for (GameSession session : sessions) {
+                if (!session.isRendererGone()) session.onMemoryPressure(PRESSURE_NONE);
+            }
+        }
+    }
+
+    // Nobody is looking at any game; keep the sockets, stop drawing.
+    public void onPause() {
+        resumed = false;
+        for (GameSession session : sessions) {
+            if (!session.isRendererGone()) session.renderMode.enterBackground();
+        }
+    }
+
+    static int pressureTier(int trimLevel) {
+        switch (trimLevel) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+                return PRESSURE_PAUSE_OVERLAYS;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                return PRESSURE_DROP_CACHES;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                return PRESSURE_FREE_MAP;
+            default:
+                return PRESSURE_NONE;
+        }
+    }
+
+    // From MainActivity.onTrimMemory. The pages stay paused until onResume.
+    public void onTrimMemory(int trimLevel) {
+        int tier = pressureTier(trimLevel);
+        if (tier == PRESSURE_NONE || restarting) return;
+        underPressure = true;
+        Log.i(TAG, "Memory pressure (trim level " + trimLevel + "), tier " + tier);
+        for (GameSession session : sessions) {
+            if (!session.isRendererGone()) session.onMemoryPressure(tier);
+        }
+    }
+
+    void onRendererGone(GameSession session, boolean crashed) {
+        metrics.count(Metrics.RENDERER_CRASHES);
+        Log.w(TAG, session.describe() + " lost its renderer (" + (crashed ? "crashed" : "killed for memory") + ")");
+        if (restarting) return;
+        if (lost.isEmpty()) {
+            lostAt = SystemClock.elapsedRealtime();
+            handler.post(recoverLost);
+        }
+        lost.add(session);
+    }
+
+    private void recoverLost() {
+        if (lost.contains(primary)) {
+            restart();
+        } else {
+            for (GameSession session : lost) rebuild(session);
+        }
+        lost.clear();
+    }
+
+    // Same tag and label in a new WebView, so the session's settings,
+    // history and reconnect supervisor carry on where they were.
+    private void rebuild(GameSession session) {
+        int index = sessions.indexOf(session);
+        if (index < 0) return;
+        container().removeView(session.webView);
+        session.release();
+        GameSession replacement = create(session.tag, session.label);
+        sessions.set(index, replacement);
+        if (visible == session) {
+            visible = replacement;
+            replacement.webView.setVisibility(View.VISIBLE);
+            replacement.webView.requestFocus();
+            if (resumed) replacement.renderMode.enterForeground();
+        }
+        if (!replacement.recover(session.getLastGamePage(), lostAt)) {
+            close(replacement);
+            return;
+        }
+        updateSwitchButton();
+        Log.i(TAG, "Rebuilding " + replacement.describe());
+    }
+
+    // The primary WebView cannot be swapped out of Capacitor's Bridge: note
+    // every session's page and let a new activity load them all again.
+    private void restart() {
+        List<Restore> restore = new ArrayList<>();
+        for (GameSession session : sessions) {
+            if (session.getLastGamePage() == null) continue;
+            restore.add(new Restore(session.tag, session.label, session.getLastGamePage(), session == visible, lostAt));
+        }
+        pendingRestore = restore;
+        restarting = true;
+        Log.w(TAG, "Recreating the activity to rebuild " + restore.size() + " game page(s)");
+        activity.recreate();
+    }
+
+    // Called by a new MainActivity; false if there was nothing to restore.
+    boolean restoreAfterCrash() {
+        List<Restore> restore = pendingRestore;
+        pendingRestore = null;
+        if (restore == null) return false;
+        for (Restore entry : restore) {
+            GameSession session = primary;
+            if (entry.tag != null) {
+                session = create(entry.tag, entry.label);
+                sessions.add(session);
+            }
+            session.recover(entry.page, entry.lostAt);
+            if (entry.visible) show(session);
+        }
+        onSessionsChanged();
+        return true;
+    }
+
+    public void releaseAll() {
+        handler.removeCallbacks(accounting);
+        handler.removeCallbacks(recoverLost);
+        for (GameSession session : new ArrayList<>(sessions)) {
+            if (!session.isPrimary()) close(session);
+        }
+        primary.release();
+    }
+
+    public JSObject getStats() {
+        JSObject result = new JSObject();
+        JSArray list = new JSArray();
+        for (GameSession session : sessions) {
+            JSObject stats = session.nativeBridge.getAccounting();
+            stats.put("visible", session == visible);
+            stats.put("estimatedBytes", estimateBytes(session));
+            stats.put("render", session.renderMode.getStats());
+            list.put(stats);
+        }
+        result.put("sessions", list);
+        result.put("estimatedBytes", estimateTotalBytes());
+        result.put("budgetBytes", budgetBytes());
+        return result;
+    }
+
+    private void onSessionsChanged() {
+        metrics.setGauge(Metrics.SESSIONS, sessions.size());
+        updateSwitchButton();
+        handler.removeCallbacks(accounting);
+        if (sessions.size() > 1) handler.postDelayed(accounting, ACCOUNTING_INTERVAL_MS);
+    }
+
+    private void logAccounting() {
+        long total = estimateTotalBytes();
+        StringBuilder line = new StringBuilder("Sessions: ~").append(total >> 20).append("MB of ")
+                .append(budgetBytes() >> 20).append("MB budget");
+        for (GameSession session : sessions) {
+            JSObject stats = session.nativeBridge.getAccounting();
+            line.append(" | ").append(session.describe())
+                    .append(session == visible ? " (visible)" : "")
+                    .append(" heap ").append(session.nativeBridge.getJsHeapBytes() >> 20).append("MB")
+                    .append(" packets ").append(stats.optLong("packetCpuMs")).append("ms cpu")
+                    .append(" js ").append(stats.optLong("jsHandlerMs")).append("ms");
+        }
+        if (total > budgetBytes()) {
+            Log.w(TAG, line.append(" — over budget").toString());
+        } else {
+            Log.d(TAG, line.toString());
+        }
+    }
+
+    private ViewGroup container() {
+        return (ViewGroup) primary.webView.getParent();
+    }
+
+    // A small pill at the top; tap to cycle worlds, long-press to close the
+    // one in front.
+    private void updateSwitchButton() {
+        if (sessions.size() < 2) {
+            if (switchButton != null) switchButton.setVisibility(View.GONE);
+            return;
+        }
+        if (switchButton == null) {
+            switchButton = new TextView(activity);
+            switchButton.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+            switchButton.setTextColor(Color.WHITE);
+            switchButton.setBackgroundColor(0x99000000);
+            int padding = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 6,
+                    activity.getResources().getDisplayMetrics()));
+            switchButton.setPadding(2 * padding, padding, 2 * padding, padding);
+            switchButton.setOnClickListener(view -> showNext());
+            switchButton.setOnLongClickListener(view -> {
+                if (visible.isPrimary()) return false;
+                Toast.makeText(activity, "Closed " + visible.describe(), Toast.LENGTH_SHORT).show();
+                close(visible);
+                return true;
+            });
+            CoordinatorLayout.LayoutParams params = new CoordinatorLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+            params.gravity = Gravity.TOP | Gravity.CENTER_HORIZONTAL;
+            container().addView(switchButton, params);
+        }
+        switchButton.setText("⇄ " + visible.describe() + " (" + (sessions.indexOf(visible) + 1) + "/"
+                + sessions.size() + ")");
+        switchButton.setVisibility(View.VISIBLE);
+        switchButton.bringToFront();
+    }
+}
@@ -0,0 +1,127 @@
+package io.glimmer.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Immutable view of every glimmer_* setting at one point in time. The
+// JSON form is built once per version, so handing settings to the page is
+// a field read instead of a SharedPreferences walk.
+public final class SettingsSnapshot {
+
+    public static final String PREFIX = "glimmer_";
+    // glimmer_<name>@<tag> overrides glimmer_<name> for one game session.
+    public static final char SCOPE = '@';
+    // Timings the app writes after every request and first frame, for the
+    // launcher to read back on its next start. Not settings.
+    static final String TELEMETRY_PREFIX = "glimmer_lastTiming_";
+
+    // Keys the page has always assumed to be on unless switched off.
+    static final String[] DEFAULT_ON = {
+            "glimmer_idleAlert", "glimmer_pmAlert", "glimmer_healthAlert", "glimmer_mapEnabled"
+    };
+
+    public final int version;
+    private final Map<String, String> values;
+    private final String json;
+
+    SettingsSnapshot(int version, Map<String, ?> raw) {
+        TreeMap<String, String> copy = new TreeMap<>();
+        for (String key : DEFAULT_ON) copy.put(key, "true");
+        for (Map.Entry<String, ?> entry : raw.entrySet()) {
+            if (isSetting(entry.getKey()) && entry.getValue() != null) {
+                copy.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        this.version = version;
+        this.values = Collections.unmodifiableMap(copy);
+        this.json = toJson(copy);
+    }
+
+    // The settings as the session with this tag sees them: its overrides
+    // replace the shared values and other sessions' overrides are dropped.
+    public SettingsSnapshot scoped(String tag) {
+        TreeMap<String, String> raw = new TreeMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            int at = key.indexOf(SCOPE);
+            if (at < 0) {
+                raw.putIfAbsent(key, entry.getValue());
+            } else if (tag != null && key.length() == at + 1 + tag.length() && key.endsWith(tag)) {
+                raw.put(key.substring(0, at), entry.getValue());
+            }
+        }
+        return new SettingsSnapshot(version, raw);
+    }
+
+    public static boolean isSetting(String key) {
+        return key.startsWith(PREFIX) && !key.startsWith(TELEMETRY_PREFIX);
+    }
+
+    public Map<String, String> asMap() {
+        return values;
+    }
+
+    public String toJson() {
+        return json;
+    }
+
+    public String getString(String key, String fallback) {
+        String value = values.get(key);
+        return value != null ? value : fallback;
+    }
+
+    public boolean isEnabled(String key) {
+        return "true".equals(values.get(key));
+    }
+
+    public long getLong(String key, long fallback) {
+        String value = values.get(key);
+        if (value == null) return fallback;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public int getInt(String key, int fallback) {
+        return (int) getLong(key, fallback);
+    }
+
+    private static String toJson(Map<String, String> map) {
+        StringBuilder out = new StringBuilder(32 * map.size() + 2);
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (!first) out.append(',');
+            first = false;
+            appendQuoted(out, entry.getKey());
+            out.append(':');
+            appendQuoted(out, entry.getValue());
+        }
+        return out.append('}').toString();
+    }
+
+    static void appendQuoted(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    // U+2028/2029 are valid JSON but break a JS string literal.
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
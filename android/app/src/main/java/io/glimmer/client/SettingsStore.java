@@ -0,0 +1,87 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Owns the current SettingsSnapshot and replaces it whenever the launcher
+// (through Capacitor Preferences) writes a glimmer_* key. The timings the
+// app stores next to them do not count as a change.
+public class SettingsStore {
+
+    public static final String TAG = "GlimmerSettings";
+    private static final String PREFS_NAME = "CapacitorStorage";
+
+    public interface Listener {
+        void onSettingsChanged(SettingsSnapshot snapshot);
+    }
+
+    private static SettingsStore instance;
+
+    private final SharedPreferences prefs;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile SettingsSnapshot snapshot;
+    // Scoped views for secondary game sessions, rebuilt once per version.
+    private final ConcurrentHashMap<String, SettingsSnapshot> scopedViews = new ConcurrentHashMap<>();
+
+    // SharedPreferences only keeps a weak reference to its listeners.
+    private final SharedPreferences.OnSharedPreferenceChangeListener prefsListener = (sharedPreferences, key) -> {
+        if (key == null || SettingsSnapshot.isSetting(key)) {
+            refresh();
+        }
+    };
+
+    public static synchronized SettingsStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SettingsStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SettingsStore(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        snapshot = new SettingsSnapshot(1, prefs.getAll());
+        prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+    }
+
+    public SettingsSnapshot get() {
+        return snapshot;
+    }
+
+    // What the game session with this tag sees; null is the primary session,
+    // which reads the shared values as they are.
+    public SettingsSnapshot get(String sessionTag) {
+        SettingsSnapshot current = snapshot;
+        if (sessionTag == null) return current;
+        SettingsSnapshot view = scopedViews.get(sessionTag);
+        if (view == null || view.version != current.version) {
+            view = current.scoped(sessionTag);
+            scopedViews.put(sessionTag, view);
+        }
+        return view;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void refresh() {
+        SettingsSnapshot next;
+        synchronized (this) {
+            next = new SettingsSnapshot(snapshot.version + 1, prefs.getAll());
+            if (next.asMap().equals(snapshot.asMap())) return;
+            snapshot = next;
+        }
+        Log.d(TAG, "Settings changed, now at version " + next.version);
+        for (Listener listener : listeners) {
+            listener.onSettingsChanged(next);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.glimmer.client;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A read-only pack of pre-rendered world map tiles, memory mapped so a tile
+// is served straight out of the page cache without copying it to the heap.
+//
+// Layout, big endian:
+//   "GTP1"
+//   int tilePixels, int worldPerTile, int originX, int originY, int count
+//   count x { int level, int tileX, int tileY, int offset, int length }
+//   tile images (PNG or WebP), offsets relative to the start of the pack
+// Entries are sorted by (level, tileX, tileY) so lookups binary search.
+public class TilePack {
+
+    private static final int MAGIC = 0x47545031; // "GTP1"
+    private static final int HEADER_BYTES = 24;
+    private static final int ENTRY_BYTES = 20;
+
+    public final int tilePixels;
+    public final int worldPerTile;
+    // World coordinate at the top left corner of tile (0, 0).
+    public final int originX;
+    public final int originY;
+
+    private final ByteBuffer data;
+    private final long[] keys;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private TilePack(ByteBuffer data) throws IOException {
+        this.data = data.order(ByteOrder.BIG_ENDIAN);
+        if (data.remaining() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a tile pack");
+        }
+        tilePixels = data.getInt(4);
+        worldPerTile = data.getInt(8);
+        originX = data.getInt(12);
+        originY = data.getInt(16);
+        int count = data.getInt(20);
+        if (count < 0 || tilePixels <= 0 || worldPerTile <= 0
+                || HEADER_BYTES + (long) count * ENTRY_BYTES > data.limit()) {
+            throw new IOException("Corrupt tile pack header");
+        }
+
+        keys = new long[count];
+        offsets = new int[count];
+        lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            int at = HEADER_BYTES + i * ENTRY_BYTES;
+            keys[i] = key(data.getInt(at), data.getInt(at + 4), data.getInt(at + 8));
+            offsets[i] = data.getInt(at + 12);
+            lengths[i] = data.getInt(at + 16);
+            if (offsets[i] < 0 || lengths[i] < 0 || (long) offsets[i] + lengths[i] > data.limit()) {
+                throw new IOException("Tile " + i + " lies outside the pack");
+            }
+            if (i > 0 && keys[i] <= keys[i - 1]) {
+                throw new IOException("Tile pack index is not sorted");
+            }
+        }
+    }
+
+    // Maps length bytes from offset; the mapping stays valid after the
+    // channel is closed. Packs bundled as uncompressed APK assets are mapped
+    // through their AssetFileDescriptor offset the same way.
+    public static TilePack map(FileChannel channel, long offset, long length) throws IOException {
+        return new TilePack(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    static TilePack wrap(ByteBuffer buffer) throws IOException {
+        return new TilePack(buffer.slice());
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    // A read-only view of the tile's image bytes, or null if the pack has
+    // no tile there (open sea, unexplored sky).
+    public ByteBuffer tile(int level, int tileX, int tileY) {
+        int i = Arrays.binarySearch(keys, key(level, tileX, tileY));
+        if (i < 0) return null;
+        ByteBuffer view = data.duplicate();
+        view.limit(offsets[i] + lengths[i]).position(offsets[i]);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    public String toJson() {
+        return "{\"tilePixels\":" + tilePixels + ",\"worldPerTile\":" + worldPerTile
+                + ",\"originX\":" + originX + ",\"originY\":" + originY + ",\"tiles\":" + keys.length + "}";
+    }
+
+    public static String mimeType(ByteBuffer image) {
+        if (image.remaining() >= 12 && image.get(image.position()) == 'R' && image.get(image.position() + 8) == 'W') {
+            return "image/webp";
+        }
+        return "image/png";
+    }
+
+    // Tile coordinates are signed; 20 bits each covers any map we will see.
+    private static long key(int level, int tileX, int tileY) {
+        return ((long) level << 40) | ((tileX + (1L << 19)) << 20) | (tileY + (1L << 19));
+    }
+
+    public static class Tile {
+        final int level;
+        final int tileX;
+        final int tileY;
+        final byte[] image;
+
+        public Tile(int level, int tileX, int tileY, byte[] image) {
+            this.level = level;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.image = image;
+        }
+    }
+
+    // Builds a pack from rendered tiles. The app only reads packs; this is the
+    // reference writer for the format, used by the tests.
+    public static void write(OutputStream out, int tilePixels, int worldPerTile, int originX, int originY,
+                             List<Tile> tiles) throws IOException {
+        List<Tile> sorted = new ArrayList<>(tiles);
+        sorted.sort((a, b) -> Long.compare(key(a.level, a.tileX, a.tileY), key(b.level, b.tileX, b.tileY)));
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(tilePixels);
+        data.writeInt(worldPerTile);
+        data.writeInt(originX);
+        data.writeInt(originY);
+        data.writeInt(sorted.size());
+        int offset = HEADER_BYTES + sorted.size() * ENTRY_BYTES;
+        for (Tile tile : sorted) {
+            data.writeInt(tile.level);
+            data.writeInt(tile.tileX);
+            data.writeInt(tile.tileY);
+            data.writeInt(offset);
+            data.writeInt(tile.image.length);
+            offset += tile.image.length;
+        }
+        for (Tile tile : sorted) data.write(tile.image);
+        data.flush();
+    }
+}
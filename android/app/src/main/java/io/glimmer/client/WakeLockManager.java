@@ -0,0 +1,224 @@
+package io.glimmer.client;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayDeque;
+
+// Holds the CPU only while the game socket is open and ForegroundService is
+// running. The lock is taken in short leases that are renewed while the
+// connection lasts, so a lost close event costs at most one lease.
+public class WakeLockManager {
+
+    public static final String TAG = "GlimmerWakeLock";
+
+    private static final long LEASE_MS = 60 * 1000L;
+    private static final long RENEW_INTERVAL_MS = 45 * 1000L;
+    // socket.io reconnects within a few seconds; don't drop the CPU in between.
+    private static final long RELEASE_GRACE_MS = 5 * 1000L;
+    private static final int MAX_SESSIONS = 10;
+
+    private static WakeLockManager instance;
+
+    private final PowerManager.WakeLock wakeLock;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int openSockets = 0;
+    // Sessions whose ReconnectSupervisor is between attempts.
+    private int reconnecting = 0;
+    private boolean attached = false;
+    private long heldSince = -1;
+
+    // One session per stretch of connectivity, from first open to last close.
+    private Session current;
+    private final ArrayDeque<Session> sessions = new ArrayDeque<>();
+    private long totalHeldMs = 0;
+    private long totalLeases = 0;
+
+    private static class Session {
+        final long startedAt = System.currentTimeMillis();
+        final long startedElapsed = SystemClock.elapsedRealtime();
+        long endedElapsed = -1;
+        long heldMs = 0;
+        int leases = 0;
+
+        JSObject toJSObject(long now) {
+            JSObject json = new JSObject();
+            json.put("startedAt", startedAt);
+            json.put("durationMs", (endedElapsed >= 0 ? endedElapsed : now) - startedElapsed);
+            json.put("heldMs", heldMs);
+            json.put("leases", leases);
+            return json;
+        }
+    }
+
+    private final Runnable renewLease = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WakeLockManager.this) {
+                if (shouldHold()) {
+                    acquireLease();
+                    handler.postDelayed(this, RENEW_INTERVAL_MS);
+                }
+            }
+        }
+    };
+
+    private final Runnable releaseAfterGrace = () -> {
+        synchronized (WakeLockManager.this) {
+            if (!shouldHold()) release();
+        }
+    };
+
+    public static synchronized WakeLockManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new WakeLockManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WakeLockManager(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager != null
+                ? powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Glimmer::ConnectionWakeLock")
+                : null;
+        if (wakeLock != null) {
+            // Re-acquiring an unreferenced lock just pushes its timeout out.
+            wakeLock.setReferenceCounted(false);
+        }
+    }
+
+    private boolean shouldHold() {
+        return attached && (openSockets > 0 || reconnecting > 0);
+    }
+
+    // Called by ForegroundService when it starts and stops.
+    public synchronized void attach() {
+        attached = true;
+        update();
+    }
+
+    public synchronized void detach() {
+        attached = false;
+        handler.removeCallbacks(releaseAfterGrace);
+        release();
+    }
+
+    // WebSocket open/close events from injected-script.js.
+    public synchronized void onSocketOpened() {
+        openSockets++;
+        if (current == null) {
+            current = new Session();
+            Log.d(TAG, "Connection session started");
+        }
+        update();
+    }
+
+    // ReconnectSupervisor keeps the CPU up between its attempts, while no
+    // socket is open. Calls come in pairs, one pair per session.
+    public synchronized void setReconnecting(boolean reconnecting) {
+        if (reconnecting) {
+            this.reconnecting++;
+        } else if (this.reconnecting > 0) {
+            this.reconnecting--;
+        }
+        update();
+    }
+
+    // The sockets of a page being replaced never report their close; the
+    // session's bridge says how many it had open.
+    public synchronized void onPageReset(int sockets) {
+        sockets = Math.min(sockets, openSockets);
+        if (sockets <= 0) return;
+        openSockets -= sockets - 1;
+        onSocketClosed();
+    }
+
+    public synchronized void onSocketClosed() {
+        if (openSockets > 0) openSockets--;
+        if (openSockets == 0 && current != null) {
+            if (heldSince >= 0) {
+                // Settle the held time up to now into the ending session.
+                long now = SystemClock.elapsedRealtime();
+                addHeld(now - heldSince);
+                heldSince = now;
+            }
+            current.endedElapsed = SystemClock.elapsedRealtime();
+            sessions.addLast(current);
+            while (sessions.size() > MAX_SESSIONS) sessions.removeFirst();
+            Log.d(TAG, "Connection session ended, wake lock held " + current.heldMs + "ms of "
+                    + (current.endedElapsed - current.startedElapsed) + "ms");
+            current = null;
+        }
+        update();
+    }
+
+    private void update() {
+        handler.removeCallbacks(renewLease);
+        if (shouldHold()) {
+            handler.removeCallbacks(releaseAfterGrace);
+            renewLease.run();
+        } else if (heldSince >= 0) {
+            handler.removeCallbacks(releaseAfterGrace);
+            handler.postDelayed(releaseAfterGrace, attached ? RELEASE_GRACE_MS : 0);
+        }
+    }
+
+    private void acquireLease() {
+        if (wakeLock == null) return;
+        wakeLock.acquire(LEASE_MS);
+        totalLeases++;
+        if (current != null) current.leases++;
+        if (heldSince < 0) {
+            heldSince = SystemClock.elapsedRealtime();
+            Log.d(TAG, "Wake lock acquired");
+        }
+    }
+
+    private void release() {
+        handler.removeCallbacks(renewLease);
+        if (heldSince < 0) return;
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        addHeld(SystemClock.elapsedRealtime() - heldSince);
+        heldSince = -1;
+        Log.d(TAG, "Wake lock released");
+    }
+
+    private void addHeld(long ms) {
+        totalHeldMs += ms;
+        if (current != null) {
+            current.heldMs += ms;
+        } else if (!sessions.isEmpty()) {
+            // Grace period after the last close still belongs to that session.
+            sessions.peekLast().heldMs += ms;
+        }
+    }
+
+    public synchronized JSObject getStats() {
+        long now = SystemClock.elapsedRealtime();
+        long pending = heldSince >= 0 ? now - heldSince : 0;
+        JSObject result = new JSObject();
+        result.put("held", heldSince >= 0);
+        result.put("openSockets", openSockets);
+        result.put("totalHeldMs", totalHeldMs + pending);
+        result.put("totalLeases", totalLeases);
+        JSArray history = new JSArray();
+        for (Session session : sessions) history.put(session.toJSObject(now));
+        result.put("sessions", history);
+        if (current != null) {
+            JSObject active = current.toJSObject(now);
+            active.put("heldMs", current.heldMs + pending);
+            result.put("current", active);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,140 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AlertRulesTest {
+
+    private final long[] now = {1_000};
+    private final List<String> fired = new ArrayList<>();
+
+    private final PacketPipeline.Listener listener = new PacketPipeline.Listener() {
+        @Override public void onLogin(long entityId) {}
+        @Override public void onLowHealth(int currentHealth, int maxHealth) {}
+        @Override public void onPrivateMessage(String from, String message) {}
+        @Override public void onIdleStarted() {}
+        @Override public void onActivity() {}
+        @Override public void onPositionChanged(int mapLevel, int x, int y) {}
+        @Override public void onHealthChanged(int currentHealth, int maxHealth, int damageTaken) {}
+        @Override public void onEntityApproaching(long entityId, int distance) {}
+        @Override public void onChatKeyword(String keyword, String line) {}
+
+        @Override
+        public void onRuleMatched(String name, String title, String body) {
+            fired.add(title + ": " + body);
+        }
+    };
+
+    private AlertRules compile(String json) {
+        return AlertRules.compile(json, () -> now[0]);
+    }
+
+    private static PacketPipeline.Payload payload(double... values) {
+        PacketPipeline.Payload payload = new PacketPipeline.Payload();
+        for (int i = 0; i < values.length; i++) {
+            payload.values[i] = values[i];
+            payload.present[i] = true;
+        }
+        payload.length = values.length;
+        return payload;
+    }
+
+    private void deliver(AlertRules rules, int actionId, PlayerState state, double... values) {
+        AlertRules.Rule[] matching = rules.forAction(actionId);
+        if (matching != null) rules.evaluate(matching, payload(values), state, listener);
+    }
+
+    @Test
+    public void rulesAreIndexedByAction() {
+        AlertRules rules = compile("[{\"name\":\"Died\",\"action\":50},"
+                + "{\"name\":\"Died again\",\"action\":50,\"self\":0},"
+                + "{\"name\":\"Level\",\"action\":39,\"field\":1,\"op\":\">=\",\"value\":99}]");
+
+        assertTrue(rules.getErrors().isEmpty());
+        assertEquals(3, rules.size());
+        assertEquals(2, rules.forAction(50).length);
+        assertEquals("Died", rules.forAction(50)[0].name);
+        assertEquals(1, rules.forAction(39).length);
+        assertNull(rules.forAction(8));
+        assertNull(rules.forAction(51));
+        assertNull(rules.forAction(-1));
+    }
+
+    @Test
+    public void badRulesAreReportedAndLeftOut() {
+        AlertRules rules = compile("[{\"action\":5000},"
+                + "{\"action\":8,\"field\":2,\"op\":\"~\",\"value\":1},"
+                + "{\"action\":8,\"field\":2,\"op\":\"<\"},"
+                + "{\"action\":8,\"field\":-2,\"op\":\"<\",\"value\":1},"
+                + "\"nope\","
+                + "{\"name\":\"Hit\",\"action\":8,\"field\":2,\"op\":\">\",\"value\":10}]");
+
+        assertEquals(5, rules.getErrors().size());
+        assertEquals(1, rules.size());
+        assertEquals("Hit", rules.forAction(8)[0].name);
+    }
+
+    @Test
+    public void anythingButAnArrayCompilesToNothing() {
+        assertSame(AlertRules.NONE, compile(""));
+        AlertRules rules = compile("{\"action\":50}");
+        assertEquals(0, rules.size());
+        assertEquals(1, rules.getErrors().size());
+        assertNull(rules.forAction(50));
+    }
+
+    @Test
+    public void ruleWithoutFieldFiresForThePlayerAfterItsCooldown() {
+        AlertRules rules = compile("[{\"name\":\"Died\",\"action\":50,\"self\":0,\"cooldownSec\":60}]");
+        PlayerState state = new PlayerState();
+        state.entityId = 7;
+
+        deliver(rules, 50, state, 8);
+        deliver(rules, 50, state, 7);
+        now[0] += 30_000;
+        deliver(rules, 50, state, 7);
+        now[0] += 30_000;
+        deliver(rules, 50, state, 7);
+
+        assertEquals(Arrays.asList("Died: Died", "Died: Died"), fired);
+    }
+
+    @Test
+    public void comparisonFiresOncePerCrossingPastItsHysteresis() {
+        AlertRules rules = compile("[{\"name\":\"Big hit\",\"action\":8,\"field\":2,\"op\":\">=\",\"value\":20,"
+                + "\"hysteresis\":5,\"title\":\"Ouch\",\"body\":\"{value} damage, {hp}/{maxHp} left\"}]");
+        PlayerState state = new PlayerState();
+        state.currentHealth = 40;
+        state.maxHealth = 99;
+
+        deliver(rules, 8, state, 1, 7, 25);
+        deliver(rules, 8, state, 1, 7, 22);
+        // Not yet below 20 - 5.
+        deliver(rules, 8, state, 1, 7, 16);
+        deliver(rules, 8, state, 1, 7, 21);
+        deliver(rules, 8, state, 1, 7, 10);
+        deliver(rules, 8, state, 1, 7, 20.5);
+        // No slot 2, nothing to compare.
+        deliver(rules, 8, state, 1, 7);
+
+        assertEquals(Arrays.asList("Ouch: 25 damage, 40/99 left", "Ouch: 20.5 damage, 40/99 left"), fired);
+    }
+
+    @Test
+    public void healthFieldsComeFromPlayerState() {
+        AlertRules rules = compile("[{\"name\":\"Half\",\"action\":91,\"field\":\"hpPercent\",\"op\":\"<\",\"value\":50}]");
+        PlayerState state = new PlayerState();
+
+        deliver(rules, 91, state, 0, 7, 10);
+        state.currentHealth = 10;
+        state.maxHealth = 40;
+        deliver(rules, 91, state, 0, 7, 10);
+
+        assertEquals(Arrays.asList("Half: Half (25)"), fired);
+    }
+}
@@ -0,0 +1,59 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AssetCachePolicyTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final String BASE = "https://highspell.com/";
+
+    @Test
+    public void versionedUrlsAreKeptForGood() {
+        for (String path : new String[] {
+                "js/client.3f9a2c1d.js", "assets/index-Bq3xk2a9.js", "audio/theme.mp3?v=12",
+                "data/items.json?hash=9c1e", "static/v14/sprites.png", "build/1.4.2/world.bin",
+                "cdn/20240611/config.json", "img/0a1b2c3d4e5f.webp"}) {
+            assertEquals(path, AssetCachePolicy.NEVER_EXPIRES,
+                    AssetCachePolicy.expiresAt(BASE + path, "public, max-age=600", null, NOW));
+        }
+    }
+
+    @Test
+    public void unversionedUrlsNeedALongMaxAgeOrImmutable() {
+        String url = BASE + "data/config.json";
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE, AssetCachePolicy.expiresAt(url, null, null, NOW));
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE, AssetCachePolicy.expiresAt(url, "max-age=3600", null, NOW));
+        assertEquals(NOW + 7 * 86_400_000L, AssetCachePolicy.expiresAt(url, "public, max-age=604800", null, NOW));
+        assertEquals(AssetCachePolicy.NEVER_EXPIRES,
+                AssetCachePolicy.expiresAt(url, "max-age=3600, immutable", null, NOW));
+    }
+
+    @Test
+    public void plainNamesWithDigitsAreNotVersions() {
+        assertFalse(AssetCachePolicy.isVersioned(BASE + "img/background2.png"));
+        assertFalse(AssetCachePolicy.isVersioned(BASE + "js/game-client.js"));
+        assertFalse(AssetCachePolicy.isVersioned(BASE + "audio/level10music.ogg"));
+        assertFalse(AssetCachePolicy.isVersioned(BASE + "data/items.json?lang=en"));
+    }
+
+    @Test
+    public void revalidateAndPrivateAreHonoured() {
+        String url = BASE + "js/client.3f9a2c1d.js";
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE, AssetCachePolicy.expiresAt(url, "no-store", null, NOW));
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE, AssetCachePolicy.expiresAt(url, "No-Cache", null, NOW));
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE,
+                AssetCachePolicy.expiresAt(url, "private, max-age=31536000", null, NOW));
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE, AssetCachePolicy.expiresAt(url, "max-age=0", null, NOW));
+    }
+
+    @Test
+    public void onlyAcceptEncodingMayVary() {
+        String url = BASE + "js/client.3f9a2c1d.js";
+        assertEquals(AssetCachePolicy.NEVER_EXPIRES, AssetCachePolicy.expiresAt(url, null, "Accept-Encoding", NOW));
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE,
+                AssetCachePolicy.expiresAt(url, null, "Accept-Encoding, Origin", NOW));
+        assertEquals(AssetCachePolicy.NOT_CACHEABLE, AssetCachePolicy.expiresAt(url, null, "*", NOW));
+    }
+}
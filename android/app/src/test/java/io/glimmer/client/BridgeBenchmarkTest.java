@@ -0,0 +1,106 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+import android.app.NotificationManager;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the bridge paths that need Android classes, under Robolectric.
+ * Skipped unless {@code -Dglimmer.benchmark=true}; results land in
+ * app/build/reports/benchmarks/robolectric.json for
+ * {@code :benchmark:baselineReport} to pick up.
+ *
+ * Robolectric numbers are only comparable with each other, run to run on
+ * the same machine, not with a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class BridgeBenchmarkTest {
+
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 20_000;
+
+    private GlimmerNativeBridge bridge;
+
+    private interface Operation {
+        void run(int i);
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Set -Dglimmer.benchmark=true to run benchmarks", Boolean.getBoolean("glimmer.benchmark"));
+        Application app = RuntimeEnvironment.getApplication();
+        shadowOf(app).grantPermissions(Manifest.permission.POST_NOTIFICATIONS);
+        bridge = new GlimmerNativeBridge(app, null);
+    }
+
+    // Mean and p99 of single calls, in microseconds.
+    private static double[] measure(Operation operation) {
+        for (int i = 0; i < WARMUP; i++) operation.run(i);
+        long[] samples = new long[ITERATIONS];
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            operation.run(i);
+            samples[i] = System.nanoTime() - start;
+            total += samples[i];
+        }
+        Arrays.sort(samples);
+        return new double[]{total / 1000.0 / ITERATIONS, samples[(int) (ITERATIONS * 0.99)] / 1000.0};
+    }
+
+    private static String entry(String name, double[] result) {
+        return String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"runner\":\"robolectric\",\"mode\":\"avgt\",\"score\":%.3f,\"p99\":%.3f,\"unit\":\"us/op\"}",
+                name, result[0], result[1]);
+    }
+
+    private static void write(List<String> entries) throws IOException {
+        File dir = new File(System.getProperty("glimmer.benchmarkDir", "build/reports/benchmarks"));
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        try (Writer out = new FileWriter(new File(dir, "robolectric.json"))) {
+            out.write("[\n  " + String.join(",\n  ", entries) + "\n]\n");
+        }
+    }
+
+    @Test
+    public void benchmarkBridge() throws IOException {
+        List<String> entries = new ArrayList<>();
+
+        entries.add(entry("GlimmerNativeBridge.getSettings", measure(i -> bridge.getSettings())));
+
+        // Alternate categories so both the fresh-notification and the
+        // merged-burst branches of AlertScheduler are exercised.
+        String[] categories = {AlertScheduler.CATEGORY_HEALTH, AlertScheduler.CATEGORY_PM, AlertScheduler.CATEGORY_IDLE};
+        entries.add(entry("GlimmerNativeBridge.notifyAlert", measure(i ->
+                bridge.notifyAlert(categories[i % categories.length], "Low Health Warning!", "Your health is below 20% (" + i + "/50)"))));
+        entries.add(entry("GlimmerNativeBridge.notify", measure(i -> bridge.notify("Glimmer", "Message " + i))));
+
+        NotificationManager manager = (NotificationManager) RuntimeEnvironment.getApplication()
+                .getSystemService(Application.NOTIFICATION_SERVICE);
+        assertFalse(shadowOf(manager).getAllNotifications().isEmpty());
+
+        write(entries);
+        for (String entry : entries) System.out.println(entry);
+    }
+}
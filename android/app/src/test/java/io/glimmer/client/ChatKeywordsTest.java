@@ -0,0 +1,92 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class ChatKeywordsTest {
+
+    @Test
+    public void matchesRegardlessOfCase() {
+        ChatKeywords keywords = ChatKeywords.compile("Dragon Bones, rune\n  ", false);
+        assertEquals(2, keywords.size());
+        assertEquals("dragon bones", keywords.match("WTS DRAGON BONES 2k ea"));
+        assertEquals("rune", keywords.match("anyone selling runes?"));
+        assertNull(keywords.match("dragon bone"));
+        assertNull(keywords.match(""));
+    }
+
+    @Test
+    public void wholeWordNeedsABoundaryOnBothSides() {
+        ChatKeywords keywords = ChatKeywords.compile("rune", true);
+        assertEquals("rune", keywords.match("rune"));
+        assertEquals("rune", keywords.match("buying rune, 5k"));
+        assertNull(keywords.match("runes"));
+        assertNull(keywords.match("prune juice"));
+        // A later occurrence still counts when the first is inside a word.
+        assertEquals("rune", keywords.match("runes or rune"));
+    }
+
+    @Test
+    public void shorterKeywordsEndingInsideLongerOnesAreFound() {
+        ChatKeywords keywords = ChatKeywords.compile("he,she,his,hers", false);
+        assertEquals("she", keywords.match("ushers"));
+        assertEquals("his", keywords.match("ahishers"));
+
+        // "she" ends first but is inside a word; "he" ends on the same
+        // character and is not.
+        keywords = ChatKeywords.compile("she,he", true);
+        assertNull(keywords.match("ushe"));
+        assertEquals("he", keywords.match("s-he"));
+    }
+
+    @Test
+    public void nonAsciiKeywordsWork() {
+        ChatKeywords keywords = ChatKeywords.compile("Zoë,ÅSA", true);
+        assertEquals("zoë", keywords.match("where is ZOË?"));
+        assertEquals("åsa", keywords.match("åsa!"));
+        assertNull(keywords.match("zoe"));
+    }
+
+    @Test
+    public void emptyListsCompileToNothing() {
+        assertSame(ChatKeywords.NONE, ChatKeywords.compile(null, false));
+        assertSame(ChatKeywords.NONE, ChatKeywords.compile(" , \n", false));
+        assertTrue(ChatKeywords.NONE.isEmpty());
+        assertNull(ChatKeywords.NONE.match("anything"));
+    }
+
+    @Test
+    public void agreesWithIndexOfOnRandomText() {
+        Random random = new Random(12);
+        List<String> words = new ArrayList<>();
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String word = randomText(random, "abcdAB", 2 + random.nextInt(4));
+            words.add(word.toLowerCase(Locale.ROOT));
+            list.append(word).append('\n');
+        }
+        ChatKeywords keywords = ChatKeywords.compile(list.toString(), false);
+
+        for (int i = 0; i < 2000; i++) {
+            String line = randomText(random, "abcdAB ", random.nextInt(40));
+            String lower = line.toLowerCase(Locale.ROOT);
+            boolean expected = false;
+            for (String word : words) expected |= lower.contains(word);
+            String found = keywords.match(line);
+            assertEquals(line, expected, found != null);
+            if (found != null) assertTrue(line, lower.contains(found));
+        }
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return text.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class EntityIndexTest {
+
+    private static final int UNKNOWN = PlayerState.UNKNOWN;
+
+    private static List<Long> query(EntityIndex index, int level, int x, int y, int radius) {
+        List<Long> found = new ArrayList<>();
+        index.query(level, x, y, radius, (id, ex, ey, health, maxHealth) -> found.add(id));
+        Collections.sort(found);
+        return found;
+    }
+
+    @Test
+    public void enterMoveAndLeave() {
+        EntityIndex index = new EntityIndex();
+        assertTrue(index.put(1, 1, 10, 10, 20, 30));
+        assertTrue(index.put(2, 1, 14, 10, UNKNOWN, UNKNOWN));
+        assertFalse(index.put(1, UNKNOWN, 100, 100, UNKNOWN, UNKNOWN));
+        assertEquals(2, index.size());
+
+        // Entity 1 moved across several cells and kept its level.
+        assertEquals(Collections.singletonList(2L), query(index, 1, 12, 10, 5));
+        assertEquals(Collections.singletonList(1L), query(index, 1, 100, 101, 2));
+        assertEquals(Collections.emptyList(), query(index, 2, 100, 100, 5));
+
+        assertTrue(index.remove(2));
+        assertFalse(index.remove(2));
+        assertEquals(Collections.emptyList(), query(index, 1, 12, 10, 5));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void needsAPositionToEnter() {
+        EntityIndex index = new EntityIndex();
+        assertFalse(index.put(5, 1, UNKNOWN, 3, 10, 10));
+        assertFalse(index.contains(5));
+    }
+
+    @Test
+    public void queryIsEuclideanAcrossNegativeCells() {
+        EntityIndex index = new EntityIndex();
+        index.put(1, 0, -3, -4, UNKNOWN, UNKNOWN);
+        index.put(2, 0, 4, 4, UNKNOWN, UNKNOWN);
+        // (4,4) is inside the bounding square but 5.66 tiles out.
+        assertEquals(Collections.singletonList(1L), query(index, 0, 0, 0, 5));
+    }
+
+    @Test
+    public void enteredRadiusReportsOnlyTheWayIn() {
+        EntityIndex index = new EntityIndex();
+        index.put(9, 1, 20, 0, UNKNOWN, UNKNOWN);
+        assertFalse(index.enteredRadius(9, 1, 0, 0, 8));
+        index.put(9, 1, 6, 0, UNKNOWN, UNKNOWN);
+        assertTrue(index.enteredRadius(9, 1, 0, 0, 8));
+        index.put(9, 1, 5, 0, UNKNOWN, UNKNOWN);
+        assertFalse(index.enteredRadius(9, 1, 0, 0, 8));
+        index.put(9, 1, 30, 0, UNKNOWN, UNKNOWN);
+        assertFalse(index.enteredRadius(9, 1, 0, 0, 8));
+        index.put(9, 1, 2, 0, UNKNOWN, UNKNOWN);
+        assertTrue(index.enteredRadius(9, 1, 0, 0, 8));
+    }
+
+    @Test
+    public void retainAroundDropsFarAndOtherLevels() {
+        EntityIndex index = new EntityIndex();
+        index.put(1, 1, 0, 0, UNKNOWN, UNKNOWN);
+        index.put(2, 1, 100, 0, UNKNOWN, UNKNOWN);
+        index.put(3, 2, 0, 0, UNKNOWN, UNKNOWN);
+
+        assertEquals(2, index.retainAround(1, 0, 0, 48, 8));
+        assertTrue(index.contains(1));
+        assertFalse(index.contains(2));
+        assertFalse(index.contains(3));
+        // Already within reach when we got here, so it does not approach.
+        assertFalse(index.enteredRadius(1, 1, 0, 0, 8));
+    }
+
+    @Test
+    public void healthFollowsDamageAndHeals() {
+        EntityIndex index = new EntityIndex();
+        index.put(1, 1, 0, 0, 40, 50);
+        index.addHealth(1, -15);
+        int[] health = new int[1];
+        index.query(1, 0, 0, 1, (id, x, y, current, max) -> health[0] = current);
+        assertEquals(25, health[0]);
+        index.setHealth(1, 50);
+        index.query(1, 0, 0, 1, (id, x, y, current, max) -> health[0] = current);
+        assertEquals(50, health[0]);
+    }
+
+    // Random churn checked against a brute force scan, including the slot
+    // free list, array growth and backward shift deletes in the hash maps.
+    @Test
+    public void matchesBruteForceUnderChurn() {
+        Random random = new Random(42);
+        EntityIndex index = new EntityIndex(4);
+        Map<Long, int[]> expected = new HashMap<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            long id = random.nextInt(500);
+            int op = random.nextInt(10);
+            if (op < 2) {
+                assertEquals(expected.remove(id) != null, index.remove(id));
+            } else {
+                int[] position = {random.nextInt(3), random.nextInt(200) - 100, random.nextInt(200) - 100};
+                assertEquals(!expected.containsKey(id), index.put(id, position[0], position[1], position[2], 1, 1));
+                expected.put(id, position);
+            }
+
+            if (step % 500 == 0) {
+                int level = random.nextInt(3);
+                int x = random.nextInt(200) - 100;
+                int y = random.nextInt(200) - 100;
+                int radius = random.nextInt(40);
+                List<Long> brute = new ArrayList<>();
+                for (Map.Entry<Long, int[]> entry : expected.entrySet()) {
+                    int[] p = entry.getValue();
+                    long dx = p[1] - x;
+                    long dy = p[2] - y;
+                    if (p[0] == level && dx * dx + dy * dy <= (long) radius * radius) brute.add(entry.getKey());
+                }
+                Collections.sort(brute);
+                assertEquals(brute, query(index, level, x, y, radius));
+                assertEquals(expected.size(), index.size());
+            }
+        }
+    }
+}
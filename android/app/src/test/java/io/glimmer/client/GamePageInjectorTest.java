@@ -0,0 +1,116 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class GamePageInjectorTest {
+
+    private static final String SCRIPT = "<script>window.glimmer=1;</script>";
+
+    private static String readAll(InputStream in, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int length;
+        while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void streamMatchesInjectAcrossBufferBoundaries() throws Exception {
+        StringBuilder page = new StringBuilder("<!DOCTYPE html><HTML><Head><title>Zoë ⚔ 🗡</title></Head><body>");
+        while (page.length() < 100_000) page.append("<p>héllo wörld 🐉</p>\n");
+        String html = page.append("</body></html>").toString();
+
+        String expected = GamePageInjector.inject(html, SCRIPT);
+        assertTrue(expected.startsWith("<!DOCTYPE html><HTML><Head>" + SCRIPT + "<title>"));
+        assertEquals(expected, readAll(GamePageInjector.stream(html, SCRIPT), 7919));
+        assertEquals(expected, readAll(GamePageInjector.stream(html, SCRIPT), 64 * 1024));
+    }
+
+    // Cached, prepared and streamed loads must all end up with the same page.
+    private static final String[][] NO_HEAD = {
+            {"<html><body><canvas></canvas></body></html>",
+                    "<html><body><canvas></canvas>" + SCRIPT + "</body></html>"},
+            {"<HTML><BODY><canvas></canvas></BODY></HTML>",
+                    "<HTML><BODY><canvas></canvas>" + SCRIPT + "</BODY></HTML>"},
+            {"<body><p>a</p></body><body><p>b</p></body>",
+                    "<body><p>a</p></body><body><p>b</p>" + SCRIPT + "</body>"},
+    };
+
+    @Test
+    public void streamWithoutHeadInjectsBeforeBodyEnd() throws Exception {
+        for (String[] page : NO_HEAD) {
+            assertEquals(page[1], GamePageInjector.inject(page[0], SCRIPT));
+            assertEquals(page[1], readAll(GamePageInjector.stream(page[0], SCRIPT), 16));
+        }
+    }
+
+    @Test
+    public void streamLeavesPageAloneWithoutInjection() throws Exception {
+        String html = "<html><head></head><body>ø</body></html>";
+        assertEquals(html, readAll(GamePageInjector.stream(html, null), 3));
+        assertEquals("<p>no tags</p>", readAll(GamePageInjector.stream("<p>no tags</p>", SCRIPT), 3));
+    }
+
+    // Hands out at most chunk bytes per read, like a socket.
+    private static InputStream arriving(String html, int chunk) {
+        return new FilterInputStream(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                return super.read(target, offset, Math.min(length, chunk));
+            }
+        };
+    }
+
+    @Test
+    public void arrivingStreamMatchesInjectWhateverTheChunking() throws Exception {
+        StringBuilder page = new StringBuilder("<!DOCTYPE html><html><HEAD><title>Zoë ⚔</title></HEAD><body>");
+        while (page.length() < 50_000) page.append("<p>héllo 🐉</p>\n");
+        String html = page.append("</body></html>").toString();
+        String expected = GamePageInjector.inject(html, SCRIPT);
+        for (int chunk : new int[] {1, 3, 7, 4096}) {
+            InputStream in = GamePageInjector.stream(arriving(html, chunk), StandardCharsets.UTF_8, SCRIPT);
+            assertEquals("chunk " + chunk, expected, readAll(in, 1000));
+        }
+    }
+
+    @Test
+    public void arrivingStreamPassesBytesOnOnceHeadIsSeen() throws Exception {
+        StringBuilder page = new StringBuilder("<html><head></head><body>");
+        while (page.length() < 100_000) page.append("<p>x</p>");
+        String html = page.append("</body></html>").toString();
+        InputStream in = GamePageInjector.stream(arriving(html, 64), StandardCharsets.UTF_8, SCRIPT);
+        byte[] buffer = new byte[64 * 1024];
+        int first = in.read(buffer);
+        // Only the first chunk and the script, not the whole page.
+        assertEquals(64 + SCRIPT.length(), first);
+    }
+
+    @Test
+    public void arrivingStreamWithoutHeadInjectsBeforeBodyEnd() throws Exception {
+        for (String[] page : NO_HEAD) {
+            assertEquals(page[1],
+                    readAll(GamePageInjector.stream(arriving(page[0], 5), StandardCharsets.UTF_8, SCRIPT), 16));
+        }
+        assertEquals("<p>no tags</p>",
+                readAll(GamePageInjector.stream(arriving("<p>no tags</p>", 2), StandardCharsets.UTF_8, SCRIPT), 3));
+    }
+
+    @Test
+    public void singleByteReadsSeeEveryByte() throws Exception {
+        String html = "<head></head>ü";
+        InputStream in = GamePageInjector.stream(html, "<s>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) out.write(b);
+        assertEquals("<head><s></head>ü", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
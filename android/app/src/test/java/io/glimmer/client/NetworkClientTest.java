@@ -0,0 +1,93 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class NetworkClientTest {
+
+    // More than the pool has threads, so the keyed tasks below are queued.
+    private static final int BLOCKERS = 6;
+
+    private NetworkClient network;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<CountDownLatch> blockers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        network = NetworkClient.getInstance(RuntimeEnvironment.getApplication());
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    private void saturate() {
+        for (int i = 0; i < BLOCKERS; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            blockers.add(done);
+            network.submit(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+    }
+
+    @Test
+    public void queuedTaskThatIsSupersededIsAnsweredForOnce() throws Exception {
+        saturate();
+        AtomicBoolean firstRan = new AtomicBoolean();
+        AtomicInteger firstSuperseded = new AtomicInteger();
+        CountDownLatch secondRan = new CountDownLatch(1);
+        AtomicInteger secondSuperseded = new AtomicInteger();
+
+        network.submit("loadGame:1", () -> firstRan.set(true), firstSuperseded::incrementAndGet);
+        network.submit("loadGame:1", secondRan::countDown, secondSuperseded::incrementAndGet);
+        assertEquals(1, firstSuperseded.get());
+
+        release.countDown();
+        assertTrue(secondRan.await(5, TimeUnit.SECONDS));
+        for (CountDownLatch done : blockers) assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(firstRan.get());
+        assertEquals(1, firstSuperseded.get());
+        assertEquals(0, secondSuperseded.get());
+    }
+
+    @Test
+    public void startedTaskThatIsSupersededAnswersForItself() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch sawCancel = new CountDownLatch(1);
+        AtomicInteger superseded = new AtomicInteger();
+
+        network.submit("prepareGame", () -> {
+            started.countDown();
+            while (!network.isCancelled()) Thread.yield();
+            sawCancel.countDown();
+        }, superseded::incrementAndGet);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        network.cancel("prepareGame");
+
+        assertTrue(sawCancel.await(5, TimeUnit.SECONDS));
+        assertEquals(0, superseded.get());
+    }
+}
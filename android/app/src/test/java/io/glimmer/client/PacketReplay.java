@@ -0,0 +1,50 @@
+package io.glimmer.client;
+
+import java.io.IOException;
+
+// Feeds a PacketTrace into a PacketPipeline as fast as it can be read.
+// Frames recorded with the same timestamp came from one pushFrames() call,
+// so they are regrouped into one batch to reproduce the live batching.
+final class PacketReplay {
+
+    static final class Result {
+        long frames;
+        long batches;
+        long elapsedNanos;
+        long traceMillis;
+
+        double speedup() {
+            return elapsedNanos > 0 ? traceMillis * 1e6 / elapsedNanos : 0;
+        }
+    }
+
+    private PacketReplay() {
+    }
+
+    static Result run(PacketTrace.Reader trace, PacketPipeline pipeline) throws IOException {
+        Result result = new Result();
+        StringBuilder batch = new StringBuilder();
+        long batchTime = Long.MIN_VALUE;
+        long started = System.nanoTime();
+
+        while (trace.next()) {
+            if (trace.timeMillis != batchTime && batch.length() > 0) {
+                pipeline.process(batch.toString());
+                result.batches++;
+                batch.setLength(0);
+            }
+            batchTime = trace.timeMillis;
+            if (batch.length() > 0) batch.append('\n');
+            batch.append(trace.direction).append(trace.frame);
+            result.frames++;
+        }
+        if (batch.length() > 0) {
+            pipeline.process(batch.toString());
+            result.batches++;
+        }
+
+        result.elapsedNanos = System.nanoTime() - started;
+        result.traceMillis = batchTime == Long.MIN_VALUE ? 0 : batchTime - trace.startMillis;
+        return result;
+    }
+}
@@ -0,0 +1,428 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays packet traces through {@link PacketPipeline} on the host JVM.
+ *
+ * To check a trace pulled from a device:
+ * {@code ./gradlew :app:testDebugUnitTest -Dglimmer.trace=/path/to/glimmer-....gtrace}
+ */
+public class PacketReplayTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    // Records listener callbacks as short strings for easy assertions.
+    private static class RecordingListener implements PacketPipeline.Listener {
+        final List<String> events = new ArrayList<>();
+        final List<String> health = new ArrayList<>();
+
+        @Override
+        public void onLogin(long entityId) {
+            events.add("login " + entityId);
+        }
+
+        @Override
+        public void onLowHealth(int currentHealth, int maxHealth) {
+            events.add("lowHealth " + currentHealth + "/" + maxHealth);
+        }
+
+        @Override
+        public void onPrivateMessage(String from, String message) {
+            events.add("pm " + from + ": " + message);
+        }
+
+        @Override
+        public void onIdleStarted() {
+            events.add("idle");
+        }
+
+        @Override
+        public void onActivity() {
+            events.add("active");
+        }
+
+        @Override
+        public void onPositionChanged(int mapLevel, int x, int y) {
+        }
+
+        @Override
+        public void onHealthChanged(int currentHealth, int maxHealth, int damageTaken) {
+            health.add(currentHealth + "/" + maxHealth + " -" + damageTaken);
+        }
+
+        @Override
+        public void onEntityApproaching(long entityId, int distance) {
+            events.add("near " + entityId + " " + distance);
+        }
+
+        @Override
+        public void onRuleMatched(String name, String title, String body) {
+            events.add("rule " + name + ": " + body);
+        }
+
+        @Override
+        public void onChatKeyword(String keyword, String line) {
+            events.add("chat " + keyword + ": " + line);
+        }
+    }
+
+    private static String loginFrame(long entityId, int hitpoints) {
+        StringBuilder frame = new StringBuilder("42[\"15\",[").append(entityId);
+        for (int slot = 1; slot <= 48; slot++) {
+            frame.append(',').append(slot == 48 ? hitpoints : slot == 4 ? 1 : 0);
+        }
+        return frame.append("]]").toString();
+    }
+
+    private static String damageFrame(long target, int damage) {
+        return "42[\"8\",[77," + target + "," + damage + "]]";
+    }
+
+    private static String healFrame(long target, int hitpoints) {
+        return "42[\"91\",[0," + target + "," + hitpoints + "]]";
+    }
+
+    // Packet 3: [id, ?, ?, ?, ?, maxHP, curHP, mapLevel, x, y].
+    private static String chunkFrame(long entityId, int x, int y) {
+        return "42[\"3\",[" + entityId + ",0,0,0,0,10,10,1," + x + "," + y + "]]";
+    }
+
+    // Packet 12: [speaker, line, ...].
+    private static String chatFrame(long speaker, String line) {
+        return "42[\"12\",[" + speaker + ",\"" + line + "\"]]";
+    }
+
+    private static PacketTrace.Reader roundTrip(ByteArrayOutputStream bytes) throws IOException {
+        return new PacketTrace.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void traceRoundTripsFramesAndTimestamps() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.writeBatch(START + 5, "I" + damageFrame(1, 2) + "\nO42[\"1\",[10,[3,4]]]");
+            writer.write(START + 400_000, PacketPipeline.INBOUND, "42[\"pm\",{\"from\":\"Zoë\",\"msg\":\"hi\"}]");
+        }
+
+        PacketTrace.Reader reader = roundTrip(bytes);
+        assertEquals(START, reader.startMillis);
+        assertTrue(reader.next());
+        assertEquals(START + 5, reader.timeMillis);
+        assertEquals(PacketPipeline.INBOUND, reader.direction);
+        assertEquals(damageFrame(1, 2), reader.frame);
+        assertTrue(reader.next());
+        assertEquals(PacketPipeline.OUTBOUND, reader.direction);
+        assertEquals(START + 5, reader.timeMillis);
+        assertTrue(reader.next());
+        assertEquals(START + 400_000, reader.timeMillis);
+        assertEquals("42[\"pm\",{\"from\":\"Zoë\",\"msg\":\"hi\"}]", reader.frame);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void truncatedTraceStopsAtLastCompleteRecord() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int[] ends = new int[3];
+        int header;
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.flush();
+            header = bytes.size();
+            for (int i = 0; i < ends.length; i++) {
+                writer.write(START + i, PacketPipeline.INBOUND, damageFrame(1, 2 + i));
+                writer.flush();
+                ends[i] = bytes.size();
+            }
+        }
+        byte[] all = bytes.toByteArray();
+
+        // Every place a capture could have been flushed last.
+        for (int length = header; length <= all.length; length++) {
+            byte[] cut = new byte[length];
+            System.arraycopy(all, 0, cut, 0, length);
+            int complete = 0;
+            while (complete < ends.length && ends[complete] <= length) complete++;
+
+            PacketTrace.Reader reader = new PacketTrace.Reader(new ByteArrayInputStream(cut));
+            for (int i = 0; i < complete; i++) assertTrue("cut at " + length, reader.next());
+            assertFalse("cut at " + length, reader.next());
+        }
+    }
+
+    @Test
+    public void relogTracksNewEntityAndAlertsAgain() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START + 10, PacketPipeline.INBOUND, loginFrame(1001, 50));
+            writer.write(START + 20, PacketPipeline.INBOUND, damageFrame(1001, 45));
+            writer.write(START + 30, PacketPipeline.INBOUND, healFrame(1001, 50));
+            // Relog as a different character; hits on the old id must not count.
+            writer.write(START + 40, PacketPipeline.INBOUND, loginFrame(2002, 40));
+            writer.write(START + 50, PacketPipeline.INBOUND, damageFrame(1001, 39));
+            writer.write(START + 60, PacketPipeline.INBOUND, damageFrame(2002, 35));
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        PacketReplay.Result result = PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(6, result.frames);
+        assertEquals(6, result.batches);
+        assertEquals(0, pipeline.getStats().parseErrors);
+        assertEquals(2002, pipeline.getState().entityId);
+        assertEquals(5, pipeline.getState().currentHealth);
+        assertEquals(Arrays.asList("login 1001", "lowHealth 5/50", "login 2002", "lowHealth 5/40"), listener.events);
+    }
+
+    @Test
+    public void lowHealthAlertFiresOncePerDip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            // One batch: several hits below the threshold.
+            writer.writeBatch(START + 100, "I" + damageFrame(7, 85) + "\nI" + damageFrame(7, 5) + "\nI" + damageFrame(7, 1));
+            writer.write(START + 200, PacketPipeline.INBOUND, healFrame(7, 100));
+            writer.write(START + 300, PacketPipeline.INBOUND, damageFrame(7, 90));
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketReplay.Result result = PacketReplay.run(roundTrip(bytes), new PacketPipeline(Runnable::run, listener));
+
+        assertEquals(4, result.batches);
+        assertEquals(Arrays.asList("login 7", "lowHealth 15/100", "lowHealth 10/100"), listener.events);
+    }
+
+    @Test
+    public void lowHealthThresholdFollowsSettings() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            writer.write(START + 100, PacketPipeline.INBOUND, damageFrame(7, 60));
+            writer.write(START + 200, PacketPipeline.INBOUND, damageFrame(7, 15));
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        pipeline.setLowHealthPercent(50);
+        PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(Arrays.asList("login 7", "lowHealth 40/100"), listener.events);
+    }
+
+    @Test
+    public void alertRulesOnlyRunForTheirOwnPackets() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            writer.write(START + 100, PacketPipeline.INBOUND, damageFrame(7, 75));
+            writer.write(START + 200, PacketPipeline.INBOUND, healFrame(7, 35));
+            // Still within the hysteresis, so no second alert.
+            writer.write(START + 300, PacketPipeline.INBOUND, damageFrame(7, 7));
+            writer.write(START + 400, PacketPipeline.INBOUND, healFrame(7, 60));
+            writer.write(START + 500, PacketPipeline.INBOUND, damageFrame(7, 5));
+            writer.write(START + 600, PacketPipeline.INBOUND, damageFrame(8, 50));
+            writer.write(START + 700, PacketPipeline.INBOUND, damageFrame(7, 30));
+            writer.write(START + 800, PacketPipeline.INBOUND, "42[\"50\",[7]]");
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        pipeline.setAlerts(false, false, false);
+        pipeline.setAlertRules(AlertRules.compile("[{\"name\":\"Hurt\",\"action\":8,\"self\":1,"
+                + "\"field\":\"hpPercent\",\"op\":\"<\",\"value\":30,\"hysteresis\":10,\"body\":\"{hp}/{maxHp}\"},"
+                + "{\"name\":\"Died\",\"action\":50,\"self\":0}]"));
+        PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(Arrays.asList("login 7", "rule Hurt: 25/100", "rule Hurt: 25/100", "rule Died: Died"),
+                listener.events);
+    }
+
+    @Test
+    public void chatKeywordsMatchOtherPlayersLinesOnly() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            writer.write(START + 100, PacketPipeline.INBOUND, chatFrame(8, "Selling Dragon Bones cheap"));
+            writer.write(START + 200, PacketPipeline.INBOUND, chatFrame(7, "buying dragon bones"));
+            writer.write(START + 300, PacketPipeline.INBOUND, chatFrame(9, "bonesaw anyone?"));
+            writer.writeBatch(START + 400, "I42[\"0\",[[12,[10,\"wtb BONES\"]],[8,[77,7,1]]]]");
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        pipeline.setAlerts(false, false, false);
+        pipeline.setChatKeywords(ChatKeywords.compile("dragon bones\nbones", true));
+        PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(Arrays.asList("login 7", "chat dragon bones: Selling Dragon Bones cheap",
+                "chat bones: wtb BONES"), listener.events);
+    }
+
+    @Test
+    public void healthIsReportedOncePerBatchWithItsDamage() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            writer.writeBatch(START + 100, "I" + damageFrame(7, 10) + "\nI" + damageFrame(7, 5)
+                    + "\nI" + damageFrame(8, 50));
+            writer.write(START + 200, PacketPipeline.INBOUND, healFrame(7, 85));
+            writer.write(START + 300, PacketPipeline.INBOUND, healFrame(7, 100));
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        pipeline.setAlerts(true, false, false);
+        PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(Arrays.asList("100/100 -0", "85/100 -15", "100/100 -0"), listener.health);
+    }
+
+    @Test
+    public void historyKeepsPmsAndIdleWithAlertsOff() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            writer.write(START + 100, PacketPipeline.INBOUND, "42[\"1\",[1,[16,[7]]]]");
+            writer.write(START + 200, PacketPipeline.INBOUND, "42[\"pm\",{\"from\":\"Zoë\",\"msg\":\"hi\"}]");
+        }
+
+        RecordingListener quiet = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, quiet);
+        pipeline.setAlerts(true, false, false);
+        PacketReplay.run(roundTrip(bytes), pipeline);
+        assertEquals(Arrays.asList("login 7"), quiet.events);
+
+        RecordingListener recording = new RecordingListener();
+        pipeline = new PacketPipeline(Runnable::run, recording);
+        pipeline.setAlerts(true, false, false);
+        pipeline.setHistoryEnabled(true);
+        PacketReplay.run(roundTrip(bytes), pipeline);
+        assertEquals(Arrays.asList("login 7", "idle", "pm Zoë: hi"), recording.events);
+    }
+
+    @Test
+    public void idlePacketAfterTheAlertStartsAFreshCountdown() {
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        String idle = PacketPipeline.INBOUND + "42[\"1\",[1,[16,[7]]]]";
+        pipeline.process(PacketPipeline.INBOUND + loginFrame(7, 100));
+        pipeline.process(idle);
+        pipeline.process(idle);
+        pipeline.rearmIdle();
+        pipeline.process(idle);
+        pipeline.process(idle);
+        pipeline.process(PacketPipeline.INBOUND + chunkFrame(7, 5, 5));
+
+        assertEquals(Arrays.asList("login 7", "idle", "idle", "active"), listener.events);
+    }
+
+    @Test
+    public void approachAlertsOncePerEntityAfterArrival() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            // Whoever is already around at login does not count as approaching.
+            writer.writeBatch(START, "I" + loginFrame(7, 100) + "\nI" + chunkFrame(7, 0, 0)
+                    + "\nI" + chunkFrame(50, 3, 0));
+            writer.write(START + 100, PacketPipeline.INBOUND, chunkFrame(51, 30, 0));
+            writer.write(START + 200, PacketPipeline.INBOUND, chunkFrame(51, 6, 0));
+            writer.write(START + 300, PacketPipeline.INBOUND, chunkFrame(51, 4, 0));
+            writer.write(START + 400, PacketPipeline.INBOUND, chunkFrame(52, 0, 5));
+            // The player walks off; 50 and 51 fall out of view and are forgotten.
+            writer.write(START + 500, PacketPipeline.INBOUND, chunkFrame(7, 200, 0));
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        pipeline.setProximityAlert(true, 8);
+        PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(Arrays.asList("login 7", "near 51 6", "near 52 5"), listener.events);
+        assertEquals(0, pipeline.getEntities().size());
+        assertEquals(0, pipeline.getStats().entities);
+    }
+
+    @Test
+    public void chatLineIsTakenFromItsSlotOnly() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, START)) {
+            writer.write(START, PacketPipeline.INBOUND, loginFrame(7, 100));
+            // Trailing fields after the line are ignored.
+            writer.write(START + 100, PacketPipeline.INBOUND, "42[\"12\",[8,\"wts dragon bones\",0,\"#fff\"]]");
+            // A string in front is not the line: a player named after a
+            // keyword saying something else matches nothing.
+            writer.write(START + 200, PacketPipeline.INBOUND, "42[\"12\",[\"Dragon Bones\",\"hello all\"]]");
+            writer.write(START + 300, PacketPipeline.INBOUND, "42[\"12\",[9,0,\"dragon bones\"]]");
+        }
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        pipeline.setAlerts(false, false, false);
+        pipeline.setChatKeywords(ChatKeywords.compile("dragon bones", true));
+        PacketReplay.run(roundTrip(bytes), pipeline);
+
+        assertEquals(Arrays.asList("login 7", "chat dragon bones: wts dragon bones"), listener.events);
+    }
+
+    // With a capture that has public chat in it, checks the layout the chat
+    // watcher relies on: a numeric speaker, then the line as a string.
+    @Test
+    public void capturedChatFramesHaveTheLineInItsSlot() throws Exception {
+        String path = System.getProperty("glimmer.trace");
+        Assume.assumeTrue("Set -Dglimmer.trace to check chat frames in a captured trace", path != null);
+
+        int checked = 0;
+        FrameReader reader = new FrameReader();
+        try (PacketTrace.Reader trace = new PacketTrace.Reader(
+                new BufferedInputStream(new FileInputStream(new File(path)), 64 * 1024))) {
+            while (trace.next()) {
+                String frame = trace.frame;
+                if (trace.direction != PacketPipeline.INBOUND || !frame.startsWith("42[\"12\",[")) continue;
+                reader.reset(frame, 2, frame.length());
+                reader.beginArray();
+                reader.nextString();
+                reader.beginArray();
+                assertEquals(frame, FrameReader.NUMBER, reader.peek());
+                reader.skipValue();
+                assertTrue(frame, reader.hasNext());
+                assertEquals(frame, FrameReader.STRING, reader.peek());
+                checked++;
+            }
+        }
+        Assume.assumeTrue("The trace has no public chat in it", checked > 0);
+    }
+
+    @Test
+    public void replaysCapturedTraceFromDevice() throws Exception {
+        String path = System.getProperty("glimmer.trace");
+        Assume.assumeTrue("Set -Dglimmer.trace to replay a captured trace", path != null);
+
+        RecordingListener listener = new RecordingListener();
+        PacketPipeline pipeline = new PacketPipeline(Runnable::run, listener);
+        PacketReplay.Result result;
+        try (PacketTrace.Reader reader = new PacketTrace.Reader(
+                new BufferedInputStream(new FileInputStream(new File(path)), 64 * 1024))) {
+            result = PacketReplay.run(reader, pipeline);
+        }
+
+        PacketPipeline.Stats stats = pipeline.getStats();
+        System.out.printf("Replayed %d frames in %d batches: %.1fs of play in %.1fms (%.0fx), %d parse errors%n",
+                result.frames, result.batches, result.traceMillis / 1000.0, result.elapsedNanos / 1e6,
+                result.speedup(), stats.parseErrors);
+        for (String event : listener.events) System.out.println("  " + event);
+
+        assertEquals(result.frames, stats.frames);
+    }
+}
@@ -0,0 +1,75 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Drops the socket of a session and lets the supervisor bring the page back,
+// against a local stand-in for the game world.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ReconnectSupervisorTest {
+
+    private HttpServer world;
+
+    @Before
+    public void setUp() throws IOException {
+        world = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        world.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        world.start();
+    }
+
+    @After
+    public void tearDown() {
+        world.stop(0);
+    }
+
+    @Test
+    public void droppedSocketReloadsThePageOnceTheWorldAnswers() throws Exception {
+        ReconnectSupervisor supervisor = ReconnectSupervisor.getInstance(
+                RuntimeEnvironment.getApplication(), "reconnect-test", "Test");
+        AtomicInteger reloads = new AtomicInteger();
+        supervisor.setReloader(() -> {
+            reloads.incrementAndGet();
+            return true;
+        });
+        supervisor.onGameRequested("http://127.0.0.1:" + world.getAddress().getPort());
+        supervisor.onSocketOpened();
+        supervisor.onSocketClosed(1006);
+
+        // Past socket.io's grace period, then wait for the probe thread to
+        // report back to the main looper.
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(10));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reloads.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(1, reloads.get());
+
+        // The reloaded page connecting again ends the episode.
+        supervisor.onSocketOpened();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, reloads.get());
+    }
+}
@@ -0,0 +1,157 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Probes local stand-in servers in place of the game worlds.
+public class ServerProbeTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<ServerSocket> sockets = new ArrayList<>();
+    private final List<ExecutorService> handlers = new ArrayList<>();
+    private ExecutorService executor;
+    private ServerProbe probe;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        probe = new ServerProbe(executor);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (HttpServer server : servers) server.stop(0);
+        for (ServerSocket socket : sockets) socket.close();
+        for (ExecutorService handler : handlers) handler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    // An HTTP server that answers every request after delayMs.
+    private String startWorld(long delayMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        ExecutorService handler = Executors.newSingleThreadExecutor();
+        handlers.add(handler);
+        server.setExecutor(handler);
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static ServerProbe.Result find(List<ServerProbe.Result> results, String id) {
+        for (ServerProbe.Result result : results) {
+            if (result.id.equals(id)) return result;
+        }
+        throw new AssertionError("No result for " + id);
+    }
+
+    @Test
+    public void picksTheFasterWorld() throws Exception {
+        List<ServerProbe.Server> worlds = Arrays.asList(
+                new ServerProbe.Server("1", startWorld(80)),
+                new ServerProbe.Server("2", startWorld(0)));
+
+        List<ServerProbe.Result> results = probe.probeAll(worlds, 3, 1000);
+
+        ServerProbe.Result slow = find(results, "1");
+        ServerProbe.Result fast = find(results, "2");
+        assertEquals(3, slow.successes);
+        assertEquals(3, fast.successes);
+        assertTrue("slow rtt " + slow.rttMs, slow.rttMs >= 70);
+        assertTrue("fast rtt " + fast.rttMs, fast.rttMs < slow.rttMs);
+        assertEquals(-1, fast.tlsMs);
+        assertEquals("2", ServerProbe.best(results).id);
+    }
+
+    @Test
+    public void worldsAreProbedConcurrently() throws Exception {
+        List<ServerProbe.Server> worlds = Arrays.asList(
+                new ServerProbe.Server("1", startWorld(150)),
+                new ServerProbe.Server("2", startWorld(150)),
+                new ServerProbe.Server("3", startWorld(150)));
+
+        long start = System.nanoTime();
+        probe.probeAll(worlds, 2, 1000);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Sequentially this would take at least 900ms.
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < 800);
+    }
+
+    @Test
+    public void refusedWorldStopsAfterTwoFailures() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = closed.getLocalPort();
+        closed.close();
+
+        List<ServerProbe.Result> results = probe.probeAll(Arrays.asList(
+                new ServerProbe.Server("down", "http://127.0.0.1:" + port),
+                new ServerProbe.Server("up", startWorld(0))), 5, 500);
+
+        ServerProbe.Result down = find(results, "down");
+        assertFalse(down.isReachable());
+        assertEquals(2, down.failures);
+        assertEquals(-1, down.rttMs);
+        assertNotNull(down.error);
+        assertEquals("up", ServerProbe.best(results).id);
+    }
+
+    @Test
+    public void silentWorldTimesOut() throws Exception {
+        // Connections complete in the backlog but nothing ever answers.
+        ServerSocket silent = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        sockets.add(silent);
+
+        long start = System.nanoTime();
+        List<ServerProbe.Result> results = probe.probeAll(Arrays.asList(
+                new ServerProbe.Server("silent", "http://127.0.0.1:" + silent.getLocalPort())), 5, 200);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        ServerProbe.Result result = results.get(0);
+        assertEquals(0, result.successes);
+        assertEquals(2, result.failures);
+        assertEquals("Timed out", result.error);
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < 1500);
+        assertNull(ServerProbe.best(results));
+    }
+
+    @Test
+    public void probeCountIsBounded() throws Exception {
+        List<ServerProbe.Result> results = probe.probeAll(Arrays.asList(
+                new ServerProbe.Server("1", startWorld(0))), 50, 500);
+
+        assertEquals(ServerProbe.MAX_PROBES, results.get(0).successes);
+    }
+
+    @Test
+    public void medianAndJitter() {
+        assertEquals(20, ServerProbe.median(new long[]{40, 10, 20}, 3));
+        assertEquals(15, ServerProbe.median(new long[]{10, 20, 99}, 2));
+        assertEquals(0, ServerProbe.jitter(new long[]{30}, 1));
+        // |20-10| + |15-20| + |35-15| = 35 over 3 gaps.
+        assertEquals(11, ServerProbe.jitter(new long[]{10, 20, 15, 35}, 4));
+    }
+}
@@ -0,0 +1,187 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class SessionHistoryTest {
+
+    private static final String DB = "history-test.db";
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    // Minute aligned, so position compaction buckets are predictable.
+    private static final long NOW = System.currentTimeMillis() / 60_000 * 60_000;
+
+    private Application app;
+    private SessionHistory history;
+
+    @Before
+    public void setUp() throws Exception {
+        app = RuntimeEnvironment.getApplication();
+        history = new SessionHistory(app, DB);
+        history.recorder(null).setServer("1");
+        // Let the maintenance pass scheduled at start-up finish first.
+        history.onWriter(() -> null);
+    }
+
+    private void add(long at, int type, long a, int b, int c) {
+        history.append(new SessionHistory.Event(at, type, a, b, c, type == SessionHistory.EVENT_START ? "1" : null, null));
+    }
+
+    private void pm(long at, String from, String message) {
+        history.append(new SessionHistory.Event(at, SessionHistory.EVENT_PM, 0, 0, 0, from, message));
+    }
+
+    private JSONArray sessions() throws Exception {
+        JSObject result = history.onWriter(() -> {
+            history.flush();
+            return history.querySummaries(50, 0);
+        });
+        return result.getJSONArray("sessions");
+    }
+
+    @Test
+    public void summaryAddsUpAcrossCommits() throws Exception {
+        long start = NOW - 2 * 60 * 60 * 1000L;
+        add(start, SessionHistory.EVENT_START, 7, 0, 0);
+        add(start + 1000, SessionHistory.EVENT_HEALTH, 40, 50, 10);
+        pm(start + 2000, "Zoë", "hi");
+        add(start + 3000, SessionHistory.EVENT_IDLE_START, 0, 0, 0);
+        history.onWriter(() -> {
+            history.flush();
+            return null;
+        });
+
+        add(start + 63_000, SessionHistory.EVENT_IDLE_END, 0, 0, 0);
+        add(start + 70_000, SessionHistory.EVENT_HEALTH, 35, 50, 5);
+        pm(start + 80_000, "Zoë", "still there?");
+        add(start + 85_000, SessionHistory.EVENT_IDLE_START, 0, 0, 0);
+        add(start + 95_000, SessionHistory.EVENT_POSITION, 1, 10, 20);
+        add(start + 100_000, SessionHistory.EVENT_END, 0, 0, 0);
+
+        JSONArray sessions = sessions();
+        assertEquals(1, sessions.length());
+        JSONObject session = sessions.getJSONObject(0);
+        assertEquals(start, session.getLong("startedAt"));
+        assertEquals(start + 95_000, session.getLong("endedAt"));
+        assertEquals("1", session.getString("server"));
+        assertEquals(15, session.getLong("damageTaken"));
+        assertEquals(2, session.getInt("pms"));
+        // 60s, plus the period still open when the session ended.
+        assertEquals(70_000, session.getLong("idleMs"));
+        assertEquals(8, session.getInt("events"));
+        assertFalse(session.getBoolean("active"));
+    }
+
+    @Test
+    public void reconnectContinuesSessionButRelogStartsNewOne() throws Exception {
+        long start = NOW - 60 * 60 * 1000L;
+        add(start, SessionHistory.EVENT_START, 7, 0, 0);
+        add(start + 1000, SessionHistory.EVENT_HEALTH, 40, 50, 10);
+        add(start + 60_000, SessionHistory.EVENT_START, 7, 0, 0);
+        add(start + 61_000, SessionHistory.EVENT_HEALTH, 30, 50, 10);
+        add(start + 62_000, SessionHistory.EVENT_START, 8, 0, 0);
+        add(start + 63_000, SessionHistory.EVENT_HEALTH, 20, 20, 0);
+        add(start + 63_000 + 6 * 60 * 1000L, SessionHistory.EVENT_START, 8, 0, 0);
+
+        JSONArray sessions = sessions();
+        assertEquals(3, sessions.length());
+        assertTrue(sessions.getJSONObject(0).getBoolean("active"));
+        assertEquals(0, sessions.getJSONObject(1).getLong("damageTaken"));
+        assertEquals(20, sessions.getJSONObject(2).getLong("damageTaken"));
+        assertEquals(start + 61_000, sessions.getJSONObject(2).getLong("endedAt"));
+    }
+
+    @Test
+    public void pagesFromTheNewestSession() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            add(NOW - (10 - i) * 60 * 60 * 1000L, SessionHistory.EVENT_START, 100 + i, 0, 0);
+        }
+        JSONArray newest = history.onWriter(() -> {
+            history.flush();
+            return history.querySummaries(2, 0);
+        }).getJSONArray("sessions");
+        assertEquals(2, newest.length());
+        long before = newest.getJSONObject(1).getLong("id");
+        JSObject older = history.onWriter(() -> history.querySummaries(10, before));
+        assertEquals(3, older.getJSONArray("sessions").length());
+        assertEquals(5, older.getJSONObject("totals").getLong("sessions"));
+    }
+
+    @Test
+    public void maintenanceDropsExpiredSessionsAndThinsOldPositions() throws Exception {
+        history.setRetentionDays(30);
+        add(NOW - 40 * DAY, SessionHistory.EVENT_START, 1, 0, 0);
+        add(NOW - 40 * DAY + 1000, SessionHistory.EVENT_HEALTH, 10, 10, 0);
+        long old = NOW - 10 * DAY;
+        add(old, SessionHistory.EVENT_START, 2, 0, 0);
+        for (int i = 0; i < 300; i++) add(old + i * 1000L, SessionHistory.EVENT_POSITION, 1, i, 0);
+        long recent = NOW - 60 * 60 * 1000L;
+        add(recent, SessionHistory.EVENT_START, 3, 0, 0);
+        for (int i = 0; i < 300; i++) add(recent + i * 1000L, SessionHistory.EVENT_POSITION, 1, i, 0);
+        add(recent + 300_000, SessionHistory.EVENT_END, 0, 0, 0);
+
+        history.onWriter(() -> {
+            history.runMaintenance(NOW);
+            return null;
+        });
+
+        JSONArray sessions = sessions();
+        assertEquals(2, sessions.length());
+
+        Map<Long, Integer> positions = new HashMap<>();
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(app.getDatabasePath(DB).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+             Cursor cursor = db.rawQuery("SELECT session_id, COUNT(*) FROM events WHERE type = "
+                     + SessionHistory.EVENT_POSITION + " GROUP BY session_id", null)) {
+            while (cursor.moveToNext()) positions.put(cursor.getLong(0), cursor.getInt(1));
+        }
+        assertEquals(Integer.valueOf(5), positions.get(sessions.getJSONObject(1).getLong("id")));
+        assertEquals(Integer.valueOf(300), positions.get(sessions.getJSONObject(0).getLong("id")));
+    }
+
+    @Test
+    public void parallelSessionsKeepTheirOwnRows() throws Exception {
+        long start = NOW - 60 * 60 * 1000L;
+        history.append(new SessionHistory.Event(null, start, SessionHistory.EVENT_START, 7, 0, 0, "1", null));
+        history.append(new SessionHistory.Event("2", start + 10, SessionHistory.EVENT_START, 9, 0, 0, "2", null));
+        history.append(new SessionHistory.Event(null, start + 20, SessionHistory.EVENT_HEALTH, 40, 50, 10, null, null));
+        history.append(new SessionHistory.Event("2", start + 30, SessionHistory.EVENT_HEALTH, 10, 50, 3, null, null));
+        history.append(new SessionHistory.Event("2", start + 40, SessionHistory.EVENT_END, 0, 0, 0, null, null));
+
+        JSONArray sessions = sessions();
+        assertEquals(2, sessions.length());
+        JSONObject second = sessions.getJSONObject(0);
+        assertEquals("2", second.getString("server"));
+        assertEquals(3, second.getLong("damageTaken"));
+        assertFalse(second.getBoolean("active"));
+        JSONObject first = sessions.getJSONObject(1);
+        assertEquals(10, first.getLong("damageTaken"));
+        assertTrue(first.getBoolean("active"));
+    }
+
+    @Test
+    public void nothingIsRecordedWhileTurnedOff() throws Exception {
+        history.setRetentionDays(0);
+        history.recorder(null).startSession(7);
+        history.recorder(null).recordHealth(1, 10, 9);
+        assertEquals(0, sessions().length());
+    }
+}
@@ -0,0 +1,73 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SettingsSnapshotTest {
+
+    private static SettingsSnapshot snapshot() {
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("glimmer_pmAlert", false);
+        raw.put("glimmer_pmAlert@2", true);
+        raw.put("glimmer_idleTimeoutSec", "300");
+        raw.put("glimmer_idleTimeoutSec@3", "60");
+        raw.put("glimmer_logLevel@2", "debug");
+        raw.put("other_key", "ignored");
+        return new SettingsSnapshot(7, raw);
+    }
+
+    @Test
+    public void sessionOverridesReplaceSharedValues() {
+        SettingsSnapshot scoped = snapshot().scoped("2");
+        assertEquals(7, scoped.version);
+        assertTrue(scoped.isEnabled("glimmer_pmAlert"));
+        assertEquals("debug", scoped.getString("glimmer_logLevel", "info"));
+        assertEquals(300, scoped.getInt("glimmer_idleTimeoutSec", 0));
+        assertTrue(scoped.isEnabled("glimmer_idleAlert"));
+    }
+
+    @Test
+    public void otherSessionsOverridesAreDropped() {
+        SettingsSnapshot scoped = snapshot().scoped("3");
+        assertFalse(scoped.isEnabled("glimmer_pmAlert"));
+        assertEquals(60, scoped.getInt("glimmer_idleTimeoutSec", 0));
+        for (String key : scoped.asMap().keySet()) {
+            assertEquals(key, -1, key.indexOf(SettingsSnapshot.SCOPE));
+        }
+        assertFalse(scoped.toJson().contains("@"));
+    }
+
+    @Test
+    public void primaryScopeKeepsOnlySharedValues() {
+        SettingsSnapshot scoped = snapshot().scoped(null);
+        assertFalse(scoped.isEnabled("glimmer_pmAlert"));
+        assertEquals("info", scoped.getString("glimmer_logLevel", "info"));
+        assertEquals(5, scoped.asMap().size());
+    }
+
+    @Test
+    public void tagMustMatchWholeSuffix() {
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("glimmer_pmAlert", false);
+        raw.put("glimmer_pmAlert@12", true);
+        assertFalse(new SettingsSnapshot(1, raw).scoped("2").isEnabled("glimmer_pmAlert"));
+        assertTrue(new SettingsSnapshot(1, raw).scoped("12").isEnabled("glimmer_pmAlert"));
+    }
+
+    @Test
+    public void timingsAreNotSettings() {
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("glimmer_pmAlert", false);
+        raw.put("glimmer_lastTiming_loadGame", "{\"totalMs\":1240}");
+        raw.put("glimmer_lastTiming_firstFrame", "{\"ms\":900}");
+        SettingsSnapshot snapshot = new SettingsSnapshot(1, raw);
+        assertFalse(snapshot.asMap().containsKey("glimmer_lastTiming_loadGame"));
+        assertFalse(snapshot.toJson().contains("lastTiming"));
+        assertFalse(SettingsSnapshot.isSetting("glimmer_lastTiming_firstFrame_inline"));
+        assertTrue(SettingsSnapshot.isSetting("glimmer_pmAlert"));
+    }
+}
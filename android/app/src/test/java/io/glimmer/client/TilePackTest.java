@@ -0,0 +1,110 @@
+package io.glimmer.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class TilePackTest {
+
+    private static byte[] png(String label) {
+        byte[] body = label.getBytes(StandardCharsets.US_ASCII);
+        byte[] image = new byte[body.length + 1];
+        image[0] = (byte) 0x89;
+        System.arraycopy(body, 0, image, 1, body.length);
+        return image;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.duplicate().get(out);
+        return out;
+    }
+
+    private static byte[] pack() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Written out of order on purpose; the writer sorts the index.
+        TilePack.write(out, 256, 64, -512, -512, Arrays.asList(
+                new TilePack.Tile(1, 3, 4, png("overworld 3,4")),
+                new TilePack.Tile(0, -2, 0, png("underworld -2,0")),
+                new TilePack.Tile(1, 0, 0, "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII))));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void looksUpTilesByLevelAndPosition() throws Exception {
+        TilePack tiles = TilePack.wrap(ByteBuffer.wrap(pack()));
+
+        assertEquals(3, tiles.size());
+        assertEquals(256, tiles.tilePixels);
+        assertEquals(-512, tiles.originX);
+        assertArrayEquals(png("overworld 3,4"), bytes(tiles.tile(1, 3, 4)));
+        assertArrayEquals(png("underworld -2,0"), bytes(tiles.tile(0, -2, 0)));
+        assertNull(tiles.tile(2, 3, 4));
+        assertNull(tiles.tile(1, 4, 3));
+
+        assertEquals("image/png", TilePack.mimeType(tiles.tile(1, 3, 4)));
+        assertEquals("image/webp", TilePack.mimeType(tiles.tile(1, 0, 0)));
+        assertEquals("{\"tilePixels\":256,\"worldPerTile\":64,\"originX\":-512,\"originY\":-512,\"tiles\":3}",
+                tiles.toJson());
+    }
+
+    @Test
+    public void tileViewsAreIndependentAndReadOnly() throws Exception {
+        TilePack tiles = TilePack.wrap(ByteBuffer.wrap(pack()));
+        ByteBuffer first = tiles.tile(1, 3, 4);
+        first.get();
+        assertEquals(png("overworld 3,4").length, tiles.tile(1, 3, 4).remaining());
+        assertTrue(first.isReadOnly());
+    }
+
+    // Same as an APK asset: the pack sits at an offset inside a larger file.
+    @Test
+    public void mapsAPackAtAnOffset() throws Exception {
+        byte[] pack = pack();
+        File file = File.createTempFile("tiles", ".gtp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[100]);
+                out.write(pack);
+                out.write(new byte[7]);
+            }
+            TilePack tiles;
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                tiles = TilePack.map(in.getChannel(), 100, pack.length);
+            }
+            assertArrayEquals(png("underworld -2,0"), bytes(tiles.tile(0, -2, 0)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectsBrokenPacks() throws Exception {
+        byte[] pack = pack();
+        try {
+            TilePack.wrap(ByteBuffer.wrap(Arrays.copyOf(pack, 30)));
+            fail("Truncated index accepted");
+        } catch (IOException expected) {
+        }
+        try {
+            TilePack.wrap(ByteBuffer.wrap(Arrays.copyOf(pack, pack.length - 1)));
+            fail("Truncated tile accepted");
+        } catch (IOException expected) {
+        }
+        pack[0] = 'X';
+        try {
+            TilePack.wrap(ByteBuffer.wrap(pack));
+            fail("Bad magic accepted");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.glimmer.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// What user-defined alert rules cost the packet thread: one batch of combat
+// traffic through PacketPipeline with a growing rule set. With the rules on
+// packets that are not in the batch ("other") the time per batch should not
+// move from 0 to 1000 rules; only rules on the batch's own packets ("hit")
+// are ever looked at.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AlertRulesBenchmark {
+
+    private static final long PLAYER = 7;
+
+    @Param({"0", "10", "1000"})
+    public int rules;
+
+    @Param({"other", "hit"})
+    public String target;
+
+    private PacketPipeline pipeline;
+    private String batch;
+    private int matched = 0;
+
+    @Setup
+    public void setUp() {
+        pipeline = new PacketPipeline(Runnable::run, new PacketPipeline.Listener() {
+            @Override public void onLogin(long entityId) {}
+            @Override public void onLowHealth(int currentHealth, int maxHealth) {}
+            @Override public void onPrivateMessage(String from, String message) {}
+            @Override public void onIdleStarted() {}
+            @Override public void onActivity() {}
+            @Override public void onPositionChanged(int mapLevel, int x, int y) {}
+            @Override public void onHealthChanged(int currentHealth, int maxHealth, int damageTaken) {}
+            @Override public void onEntityApproaching(long entityId, int distance) {}
+            @Override public void onChatKeyword(String keyword, String line) {}
+            @Override public void onRuleMatched(String name, String title, String body) {
+                matched++;
+            }
+        });
+
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < rules; i++) {
+            int action = "hit".equals(target) ? 8 : 100 + i % 900;
+            if (i > 0) json.append(',');
+            // Never true, so every rule is fully evaluated on every hit.
+            json.append("{\"name\":\"Rule ").append(i).append("\",\"action\":").append(action)
+                    .append(",\"self\":1,\"field\":2,\"op\":\">\",\"value\":1000}");
+        }
+        pipeline.setAlertRules(AlertRules.compile(json.append(']').toString()));
+
+        StringBuilder login = new StringBuilder("I42[\"15\",[").append(PLAYER);
+        for (int slot = 1; slot <= 48; slot++) login.append(',').append(slot == 48 ? 99 : slot == 4 ? 1 : 0);
+        pipeline.process(login.append("]]").toString());
+
+        // A busy fight: hits on the player and others, heals, people moving.
+        StringBuilder frames = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) frames.append('\n');
+            switch (i % 4) {
+                case 0: frames.append("I42[\"8\",[77,").append(PLAYER).append(",1]]"); break;
+                case 1: frames.append("I42[\"8\",[").append(PLAYER).append(',').append(200 + i).append(",3]]"); break;
+                case 2: frames.append("I42[\"91\",[0,").append(PLAYER).append(",99]]"); break;
+                default: frames.append("I42[\"3\",[").append(300 + i).append(",0,0,0,0,10,10,1,").append(i).append(",5]]");
+            }
+        }
+        batch = frames.toString();
+    }
+
+    @Benchmark
+    public int processBatch() {
+        pipeline.process(batch);
+        return matched;
+    }
+}
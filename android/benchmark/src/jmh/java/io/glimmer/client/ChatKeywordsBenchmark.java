@@ -0,0 +1,166 @@
+package io.glimmer.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// What watching public chat costs per line: the ChatKeywords automaton
+// against one indexOf per keyword, the check it replaces, plus a whole chat
+// batch through PacketPipeline. The automaton should not move from 10 to
+// 1000 keywords; the indexOf loop grows with the list.
+//
+// The chat lines come from -Dglimmer.trace when it points at a capture with
+// public chat in it, otherwise from a generated trace of a busy trade spot.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChatKeywordsBenchmark {
+
+    private static final String[] WORDS = {
+            "selling", "buying", "wts", "wtb", "dragon", "bones", "rune", "scimitar", "lobster", "logs",
+            "anyone", "want", "to", "trade", "for", "gold", "cheap", "pm", "me", "lol", "where", "is",
+            "the", "bank", "nice", "drop", "gz", "level", "99", "fishing", "hi", "help", "please", "ty"
+    };
+
+    @Param({"10", "1000"})
+    public int keywords;
+
+    private String[] lines;
+    private String[] keywordList;
+    private ChatKeywords automaton;
+    private PacketPipeline pipeline;
+    private String batch;
+    private int matched = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        String path = System.getProperty("glimmer.trace");
+        List<String> frames = path != null ? readChat(new BufferedInputStream(new FileInputStream(path), 64 * 1024))
+                : List.of();
+        if (frames.isEmpty()) frames = readChat(new ByteArrayInputStream(generateTrace()));
+
+        // The line is in slot CHAT_LINE of the payload, as PacketPipeline reads it.
+        List<String> chat = new ArrayList<>();
+        StringBuilder frameBatch = new StringBuilder();
+        FrameReader reader = new FrameReader();
+        for (String frame : frames) {
+            reader.reset(frame, 2, frame.length());
+            reader.beginArray();
+            reader.nextString();
+            reader.beginArray();
+            for (int slot = 0; slot < PacketPipeline.CHAT_LINE && reader.hasNext(); slot++) reader.skipValue();
+            if (!reader.hasNext() || reader.peek() != FrameReader.STRING) continue;
+            chat.add(reader.nextString());
+            if (frameBatch.length() > 0) frameBatch.append('\n');
+            frameBatch.append(PacketPipeline.INBOUND).append(frame);
+        }
+        lines = chat.toArray(new String[0]);
+        batch = frameBatch.toString();
+
+        // Mostly made-up names that never show up, a few real words that do.
+        Random random = new Random(25);
+        keywordList = new String[keywords];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < keywords; i++) {
+            keywordList[i] = i % 100 == 0 ? WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    : "item" + Integer.toString(random.nextInt(1 << 20), 36);
+            text.append(keywordList[i]).append('\n');
+        }
+        automaton = ChatKeywords.compile(text.toString(), false);
+
+        pipeline = new PacketPipeline(Runnable::run, new PacketPipeline.Listener() {
+            @Override public void onLogin(long entityId) {}
+            @Override public void onLowHealth(int currentHealth, int maxHealth) {}
+            @Override public void onPrivateMessage(String from, String message) {}
+            @Override public void onIdleStarted() {}
+            @Override public void onActivity() {}
+            @Override public void onPositionChanged(int mapLevel, int x, int y) {}
+            @Override public void onHealthChanged(int currentHealth, int maxHealth, int damageTaken) {}
+            @Override public void onEntityApproaching(long entityId, int distance) {}
+            @Override public void onRuleMatched(String name, String title, String body) {}
+            @Override public void onChatKeyword(String keyword, String line) {
+                matched++;
+            }
+        });
+        pipeline.setChatKeywords(automaton);
+    }
+
+    // The packet 12 frames of a trace.
+    private static List<String> readChat(InputStream in) throws IOException {
+        List<String> frames = new ArrayList<>();
+        try (PacketTrace.Reader trace = new PacketTrace.Reader(in)) {
+            while (trace.next()) {
+                if (trace.direction == PacketPipeline.INBOUND && trace.frame.startsWith("42[\"12\",[")) {
+                    frames.add(trace.frame);
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] generateTrace() throws IOException {
+        Random random = new Random(12);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PacketTrace.Writer writer = new PacketTrace.Writer(bytes, 0)) {
+            for (int i = 0; i < 500; i++) {
+                StringBuilder line = new StringBuilder();
+                int words = 2 + random.nextInt(8);
+                for (int w = 0; w < words; w++) {
+                    String word = WORDS[random.nextInt(WORDS.length)];
+                    if (w > 0) line.append(' ');
+                    line.append(random.nextInt(4) == 0 ? word.toUpperCase(Locale.ROOT) : word);
+                }
+                writer.write(i * 300L, PacketPipeline.INBOUND,
+                        "42[\"12\",[" + (100 + random.nextInt(40)) + ",\"" + line + "\"]]");
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int automaton() {
+        int found = 0;
+        for (String line : lines) {
+            if (automaton.match(line) != null) found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int indexOfEach() {
+        int found = 0;
+        for (String line : lines) {
+            String lower = line.toLowerCase(Locale.ROOT);
+            for (String keyword : keywordList) {
+                if (lower.contains(keyword)) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int pipeline() {
+        pipeline.process(batch);
+        return matched;
+    }
+}
@@ -0,0 +1,57 @@
+package io.glimmer.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// What a crowded area costs the packet thread: one packet 3 per entity
+// moving, and the proximity query an alert would run.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EntityIndexBenchmark {
+
+    @Param({"50", "500"})
+    public int crowd;
+
+    private EntityIndex index;
+    private int[] xs;
+    private int[] ys;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        index = new EntityIndex();
+        xs = new int[crowd];
+        ys = new int[crowd];
+        for (int i = 0; i < crowd; i++) {
+            xs[i] = random.nextInt(96) - 48;
+            ys[i] = random.nextInt(96) - 48;
+            index.put(i, 1, xs[i], ys[i], 10, 10);
+        }
+    }
+
+    @Benchmark
+    public boolean move() {
+        int i = next;
+        next = (next + 1) % crowd;
+        xs[i] = xs[i] >= 47 ? -48 : xs[i] + 1;
+        return index.put(i, 1, xs[i], ys[i], PlayerState.UNKNOWN, PlayerState.UNKNOWN);
+    }
+
+    @Benchmark
+    public int queryNearby(Blackhole blackhole) {
+        return index.query(1, 0, 0, PacketPipeline.DEFAULT_PROXIMITY_RADIUS,
+                (id, x, y, health, maxHealth) -> blackhole.consume(id));
+    }
+}
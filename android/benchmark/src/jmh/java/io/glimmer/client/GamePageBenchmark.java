@@ -0,0 +1,109 @@
+package io.glimmer.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// The work GlimmerPlugin does before handing the game page to the
+// WebView: reading the two shipped scripts and splicing them after <head>.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GamePageBenchmark {
+
+    // Sizes around what the game server returns, with its inlined bundles.
+    @Param({"300", "800"})
+    public int pageKb;
+
+    private byte[] interactJs;
+    private byte[] injectedJs;
+    private String injections;
+    private String html;
+
+    @Setup
+    public void setUp() throws IOException {
+        File www = new File(System.getProperty("glimmer.www", "../../www"));
+        interactJs = Files.readAllBytes(new File(www, "interact.min.js").toPath());
+        injectedJs = Files.readAllBytes(new File(www, "injected-script.js").toPath());
+        injections = GamePageInjector.scriptTag(new String(interactJs, "UTF-8"), new String(injectedJs, "UTF-8"));
+        html = gamePage(pageKb * 1024);
+    }
+
+    // Shaped like the real page: a doctype and comment before an upper-case
+    // <HEAD>, then markup and large inline scripts filling the body.
+    static String gamePage(int size) {
+        StringBuilder page = new StringBuilder(size + 4096)
+                .append("<!DOCTYPE html>\n<!-- HighSpell client build -->\n<html lang=\"en\">\n<HEAD>\n")
+                .append("<meta charset=\"utf-8\"><meta name=\"viewport\" content=\"width=device-width\">\n")
+                .append("<title>HighSpell</title>\n<link rel=\"stylesheet\" href=\"/css/game.css\">\n")
+                .append("</HEAD>\n<body>\n<div id=\"game-container\"><canvas id=\"game\"></canvas></div>\n");
+        int chunk = 0;
+        while (page.length() < size) {
+            page.append("<script>(function(){var t").append(chunk).append("={id:").append(chunk)
+                    .append(",name:\"entity_").append(chunk).append("\",hp:[10,20,30],flags:0x1f};")
+                    .append("window.__defs=(window.__defs||[]).concat([t").append(chunk).append("]);})();</script>\n")
+                    .append("<div class=\"hs-panel\" data-slot=\"").append(chunk).append("\"><span>Slot ")
+                    .append(chunk).append("</span></div>\n");
+            chunk++;
+        }
+        return page.append("</body>\n</html>\n").toString();
+    }
+
+    @Benchmark
+    public String loadScripts() throws IOException {
+        return GamePageInjector.scriptTag(
+                GamePageInjector.readScript(new ByteArrayInputStream(interactJs)),
+                GamePageInjector.readScript(new ByteArrayInputStream(injectedJs)));
+    }
+
+    @Benchmark
+    public String inject() {
+        return GamePageInjector.inject(html, injections);
+    }
+
+    @Benchmark
+    public String loadAndInject() throws IOException {
+        return GamePageInjector.inject(html, loadScripts());
+    }
+
+    // What the WebView pulls through GamePageServer: the splice done while
+    // encoding, against the page alone as served with a document-start script.
+    @Benchmark
+    public long streamInline() throws IOException {
+        return drain(GamePageInjector.stream(html, injections));
+    }
+
+    @Benchmark
+    public long streamDocumentStart() throws IOException {
+        return drain(GamePageInjector.stream(html, null));
+    }
+
+    private final byte[] readBuffer = new byte[16 * 1024];
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        int length;
+        while ((length = in.read(readBuffer)) != -1) total += length;
+        return total;
+    }
+
+    // The splice as it was before GamePageInjector, kept as a reference point.
+    @Benchmark
+    public String injectLowerCaseCopy() {
+        int headIndex = html.toLowerCase().indexOf("<head>");
+        int at = headIndex + "<head>".length();
+        return html.substring(0, at) + injections + html.substring(at);
+    }
+}
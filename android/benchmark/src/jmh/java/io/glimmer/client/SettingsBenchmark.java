@@ -0,0 +1,59 @@
+package io.glimmer.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// GlimmerNativeBridge.getSettings hands out the cached snapshot JSON; the
+// real cost sits in rebuilding the snapshot when the launcher saves a key.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsBenchmark {
+
+    private Map<String, Object> prefs;
+    private SettingsSnapshot snapshot;
+    private int version = 0;
+
+    @Setup
+    public void setUp() {
+        // What CapacitorStorage holds after a typical launcher session,
+        // including the keys of other plugins that the snapshot filters out.
+        prefs = new HashMap<>();
+        prefs.put("glimmer_server", "{\"name\":\"World 1\",\"url\":\"https://server1.highspell.com:8888\"}");
+        prefs.put("glimmer_idleAlert", "true");
+        prefs.put("glimmer_pmAlert", "true");
+        prefs.put("glimmer_healthAlert", "false");
+        prefs.put("glimmer_idleTimeoutSec", "45");
+        prefs.put("glimmer_logLevel", "debug");
+        prefs.put("glimmer_mapEnabled", "true");
+        prefs.put("glimmer_metricsOverlay", "false");
+        prefs.put("glimmer_captureEnabled", "false");
+        prefs.put("glimmer_runInBackground", "true");
+        prefs.put("glimmer_wakelock", "false");
+        prefs.put("glimmer_lastTiming_loadGame",
+                "{\"totalMs\":1240,\"dnsMs\":38,\"connectMs\":112,\"ttfbMs\":406,\"bodyMs\":684}");
+        for (int i = 0; i < 20; i++) {
+            prefs.put("launcher_recent_" + i, "value " + i);
+        }
+        snapshot = new SettingsSnapshot(1, prefs);
+    }
+
+    @Benchmark
+    public String getSettings() {
+        return snapshot.toJson();
+    }
+
+    @Benchmark
+    public String rebuildSnapshot() {
+        return new SettingsSnapshot(++version, prefs).toJson();
+    }
+}
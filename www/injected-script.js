@@ -1,11 +1,54 @@
-const glimmerLog = (message) => {
-    if (window.GlimmerNative && window.GlimmerNative.log) {
+const LOG_OFF = 0;
+const LOG_ERROR = 1;
+const LOG_INFO = 2;
+const LOG_DEBUG = 3;
+
+// Hot paths compare against this before building any log string, so with
+// logging turned down a packet costs nothing extra.
+let glimmerLogLevel = (window.GlimmerNative && window.GlimmerNative.getLogLevel)
+    ? window.GlimmerNative.getLogLevel()
+    : LOG_INFO;
+
+// Lines are handed to the native ring buffer in batches instead of one
+// bridge call per line.
+const glimmerLogQueue = {
+    lines: [],
+    flushScheduled: false,
+
+    push: function(level, message) {
+        this.lines.push(level + message);
+        if (this.lines.length >= 200) {
+            this.flush();
+        } else if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            setTimeout(() => this.flush(), 500);
+        }
+    },
+
+    flush: function() {
+        this.flushScheduled = false;
+        if (this.lines.length === 0) return;
+        const batch = this.lines.join('\n');
+        this.lines.length = 0;
+        window.GlimmerNative.logBatch(batch);
+    }
+};
+
+const glimmerLog = (message, level = LOG_INFO) => {
+    if (level > glimmerLogLevel) return;
+    if (window.GlimmerNative && window.GlimmerNative.logBatch) {
+        glimmerLogQueue.push(level, String(message).replace(/\n/g, ' '));
+    } else if (window.GlimmerNative && window.GlimmerNative.log) {
         window.GlimmerNative.log(message);
     } else {
         console.log("GlimmerJS (fallback):", message);
     }
 };
 
+// When the native bridge can take raw frames, decoding and player state
+// live in Java (PacketPipeline) and the page only queues frames.
+const glimmerNativePipeline = !!(window.GlimmerNative && window.GlimmerNative.pushFrames);
+
 const Glimmer = {
     myEntityId: null,
     myCurrentHealth: null,
@@ -13,12 +56,16 @@ const Glimmer = {
     myMapLevel: 1,
     myX: null,
     myY: null,
-    idleTimer: null,
+    isIdle: false,
+    // Set by onIdleFired once the native AFK alert has gone off.
+    idleRearmed: false,
     isLowHealth: false,
     settings: {},
 
-    notify: (title, body) => {
-        if (window.GlimmerNative && window.GlimmerNative.notify) {
+    notify: (title, body, category = "general") => {
+        if (window.GlimmerNative && window.GlimmerNative.notifyAlert) {
+            window.GlimmerNative.notifyAlert(category, title, body);
+        } else if (window.GlimmerNative && window.GlimmerNative.notify) {
             window.GlimmerNative.notify(title, body);
         } else {
             glimmerLog(`Notification suppressed: ${title} - ${body}`);
@@ -33,14 +80,15 @@ const Glimmer = {
         }
 
         const healthPercent = (this.myCurrentHealth / this.myMaxHealth) * 100;
+        const threshold = parseInt(this.settings.glimmer_lowHealthPercent, 10) || 20;
 
-        if (healthPercent < 20 && !this.isLowHealth) {
-            this.notify("Low Health Warning!", `Your health is below 20% (${this.myCurrentHealth}/${this.myMaxHealth})`);
+        if (healthPercent < threshold && !this.isLowHealth) {
+            this.notify("Low Health Warning!", `Your health is below ${threshold}% (${this.myCurrentHealth}/${this.myMaxHealth})`, "health");
             this.isLowHealth = true;
             glimmerLog(`Low health alert sent. Health: ${this.myCurrentHealth}/${this.myMaxHealth} (${healthPercent.toFixed(1)}%)`);
-        } else if (healthPercent >= 20 && this.isLowHealth) {
+        } else if (healthPercent >= threshold && this.isLowHealth) {
             this.isLowHealth = false;
-            glimmerLog(`Health recovered above 20%. Health: ${this.myCurrentHealth}/${this.myMaxHealth} (${healthPercent.toFixed(1)}%)`);
+            glimmerLog(`Health recovered above ${threshold}%. Health: ${this.myCurrentHealth}/${this.myMaxHealth} (${healthPercent.toFixed(1)}%)`);
         }
     },
 
@@ -49,7 +97,7 @@ const Glimmer = {
         if (mapLevel !== undefined && mapLevel !== null && this.myMapLevel !== mapLevel) {
             this.myMapLevel = mapLevel;
             changed = true;
-            glimmerLog(`MapLevel changed to: ${this.myMapLevel}`);
+            if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`MapLevel changed to: ${this.myMapLevel}`, LOG_DEBUG);
         }
         if (x !== undefined && x !== null && this.myX !== x) {
             this.myX = x;
@@ -61,7 +109,7 @@ const Glimmer = {
         }
 
         if (changed) {
-            glimmerLog(`Position updated: MapLevel=${this.myMapLevel}, X=${this.myX}, Y=${this.myY}`);
+            if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Position updated: MapLevel=${this.myMapLevel}, X=${this.myX}, Y=${this.myY}`, LOG_DEBUG);
             this.WorldMap.updatePosition();
         }
     },
@@ -74,26 +122,23 @@ const Glimmer = {
             if (actionType === 10) {
                 const [x, y] = actionData;
                 this.updateMyLocation(null, x, y);
-                glimmerLog(`Movement action: X=${x}, Y=${y}`);
+                if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Movement action: X=${x}, Y=${y}`, LOG_DEBUG);
             } else if (actionType === 16) {
                 const entityId = actionData[0];
-                glimmerLog(`Idle action detected for entity ${entityId}, myEntityId: ${this.myEntityId}`);
+                if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Idle action detected for entity ${entityId}, myEntityId: ${this.myEntityId}`, LOG_DEBUG);
                 if (entityId === this.myEntityId) {
                     const idleAlertEnabled = this.settings && (this.settings.glimmer_idleAlert === "true" || this.settings.glimmer_idleAlert === true);
-                    glimmerLog(`Idle alert enabled: ${idleAlertEnabled}`);
+                    if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Idle alert enabled: ${idleAlertEnabled}`, LOG_DEBUG);
                     
-                    if (idleAlertEnabled) {
-                        glimmerLog('Player entered idle state. Starting 30-second timer...');
-                        if (!this.idleTimer) {
-                            this.idleTimer = setTimeout(() => {
-                                this.notify("Glimmer: AFK Alert!", "You have been idle for 30 seconds.");
-                                this.idleTimer = null;
-                                glimmerLog('Idle alert notification sent.');
-                            }, 30000);
-                            glimmerLog('Idle timer started (30 seconds).');
-                        } else {
-                            glimmerLog('Idle timer already running, not starting new one.');
+                    if (idleAlertEnabled && (!this.isIdle || this.idleRearmed)) {
+                        // The countdown runs natively (IdleMonitor) so it keeps
+                        // time while the page is throttled in the background.
+                        this.isIdle = true;
+                        this.idleRearmed = false;
+                        if (window.GlimmerNative && window.GlimmerNative.idleStarted) {
+                            window.GlimmerNative.idleStarted();
                         }
+                        if (glimmerLogLevel >= LOG_DEBUG) glimmerLog('Player entered idle state.', LOG_DEBUG);
                     }
                 }
             }
@@ -123,7 +168,7 @@ const Glimmer = {
             if (payload[1] === this.myEntityId) {
                 const damage = payload[2];
                 this.myCurrentHealth -= damage;
-                glimmerLog(`Took ${damage} damage. Current health: ${this.myCurrentHealth}`);
+                if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Took ${damage} damage. Current health: ${this.myCurrentHealth}`, LOG_DEBUG);
                 this.checkHealthAlert();
             }
         },
@@ -132,18 +177,114 @@ const Glimmer = {
         91: function(payload) {
             if (payload[1] === this.myEntityId) {
                 this.myCurrentHealth = payload[2];
-                glimmerLog(`Health restored. Current health: ${this.myCurrentHealth}`);
+                if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Health restored. Current health: ${this.myCurrentHealth}`, LOG_DEBUG);
                 this.checkHealthAlert();
             }
         }
     },
 
+    // Public chat (packet 12) against glimmer_chatKeywords, for when the
+    // native pipeline is unavailable; ChatKeywords does the same natively.
+    // The keywords become an Aho-Corasick automaton once per settings
+    // change, so a line is read once however long the list is. Handler 12
+    // is only registered while there are keywords, so chat frames are
+    // otherwise skipped unparsed.
+    ChatWatcher: {
+        WORD_CHAR: /[\p{L}\p{N}]/u,
+        source: null,
+        root: null,
+        wholeWord: false,
+
+        configure: function(settings) {
+            if (glimmerNativePipeline) return;
+            const text = settings.glimmer_chatKeywords || "";
+            const wholeWord = settings.glimmer_chatWholeWord === "true";
+            const source = wholeWord + ":" + text;
+            if (source === this.source) return;
+            this.source = source;
+            this.wholeWord = wholeWord;
+            this.root = this.compile(text);
+            if (this.root) {
+                Glimmer.PacketHandlers[12] = this.onChat;
+            } else {
+                delete Glimmer.PacketHandlers[12];
+            }
+        },
+
+        compile: function(text) {
+            const words = new Set(text.split(/[,\n]/).map(word => word.trim().toLowerCase()).filter(word => word));
+            if (words.size === 0) return null;
+            const newNode = () => ({ next: new Map(), fail: null, word: null, out: null });
+            const root = newNode();
+            words.forEach(word => {
+                let node = root;
+                for (let i = 0; i < word.length; i++) {
+                    if (!node.next.has(word[i])) node.next.set(word[i], newNode());
+                    node = node.next.get(word[i]);
+                }
+                node.word = word;
+            });
+            // Breadth first, so every failure target is linked before it is used.
+            const queue = [];
+            root.next.forEach(child => {
+                child.fail = root;
+                queue.push(child);
+            });
+            for (let i = 0; i < queue.length; i++) {
+                const node = queue[i];
+                node.next.forEach((child, ch) => {
+                    let fail = node.fail;
+                    while (fail !== root && !fail.next.has(ch)) fail = fail.fail;
+                    child.fail = fail.next.get(ch) || root;
+                    child.out = child.fail.word !== null ? child.fail : child.fail.out;
+                    queue.push(child);
+                });
+            }
+            glimmerLog(`Watching chat for ${words.size} keyword(s).`);
+            return root;
+        },
+
+        // The first keyword in line, or null.
+        match: function(line) {
+            const text = line.toLowerCase();
+            const root = this.root;
+            let node = root;
+            for (let i = 0; i < text.length; i++) {
+                const ch = text[i];
+                while (node !== root && !node.next.has(ch)) node = node.fail;
+                node = node.next.get(ch) || root;
+                for (let hit = node.word !== null ? node : node.out; hit; hit = hit.out) {
+                    if (!this.wholeWord || this.isWholeWord(text, i - hit.word.length + 1, i)) return hit.word;
+                }
+            }
+            return null;
+        },
+
+        isWholeWord: function(text, first, last) {
+            return (first === 0 || !this.WORD_CHAR.test(text[first - 1]))
+                && (last + 1 === text.length || !this.WORD_CHAR.test(text[last + 1]));
+        },
+
+        // Registered as PacketHandlers[12]: [speaker, line, ...]. The line
+        // is read from its slot only, as PacketPipeline does.
+        onChat: function(payload) {
+            if (!Array.isArray(payload) || payload[0] === this.myEntityId) return;
+            const line = payload[1];
+            if (typeof line !== 'string') return;
+            const keyword = this.ChatWatcher.match(line);
+            if (keyword !== null) this.notify(`Chat: ${keyword}`, line, "chat");
+        }
+    },
+
     handlePacket: function(actionId, payload) {
+        const startedAt = performance.now();
         if (payload && payload[0] === this.myEntityId && actionId !== 13) {
-            if (this.idleTimer) {
-                clearTimeout(this.idleTimer);
-                this.idleTimer = null;
-                glimmerLog('Player activity detected, idle timer cleared.');
+            if (this.isIdle) {
+                this.isIdle = false;
+                if (window.GlimmerNative && window.GlimmerNative.idleEnded) {
+                    window.GlimmerNative.idleEnded();
+                }
+                if (glimmerLogLevel >= LOG_DEBUG) glimmerLog('Player activity detected, idle timer cleared.', LOG_DEBUG);
             }
         }
 
@@ -151,28 +292,331 @@ const Glimmer = {
         if (handler) {
             handler.call(this, payload);
         }
+        this.Metrics.recordPacket(startedAt);
+    },
+
+    // Page-side counters and handler latency, handed to the native Metrics
+    // registry in one bridge call every few seconds. Bucket bounds match
+    // Metrics.BUCKET_BOUNDS_US so the counts merge as-is.
+    Metrics: {
+        BOUNDS_US: [25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000],
+        buckets: new Uint32Array(11),
+        framesIn: 0,
+        framesOut: 0,
+        packets: 0,
+        framesParsed: 0,
+        framesSkipped: 0,
+        sumUs: 0,
+        timer: null,
+
+        recordPacket: function(startedAt) {
+            const micros = Math.round((performance.now() - startedAt) * 1000);
+            const bounds = this.BOUNDS_US;
+            let i = 0;
+            while (i < bounds.length && micros > bounds[i]) i++;
+            this.buckets[i]++;
+            this.sumUs += micros;
+            this.packets++;
+        },
+
+        start: function() {
+            if (this.timer || !window.GlimmerNative || !window.GlimmerNative.reportMetrics) return;
+            this.timer = setInterval(() => this.report(), 5000);
+        },
+
+        report: function() {
+            const heap = (performance.memory && performance.memory.usedJSHeapSize) || 0;
+            window.GlimmerNative.reportMetrics(
+                this.framesIn + ',' + this.framesOut + ',' + this.packets + ',' + heap + ',' + this.sumUs + ','
+                + this.framesParsed + ',' + this.framesSkipped + ',' + this.buckets.join(','));
+            this.buckets.fill(0);
+            this.framesIn = 0;
+            this.framesOut = 0;
+            this.packets = 0;
+            this.framesParsed = 0;
+            this.framesSkipped = 0;
+            this.sumUs = 0;
+        }
+    },
+
+    // Small live readout of the native Metrics registry, switched on from
+    // the launcher (glimmer_metricsOverlay).
+    MetricsOverlay: {
+        element: null,
+        timer: null,
+
+        setEnabled: function(enabled) {
+            if (enabled && !this.element && window.GlimmerNative && window.GlimmerNative.getMetrics) {
+                this.element = document.createElement('div');
+                this.element.style.position = 'fixed';
+                this.element.style.top = '8px';
+                this.element.style.right = '8px';
+                this.element.style.zIndex = '1002';
+                this.element.style.padding = '6px 8px';
+                this.element.style.background = 'rgba(0, 0, 0, 0.6)';
+                this.element.style.color = '#9f9';
+                this.element.style.font = '11px monospace';
+                this.element.style.whiteSpace = 'pre';
+                this.element.style.pointerEvents = 'none';
+                this.element.style.borderRadius = '4px';
+                document.body.appendChild(this.element);
+                this.timer = setInterval(() => this.refresh(), 2000);
+                this.refresh();
+            } else if (!enabled && this.element) {
+                clearInterval(this.timer);
+                this.timer = null;
+                this.element.remove();
+                this.element = null;
+            }
+        },
+
+        // Under memory pressure the overlay stops refreshing until it is over.
+        setPaused: function(paused) {
+            if (!this.element) return;
+            if (paused && this.timer) {
+                clearInterval(this.timer);
+                this.timer = null;
+            } else if (!paused && !this.timer) {
+                this.timer = setInterval(() => this.refresh(), 2000);
+                this.refresh();
+            }
+        },
+
+        refresh: function() {
+            if (Glimmer.backgroundMode) return;
+            try {
+                const m = JSON.parse(window.GlimmerNative.getMetrics());
+                const c = m.counters;
+                const mb = (bytes) => (bytes / 1048576).toFixed(1) + 'MB';
+                this.element.textContent =
+                    `pkt/s   ${(c.framesIn.perSecond + c.framesOut.perSecond).toFixed(1)}\n` +
+                    `decode  p50 ${m.histograms.decodeBatch.p50Us}µs p95 ${m.histograms.decodeBatch.p95Us}µs\n` +
+                    `handler p50 ${m.histograms.jsHandler.p50Us}µs p95 ${m.histograms.jsHandler.p95Us}µs\n` +
+                    `bridge  ${c.bridgeCalls.perSecond.toFixed(1)}/s\n` +
+                    `parse   ${c.jsFramesParsed.perSecond.toFixed(1)}/s skip ${c.jsFramesSkipped.perSecond.toFixed(1)}/s\n` +
+                    `heap    ${mb(m.gauges.javaHeapBytes + m.gauges.nativeHeapBytes)} js ${mb(m.gauges.jsHeapBytes)}`;
+                // With several worlds open, this page's own share.
+                if (m.gauges.sessions > 1 && window.GlimmerNative.getSessionStats) {
+                    const s = JSON.parse(window.GlimmerNative.getSessionStats());
+                    this.element.textContent +=
+                        `\nworld   ${s.label || 'Main'} (${m.gauges.sessions}) js ${mb(s.jsHeapBytes)}` +
+                        ` cpu ${s.packetCpuMs}ms`;
+                }
+            } catch (e) {
+                glimmerLog('Metrics overlay refresh failed: ' + e, LOG_ERROR);
+            }
+        }
+    },
+
+    // Called natively once the AFK alert has fired. The player is still
+    // idle, but the next idle packet starts a fresh countdown.
+    onIdleFired: function() {
+        this.idleRearmed = true;
+    },
+
+    // Position updates pushed back from the native pipeline, at most one per batch.
+    onNativePosition: function(mapLevel, x, y) {
+        this.updateMyLocation(mapLevel, x, y);
+    },
+
+    FrameQueue: {
+        frames: [],
+        flushScheduled: false,
+        timerScheduled: false,
+        // No animation frames while backgrounded, so a timer batches instead.
+        backgroundFlushMs: 80,
+
+        push: function(direction, data) {
+            this.frames.push(direction + data);
+            if (document.hidden || Glimmer.backgroundMode) {
+                // Separate from flushScheduled: an animation frame asked for
+                // just before going hidden may not come until we are back.
+                if (!this.timerScheduled) {
+                    this.timerScheduled = true;
+                    setTimeout(() => {
+                        this.timerScheduled = false;
+                        this.flush();
+                    }, this.backgroundFlushMs);
+                }
+            } else if (!this.flushScheduled) {
+                this.flushScheduled = true;
+                requestAnimationFrame(() => {
+                    this.flushScheduled = false;
+                    this.flush();
+                });
+            }
+        },
+
+        flush: function() {
+            if (this.frames.length === 0) return;
+            const batch = this.frames.join('\n');
+            this.frames.length = 0;
+            window.GlimmerNative.pushFrames(batch);
+        }
+    },
+
+    // Reads just enough of a "42[...]" frame to know whether anything here
+    // wants it, so most frames are dropped without a JSON.parse and the rest
+    // only parse the payload slice.
+    FrameDispatch: {
+        // Frames that always matter, whatever is registered.
+        ALWAYS: { "15": true, "pm": true, "0": true },
+
+        // The event name of a 42["...", frame, or null.
+        eventOf: function(data) {
+            if (data.charCodeAt(3) !== 34) return null; // "
+            const end = data.indexOf('"', 4);
+            return end === -1 ? null : data.substring(4, end);
+        },
+
+        // A non-negative integer starting at index, or -1.
+        intAt: function(data, index) {
+            let value = -1;
+            for (let i = index; i < data.length; i++) {
+                const digit = data.charCodeAt(i) - 48;
+                if (digit < 0 || digit > 9) break;
+                value = (value < 0 ? 0 : value * 10) + digit;
+            }
+            return value;
+        },
+
+        // Any packet can end idling, so while idle nothing is skipped.
+        wants: function(actionId) {
+            return Glimmer.PacketHandlers[actionId] !== undefined || Glimmer.isIdle;
+        },
+
+        // Whether frame 42["event",[actionId,... is worth parsing; the
+        // action id sits right after the opening bracket of the payload.
+        wantsWrapped: function(data, event) {
+            const at = 4 + event.length + 3; // past ",[
+            return data.charCodeAt(at - 1) === 91 && this.wants(this.intAt(data, at));
+        },
+
+        // JSON.parse of the payload alone, skipping the event name.
+        payloadOf: function(data, event) {
+            return JSON.parse(data.substring(4 + event.length + 2, data.length - 1));
+        }
+    },
+
+    // In-page decoding, only used when the native pipeline is unavailable.
+    routeInboundFrame: function(data, source) {
+        this.Metrics.framesIn++;
+        const dispatch = this.FrameDispatch;
+        const event = dispatch.eventOf(data);
+        let wanted = false;
+        if (event !== null) {
+            if (dispatch.ALWAYS[event]) wanted = true;
+            else if (event === "1") wanted = dispatch.wantsWrapped(data, event);
+            else wanted = dispatch.wants(parseInt(event, 10));
+        }
+        if (!wanted) {
+            this.Metrics.framesSkipped++;
+            return;
+        }
+        this.Metrics.framesParsed++;
+
+        let payload;
+        try {
+            payload = dispatch.payloadOf(data, event);
+        } catch (parseError) {
+            glimmerLog(`${source} parse error: ` + parseError.message, LOG_ERROR);
+            return;
+        }
+
+        if (event === "15") {
+            glimmerLog(`>>>>>>>>>> LOGGEDIN PACKET (15) CAPTURED VIA ${source}! <<<<<<<<<<`);
+            // Store login data globally for when Glimmer is ready
+            window.glimmerEarlyLogin = { payload, source };
+            this.NetworkMonitor.processLogin(payload, source);
+        } else if (event === "pm") {
+            this.NetworkMonitor.handlePM(payload);
+        } else if (event === "0" && Array.isArray(payload)) {
+            payload.forEach(update => {
+                if (dispatch.wants(update[0])) this.handlePacket(update[0], update[1]);
+            });
+        } else if (event === "1" && Array.isArray(payload) && payload.length >= 2) {
+            // Type "1" packets: [actionType, actionData] - extract the real action
+            this.handlePacket(payload[0], payload[1]);
+        } else {
+            this.handlePacket(parseInt(event, 10), payload);
+        }
     },
 
+    routeOutboundFrame: function(data) {
+        this.Metrics.framesOut++;
+        const dispatch = this.FrameDispatch;
+        // Only type "1" actions are looked at on the way out.
+        if (dispatch.eventOf(data) !== "1" || !dispatch.wantsWrapped(data, "1")) {
+            this.Metrics.framesSkipped++;
+            return;
+        }
+        this.Metrics.framesParsed++;
+        try {
+            const payload = dispatch.payloadOf(data, "1");
+            if (Array.isArray(payload) && payload.length >= 2) {
+                // Type "1" outgoing packets: [actionType, actionData]
+                if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`[WS-OUT] Type 1 action ${payload[0]} detected`, LOG_DEBUG);
+                this.handlePacket(payload[0], payload[1]);
+            }
+        } catch (parseError) {
+            // Ignore parsing errors
+        }
+    },
+
+    // Draws the map from the tile pack served natively under /glimmer-map/.
+    // Position changes only mark the view dirty; the canvas is redrawn at
+    // most once per animation frame, and not at all while hidden. Without a
+    // pack the window falls back to the highlite.dev map in an iframe.
     WorldMap: {
         mapWindow: null,
+        canvas: null,
         mapEmbed: null,
+        mapUrl: 'https://www.highlite.dev/map?hide_decor=true&highliteMapPlugin=true',
+        tileBase: '/glimmer-map/',
+        meta: null,
+        metaRequested: false,
+        // Decoded tiles by "level/x/y", oldest first; see cacheTile().
+        tiles: new Map(),
+        pendingTiles: new Set(),
+        maxTiles: 48,
+        redrawQueued: false,
+        toggleButton: null,
+        initialized: false,
+        suspended: false,
+        suspendedVisibility: null,
 
         init: function() {
             if (!Glimmer.settings.glimmer_mapEnabled || Glimmer.settings.glimmer_mapEnabled !== "true") {
                 return;
             }
+            if (this.initialized) {
+                return;
+            }
 
             if (typeof interact === 'undefined') {
-                glimmerLog("[WorldMap] Error: interact.js not loaded. Map functionality disabled.");
+                glimmerLog("[WorldMap] Error: interact.js not loaded. Map functionality disabled.", LOG_ERROR);
                 return;
             }
 
             this.setupInteractOverlay();
             this.setupInteractListeners();
             this.createToggleButton();
+            this.initialized = true;
             glimmerLog("[WorldMap] Initialized.");
         },
 
+        // Called when the launcher flips the map setting mid-session.
+        setEnabled: function(enabled) {
+            if (!this.initialized) {
+                if (enabled) this.init();
+                return;
+            }
+            this.toggleButton.style.display = enabled ? '' : 'none';
+            if (!enabled && this.mapWindow) {
+                this.mapWindow.style.visibility = 'hidden';
+            }
+        },
+
         setupInteractOverlay: function() {
             const overlay = document.createElement('div');
             overlay.id = 'interact-iframe-overlay';
@@ -270,6 +714,7 @@ const Glimmer = {
                 this.toggleMap();
             };
             document.body.appendChild(button);
+            this.toggleButton = button;
         },
 
         toggleMap: function() {
@@ -345,28 +790,117 @@ const Glimmer = {
             };
             titleDiv.appendChild(closeButton);
 
+            const canvas = document.createElement('canvas');
+            canvas.style.width = '100%';
+            canvas.style.flexGrow = '1';
+            canvas.style.minHeight = '0';
+            canvas.style.borderRadius = '0 0 10px 10px';
+            this.mapWindow.appendChild(canvas);
+            this.canvas = canvas;
+
+            // Resizing through interact.js only changes the CSS size.
+            if (typeof ResizeObserver !== 'undefined') {
+                new ResizeObserver(() => this.updatePosition()).observe(canvas);
+            }
+            this.loadMeta();
+        },
+
+        loadMeta: function() {
+            if (this.metaRequested) return;
+            this.metaRequested = true;
+            fetch(this.tileBase + 'meta.json')
+                .then(response => response.ok ? response.json() : null)
+                .then(meta => {
+                    if (!meta) {
+                        glimmerLog("[WorldMap] No map tile pack installed, using the online map.", LOG_INFO);
+                        this.useEmbed();
+                        return;
+                    }
+                    this.meta = meta;
+                    this.updatePosition();
+                })
+                .catch(error => {
+                    glimmerLog("[WorldMap] Could not read map tiles, using the online map: " + error, LOG_INFO);
+                    this.useEmbed();
+                });
+        },
+
+        // Swaps the canvas for the highlite.dev map, which follows the player
+        // through postMessage instead of drawing tiles here.
+        useEmbed: function() {
+            if (!this.mapWindow || this.mapEmbed) return;
             const embed = document.createElement('iframe');
-            embed.src = `https://www.highlite.dev/map?hide_decor=true&highliteMapPlugin=true`;
+            embed.src = this.suspended ? 'about:blank' : this.mapUrl;
             embed.style.width = '100%';
             embed.style.height = '100%';
             embed.style.border = 'none';
             embed.style.borderRadius = '0 0 10px 10px';
             embed.style.flexGrow = '1';
-            this.mapWindow.appendChild(embed);
-            this.mapEmbed = embed;
-
             embed.onload = () => {
                 this.updatePosition();
             };
+            this.canvas.replaceWith(embed);
+            this.canvas = null;
+            this.mapEmbed = embed;
+        },
+
+        isVisible: function() {
+            return this.mapWindow && !this.suspended && this.mapWindow.style.visibility !== 'hidden';
+        },
+
+        // Background mode: hide the overlay and let go of the decoded tiles.
+        // resume() puts the window back; tiles come back from the pack.
+        suspend: function() {
+            if (this.suspended || !this.mapWindow) return;
+            this.suspended = true;
+            this.suspendedVisibility = this.mapWindow.style.visibility;
+            this.mapWindow.style.visibility = 'hidden';
+            this.dropTiles();
+            if (this.mapEmbed) this.mapEmbed.src = 'about:blank';
+        },
+
+        resume: function() {
+            if (!this.suspended) return;
+            this.suspended = false;
+            this.mapWindow.style.visibility = this.suspendedVisibility;
+            if (this.mapEmbed) this.mapEmbed.src = this.mapUrl;
+        },
+
+        // Missing tiles are cached as null, so check before closing.
+        dropTiles: function() {
+            this.tiles.forEach(bitmap => bitmap && bitmap.close && bitmap.close());
+            this.tiles.clear();
+        },
+
+        // The worst memory pressure: let go of the whole map window. The map
+        // button builds it again, meta and all.
+        releaseWindow: function() {
+            if (!this.mapWindow) return;
+            this.dropTiles();
+            this.mapWindow.remove();
+            this.mapWindow = null;
+            this.canvas = null;
+            this.mapEmbed = null;
+            this.meta = null;
+            this.metaRequested = false;
+            this.suspended = false;
+            this.suspendedVisibility = null;
         },
 
         updatePosition: function() {
-            if (!this.mapEmbed || !this.mapEmbed.contentWindow || Glimmer.myX === null || Glimmer.myY === null) {
-                return;
-            }
+            if (this.redrawQueued || !this.isVisible()) return;
+            this.redrawQueued = true;
+            requestAnimationFrame(() => {
+                this.redrawQueued = false;
+                if (!this.isVisible()) return;
+                if (this.mapEmbed) this.postPosition();
+                else this.draw();
+            });
+        },
 
+        postPosition: function() {
+            if (!this.mapEmbed.contentWindow || Glimmer.myX === null || Glimmer.myY === null) return;
             const mapLevelText = Glimmer.myMapLevel == 1 ? 'Overworld' : Glimmer.myMapLevel == 0 ? 'Underworld' : 'Sky';
-
             this.mapEmbed.contentWindow.postMessage(
                 {
                     X: Glimmer.myX + 512,
@@ -375,6 +909,91 @@ const Glimmer = {
                 },
                 'https://www.highlite.dev'
             );
+        },
+
+        draw: function() {
+            const canvas = this.canvas;
+            const scale = window.devicePixelRatio || 1;
+            const width = Math.round(canvas.clientWidth * scale);
+            const height = Math.round(canvas.clientHeight * scale);
+            if (width === 0 || height === 0) return;
+            if (canvas.width !== width || canvas.height !== height) {
+                canvas.width = width;
+                canvas.height = height;
+            }
+            const context = canvas.getContext('2d');
+            context.fillStyle = '#101010';
+            context.fillRect(0, 0, width, height);
+
+            const meta = this.meta;
+            if (!meta || Glimmer.myX === null || Glimmer.myY === null) return;
+
+            // Player in the middle; one map pixel per tile pixel, times DPR.
+            const level = Glimmer.myMapLevel;
+            const pixelsPerWorld = meta.tilePixels / meta.worldPerTile * scale;
+            const tileSize = meta.tilePixels * scale;
+            const centerX = (Glimmer.myX - meta.originX) * pixelsPerWorld;
+            const centerY = (Glimmer.myY - meta.originY) * pixelsPerWorld;
+            const left = centerX - width / 2;
+            const top = centerY - height / 2;
+
+            const firstX = Math.floor(left / tileSize);
+            const lastX = Math.floor((left + width) / tileSize);
+            const firstY = Math.floor(top / tileSize);
+            const lastY = Math.floor((top + height) / tileSize);
+            for (let tileX = firstX; tileX <= lastX; tileX++) {
+                for (let tileY = firstY; tileY <= lastY; tileY++) {
+                    const bitmap = this.getTile(level, tileX, tileY);
+                    if (bitmap) {
+                        context.drawImage(bitmap, Math.round(tileX * tileSize - left),
+                            Math.round(tileY * tileSize - top), tileSize, tileSize);
+                    }
+                }
+            }
+
+            context.fillStyle = '#ffd23f';
+            context.strokeStyle = '#000';
+            context.lineWidth = scale;
+            context.beginPath();
+            context.arc(width / 2, height / 2, 4 * scale, 0, 2 * Math.PI);
+            context.fill();
+            context.stroke();
+        },
+
+        // A decoded tile, or null while it is still being fetched; the fetch
+        // schedules another frame when it lands.
+        getTile: function(level, tileX, tileY) {
+            const key = level + '/' + tileX + '/' + tileY;
+            const bitmap = this.tiles.get(key);
+            if (bitmap !== undefined) {
+                // Re-insert to mark it most recently used.
+                this.tiles.delete(key);
+                this.tiles.set(key, bitmap);
+                return bitmap;
+            }
+            if (!this.pendingTiles.has(key)) {
+                this.pendingTiles.add(key);
+                fetch(this.tileBase + key)
+                    .then(response => response.ok ? response.blob().then(blob => createImageBitmap(blob)) : null)
+                    .catch(() => null)
+                    .then(decoded => {
+                        this.pendingTiles.delete(key);
+                        this.cacheTile(key, decoded);
+                        this.updatePosition();
+                    });
+            }
+            return null;
+        },
+
+        // Missing tiles are cached as null so open sea is not asked for again.
+        cacheTile: function(key, bitmap) {
+            this.tiles.set(key, bitmap);
+            while (this.tiles.size > this.maxTiles) {
+                const oldest = this.tiles.keys().next().value;
+                const evicted = this.tiles.get(oldest);
+                if (evicted && evicted.close) evicted.close();
+                this.tiles.delete(oldest);
+            }
         }
     },
 
@@ -395,43 +1014,27 @@ const Glimmer = {
                     if (this.responseURL && this.responseURL.includes('socket.io') && typeof this.responseText === 'string') {
                         
                         // Log all Socket.IO polling responses for debugging
-                        if (this.responseText.includes('42[')) {
-                            glimmerLog('[XHR] Socket.IO polling response: ' + this.responseText.substring(0, 200));
+                        if (glimmerLogLevel >= LOG_DEBUG && this.responseText.includes('42[')) {
+                            glimmerLog('[XHR] Socket.IO polling response: ' + this.responseText.substring(0, 200), LOG_DEBUG);
                         }
 
-                        // Process all game packets via unified message router
-                        try {
-                            const messages = this.responseText.split('\n');
-                            for (const message of messages) {
-                                if (message.startsWith('42[')) {
-                                    glimmerLog('[XHR] Processing packet via polling: ' + message.substring(0, 50));
-                                    
-                                    // Extract just the JSON part for processing
-                                    const jsonPart = message.substring(2); // Remove "42" prefix
-                                    try {
-                                        const messageContent = JSON.parse(jsonPart);
-                                        const actionIdString = messageContent[0];
-                                        const payload = messageContent[1];
-
-                                        if (actionIdString === "15") {
-                                            glimmerLog(`>>>>>>>>>> LOGGEDIN PACKET (15) CAPTURED VIA XHR! <<<<<<<<<<`);
-                                            Glimmer.NetworkMonitor.processLogin(payload, "XHR");
-                                        } else if (actionIdString === "pm") {
-                                            Glimmer.NetworkMonitor.handlePM(payload);
-                                        } else if (actionIdString === "0" && Array.isArray(payload)) {
-                                            payload.forEach(update => {
-                                                Glimmer.handlePacket(update[0], update[1]);
-                                            });
-                                        } else {
-                                            Glimmer.handlePacket(parseInt(actionIdString, 10), payload);
-                                        }
-                                    } catch (parseError) {
-                                        // Ignore parsing errors for non-game messages
-                                    }
+                        // Walk the game packets in place instead of splitting
+                        // the whole response; each goes through the same router.
+                        const text = this.responseText;
+                        let start = text.indexOf('42[');
+                        while (start !== -1) {
+                            let end = text.indexOf('\n', start);
+                            if (end === -1) end = text.length;
+                            if (start === 0 || text.charCodeAt(start - 1) === 10) {
+                                const message = text.substring(start, end);
+                                if (glimmerNativePipeline) {
+                                    Glimmer.FrameQueue.push('I', message);
+                                } else {
+                                    if (glimmerLogLevel >= LOG_DEBUG) glimmerLog('[XHR] Processing packet via polling: ' + message.substring(0, 50), LOG_DEBUG);
+                                    Glimmer.routeInboundFrame(message, "XHR");
                                 }
                             }
-                        } catch (e) {
-                            // Ignore parsing errors for non-game messages
+                            start = text.indexOf('42[', end);
                         }
                     }
                 });
@@ -459,13 +1062,14 @@ const Glimmer = {
                     const message = pmData.msg;
                     
                     // Truncate long messages for notification
-                    const truncatedMsg = message.length > 50 ? message.substring(0, 50) + "..." : message;
+                    const preview = parseInt(Glimmer.settings.glimmer_pmPreviewChars, 10) || 50;
+                    const truncatedMsg = message.length > preview ? message.substring(0, preview) + "..." : message;
                     
-                    Glimmer.notify(`PM from ${fromUser}`, truncatedMsg);
+                    Glimmer.notify(`PM from ${fromUser}`, truncatedMsg, "pm");
                     glimmerLog(`PM received from ${fromUser}: ${message}`);
                 }
             } catch (e) {
-                glimmerLog('Error processing PM: ' + e.toString());
+                glimmerLog('Error processing PM: ' + e.toString(), LOG_ERROR);
             }
         },
 
@@ -476,7 +1080,7 @@ const Glimmer = {
             Glimmer.updateMyLocation(loginPayload[4], loginPayload[5], loginPayload[6]);
 
             const hpLevel = loginPayload[48];
-            glimmerLog(`HP extraction debug - Position 48 value: ${hpLevel}, Type: ${typeof hpLevel}`);
+            if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`HP extraction debug - Position 48 value: ${hpLevel}, Type: ${typeof hpLevel}`, LOG_DEBUG);
             if (hpLevel && typeof hpLevel === 'number' && hpLevel > 0) {
                 Glimmer.myMaxHealth = hpLevel;
                 Glimmer.myCurrentHealth = hpLevel;
@@ -485,7 +1089,7 @@ const Glimmer = {
                 glimmerLog(`Failed to extract HP from position 48. Searching in payload...`);
                 for (let i = 40; i < 60; i++) {
                     if (typeof loginPayload[i] === 'number' && loginPayload[i] >= 10 && loginPayload[i] <= 100) {
-                        glimmerLog(`Found potential HP at position ${i}: ${loginPayload[i]}`);
+                        if (glimmerLogLevel >= LOG_DEBUG) glimmerLog(`Found potential HP at position ${i}: ${loginPayload[i]}`, LOG_DEBUG);
                         // Use the first reasonable HP value found
                         Glimmer.myMaxHealth = loginPayload[i];
                         Glimmer.myCurrentHealth = loginPayload[i];
@@ -495,12 +1099,60 @@ const Glimmer = {
                 }
             }
 
-            Glimmer.notify("Glimmer Connected", "Now monitoring your session.");
+            Glimmer.notify("Glimmer Connected", "Now monitoring your session.", "connection");
         },
 
         isIntercepted: false,
     },
 
+    // Pushed by the native side whenever a setting changes, so nothing here
+    // has to poll getSettings(). Older snapshots are ignored.
+    settingsVersion: 0,
+
+    applySettings: function(settings, version) {
+        if (version <= this.settingsVersion) return;
+        const wasMapEnabled = this.settings.glimmer_mapEnabled === "true";
+        this.settings = { ...this.settings, ...settings };
+        this.settingsVersion = version;
+
+        if (window.GlimmerNative && window.GlimmerNative.getLogLevel) {
+            glimmerLogLevel = window.GlimmerNative.getLogLevel();
+        }
+        const mapEnabled = this.settings.glimmer_mapEnabled === "true";
+        if (mapEnabled !== wasMapEnabled) {
+            this.WorldMap.setEnabled(mapEnabled);
+        }
+        this.MetricsOverlay.setEnabled(this.settings.glimmer_metricsOverlay === "true");
+        this.ChatWatcher.configure(this.settings);
+        glimmerLog("Settings updated to version " + version);
+    },
+
+    // Called natively when the activity goes to the background and back.
+    backgroundMode: false,
+
+    setBackgroundMode: function(enabled) {
+        this.backgroundMode = enabled;
+        if (enabled) {
+            this.WorldMap.suspend();
+            // A flush may be waiting on an animation frame that won't come.
+            this.FrameQueue.flush();
+        } else {
+            this.WorldMap.resume();
+            this.WorldMap.updatePosition();
+        }
+        glimmerLog(enabled ? "Entered background render mode." : "Left background render mode.");
+    },
+
+    // Called natively from onTrimMemory with the tier of the pressure:
+    // 1 pauses the overlays, 2 also drops the decoded map tiles, 3 also
+    // frees the map window. 0 once the activity is back in front.
+    onMemoryPressure: function(tier) {
+        this.MetricsOverlay.setPaused(tier >= 1);
+        if (tier >= 2) this.WorldMap.dropTiles();
+        if (tier >= 3) this.WorldMap.releaseWindow();
+        if (tier > 0) glimmerLog("Memory pressure, tier " + tier + ".");
+    },
+
     initialize: function() {
         // Initialize with default settings to prevent undefined checks
         this.settings = {
@@ -512,20 +1164,32 @@ const Glimmer = {
         
         if (window.GlimmerNative && window.GlimmerNative.getSettings) {
             try {
+                // Version first: if a change lands in between, its push still applies.
+                const settingsVersion = window.GlimmerNative.getSettingsVersion
+                    ? window.GlimmerNative.getSettingsVersion()
+                    : 0;
                 const settingsJson = window.GlimmerNative.getSettings();
                 const loadedSettings = JSON.parse(settingsJson);
                 // Merge loaded settings with defaults
                 this.settings = { ...this.settings, ...loadedSettings };
+                this.settingsVersion = settingsVersion;
                 glimmerLog("Settings loaded: " + JSON.stringify(this.settings));
             } catch (e) {
-                glimmerLog("Error parsing settings, using defaults: " + e.toString());
+                glimmerLog("Error parsing settings, using defaults: " + e.toString(), LOG_ERROR);
             }
         } else {
             glimmerLog("GlimmerNative bridge not available, using default settings.");
         }
 
+        if (glimmerNativePipeline) {
+            glimmerLog("Packet decoding handled by the native pipeline.");
+        }
+
         this.NetworkMonitor.start();
         this.WorldMap.init();
+        this.Metrics.start();
+        this.MetricsOverlay.setEnabled(this.settings.glimmer_metricsOverlay === "true");
+        this.ChatWatcher.configure(this.settings);
         
         // Check for early login data captured before Glimmer was ready
         if (window.glimmerEarlyLogin) {
@@ -549,35 +1213,34 @@ window.WebSocket = new Proxy(originalWebSocket, {
             
             wsInstance.addEventListener('open', (event) => {
                 glimmerLog('WebSocket connection established to: ' + args[0]);
+                if (window.GlimmerNative && window.GlimmerNative.onSocketOpen) {
+                    window.GlimmerNative.onSocketOpen();
+                }
             });
             
             wsInstance.addEventListener('close', (event) => {
                 glimmerLog('WebSocket connection closed: ' + event.code);
+                if (window.GlimmerNative && window.GlimmerNative.onSocketClose) {
+                    window.GlimmerNative.onSocketClose(event.code);
+                }
             });
             
             wsInstance.addEventListener('error', (event) => {
-                glimmerLog('WebSocket connection error');
+                glimmerLog('WebSocket connection error', LOG_ERROR);
+                if (window.GlimmerNative && window.GlimmerNative.onSocketError) {
+                    window.GlimmerNative.onSocketError();
+                }
             });
             
             // Intercept outgoing messages (type "1" packets)
             const originalSend = wsInstance.send;
             wsInstance.send = function(data) {
                 if (typeof data === 'string' && data.startsWith('42[')) {
-                    glimmerLog('[WS-OUT] Sending packet: ' + data.substring(0, 50));
-                    
-                    try {
-                        const jsonPart = data.substring(2);
-                        const messageContent = JSON.parse(jsonPart);
-                        const actionIdString = messageContent[0];
-                        const payload = messageContent[1];
-
-                        if (actionIdString === "1" && Array.isArray(payload) && payload.length >= 2 && Glimmer?.handlePacket) {
-                            // Type "1" outgoing packets: [actionType, actionData]
-                            glimmerLog(`[WS-OUT] Type 1 action ${payload[0]} detected`);
-                            Glimmer.handlePacket(payload[0], payload[1]);
-                        }
-                    } catch (parseError) {
-                        // Ignore parsing errors
+                    if (glimmerNativePipeline) {
+                        Glimmer.FrameQueue.push('O', data);
+                    } else {
+                        if (glimmerLogLevel >= LOG_DEBUG) glimmerLog('[WS-OUT] Sending packet: ' + data.substring(0, 50), LOG_DEBUG);
+                        Glimmer.routeOutboundFrame(data);
                     }
                 }
                 
@@ -588,45 +1251,19 @@ window.WebSocket = new Proxy(originalWebSocket, {
                 const data = typeof event.data === 'string' ? event.data : null;
                 
                 if (data && data.startsWith('42[')) {
-                    glimmerLog('[WS-IN] Processing packet: ' + data.substring(0, 50));
-                    
                     // Process immediately - don't wait for Glimmer to be ready
-                    const jsonPart = data.substring(2); // Remove "42" prefix
-                    try {
-                        const messageContent = JSON.parse(jsonPart);
-                        const actionIdString = messageContent[0];
-                        const payload = messageContent[1];
-
-                        if (actionIdString === "15") {
-                            glimmerLog(`>>>>>>>>>> LOGGEDIN PACKET (15) CAPTURED VIA WS! <<<<<<<<<<`);
-                            // Store login data globally for when Glimmer is ready
-                            window.glimmerEarlyLogin = { payload, source: "WS" };
-                            
-                            // Try immediate processing if Glimmer exists
-                            if (Glimmer && Glimmer.NetworkMonitor) {
-                                Glimmer.NetworkMonitor.processLogin(payload, "WS");
-                            }
-                        } else if (actionIdString === "pm" && Glimmer?.NetworkMonitor) {
-                            Glimmer.NetworkMonitor.handlePM(payload);
-                        } else if (actionIdString === "0" && Array.isArray(payload) && Glimmer?.handlePacket) {
-                            payload.forEach(update => {
-                                Glimmer.handlePacket(update[0], update[1]);
-                            });
-                        } else if (actionIdString === "1" && Array.isArray(payload) && payload.length >= 2 && Glimmer?.handlePacket) {
-                            // Type "1" packets: [actionType, actionData] - extract the real action
-                            Glimmer.handlePacket(payload[0], payload[1]);
-                        } else if (Glimmer?.handlePacket) {
-                            Glimmer.handlePacket(parseInt(actionIdString, 10), payload);
-                        }
-                    } catch (parseError) {
-                        glimmerLog('WS parse error: ' + parseError.message);
+                    if (glimmerNativePipeline) {
+                        Glimmer.FrameQueue.push('I', data);
+                    } else {
+                        if (glimmerLogLevel >= LOG_DEBUG) glimmerLog('[WS-IN] Processing packet: ' + data.substring(0, 50), LOG_DEBUG);
+                        Glimmer.routeInboundFrame(data, "WS");
                     }
                 }
             });
             
             return wsInstance;
         } catch (error) {
-            glimmerLog('WebSocket construction failed: ' + error.toString());
+            glimmerLog('WebSocket construction failed: ' + error.toString(), LOG_ERROR);
             throw error;
         }
     }
@@ -662,6 +1299,16 @@ const observer = new MutationObserver((mutations) => {
 
 observer.observe(document, { childList: true, subtree: true });
 
+document.addEventListener("visibilitychange", () => {
+    if (!document.hidden) return;
+    if (glimmerNativePipeline) {
+        Glimmer.FrameQueue.flush();
+    }
+    if (glimmerLogQueue.lines.length > 0) {
+        glimmerLogQueue.flush();
+    }
+});
+
 document.addEventListener("DOMContentLoaded", () => {
     Glimmer.initialize();
 });
\ No newline at end of file